@@ -1,9 +1,8 @@
 package enigma;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Arrays;
 
+import static enigma.EnigmaException.*;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
  *  to and from indices into the alphabet.
@@ -17,8 +16,30 @@ class Alphabet {
     Alphabet(String chars) {
 
         alphabetString = chars;
-        for (int i = 0; i < chars.length(); i++) {
-            map.put(chars.charAt(i), i);
+        _chars = chars.toCharArray();
+        char max = 0;
+        for (char c : _chars) {
+            max = (char) Math.max(max, c);
+        }
+        int capacity = Integer.highestOneBit(Math.max(1, _chars.length))
+                << 2;
+        boolean dense = max < DENSE_LIMIT;
+        _dense = dense ? new int[max + 1] : null;
+        _keys = dense ? null : new char[capacity];
+        _values = dense ? null : new int[capacity];
+        Arrays.fill(dense ? _dense : _values, -1);
+        for (int i = 0; i < _chars.length; i++) {
+            if (contains(_chars[i])) {
+                throw error("duplicate character '%c' in alphabet",
+                            _chars[i]);
+            }
+            if (_dense != null) {
+                _dense[_chars[i]] = i;
+            } else {
+                int k = slot(_chars[i]);
+                _keys[k] = _chars[i];
+                _values[k] = i;
+            }
         }
     }
 
@@ -31,45 +52,97 @@ class Alphabet {
 
     /** Returns the size of the alphabet. */
     int size() {
-        return map.size();
+        return _chars.length;
     }
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-
-        return map.containsKey(ch);
+        return index(ch) >= 0;
     }
 
     /** Returns character number INDEX in the alphabet, where
-     *  0 <= INDEX < size().
-     * @return*/
+     *  0 <= INDEX < size(). */
     char toChar(int index) {
+        return _chars[index];
+    }
+
+    /** Returns the index of character CH which must be in
+     *  the alphabet. This is the inverse of toChar(). */
+    int toInt(char ch) {
+        int result = index(ch);
+        if (result < 0) {
+            throw error("character '%c' not in alphabet", ch);
+        }
+        return result;
+    }
 
-        for (Entry<Character, Integer> entry: map.entrySet()) {
-            if (entry.getValue() == index) {
-                return entry.getKey();
+    /** Returns the indices of the non-blank characters of TEXT, which is
+     *  described by WHAT in errors. */
+    int[] indices(String text, String what) {
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            int k = index(c);
+            if (k < 0) {
+                throw error("character '%c' of %s not in alphabet", c,
+                            what);
             }
+            result[n++] = k;
         }
-        Character never = 'p';
-        return never;
+        return Arrays.copyOf(result, n);
+    }
 
+    /** Returns the index of CH, or -1 if CH is not in the alphabet. */
+    private int index(char ch) {
+        if (_dense != null) {
+            return ch < _dense.length ? _dense[ch] : -1;
+        }
+        return _values[slot(ch)];
     }
 
-    /** Returns the index of character CH which must be in
-     *  the alphabet. This is the inverse of toChar(). */
-    int toInt(char ch) {
-        return map.get(ch);
+    /** Returns the slot of the open-addressed table holding CH, or the
+     *  empty slot where CH would go. */
+    private int slot(char ch) {
+        int mask = _keys.length - 1;
+        int h = ch * HASH_MULTIPLIER;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (_values[i] >= 0 && _keys[i] != ch) {
+            i = (i + 1) & mask;
+        }
+        return i;
     }
 
     /** alphabetString containing string of alphabets. */
-    private String alphabetString;
+    private final String alphabetString;
 
     public String toString() {
         return alphabetString;
     }
 
-    /** hashmap from alphabet to integer. */
-    private Map<Character, Integer> map = new HashMap<>();
+    /** Alphabets whose characters all lie below this bound use a
+     *  directly indexed table from character to index. */
+    static final int DENSE_LIMIT = 1 << 12;
+
+    /** Odd multiplier used to scatter characters in the sparse table. */
+    private static final int HASH_MULTIPLIER = 0x9E3779B1;
+
+    /** The characters of this alphabet, in index order. */
+    private final char[] _chars;
+
+    /** Index of each character, or -1, for dense alphabets; otherwise
+     *  null. */
+    private final int[] _dense;
+
+    /** Keys of the open-addressed table for sparse alphabets. */
+    private final char[] _keys;
+
+    /** Index of the character in the corresponding slot of _keys, or -1
+     *  for empty slots. */
+    private final int[] _values;
 
 
 
@@ -0,0 +1,550 @@
+package enigma;
+
+import java.util.Arrays;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import static enigma.EnigmaException.*;
+
+/** Decrypts one ciphertext under many candidate settings of one rotor
+ *  order, for attacks and for checking keys, without the setting lines
+ *  and Strings that Main and Machine.convert(String) would need for
+ *  each.  A candidate is a setting of the rotors after the reflector and
+ *  a plugboard, given in flat int arrays of alphabet indices: candidate
+ *  K's rotor settings are at K * (slots - 1) in a positions array, and
+ *  the image of each character under its plugboard at K * size in a
+ *  plugboards array.  The results are exactly those of a Machine with
+ *  the same rotors set to each candidate in turn.
+ *
+ *  A batch keeps the combined substitution of the rotors other than the
+ *  fast rotor, from the fast rotor to the reflector and back, and
+ *  rebuilds it only when one of them moves.  That is usually just the
+ *  middle rotor (the one next to the fast rotor), so the substitution of
+ *  the rotors left of it is kept as well.  Most keystrokes then take
+ *  three table lookups between the plugboards, rather than one per
+ *  rotor each way.
+ *
+ *  When the Vector API is enabled (see Vectors and setVectors) and the
+ *  rotors have tables, candidates are instead decrypted a vector's width
+ *  at a time, one per lane (see Lanes), with the same results.  A batch
+ *  owns its buffers, so each thread needs its own.
+ *  @author Agam Gupta
+ */
+class Batch {
+
+    /** A batch decrypting CIPHERTEXT (blanks ignored) with the rotors
+     *  inserted in MACHINE, which are read but not changed.  The
+     *  machine's rotor settings and plugboard are ignored. */
+    Batch(Machine machine, String ciphertext) {
+        this(machine, machine.alphabet().indices(ciphertext, "ciphertext"));
+    }
+
+    /** A batch decrypting CIPHER, given as alphabet indices, with the
+     *  rotors inserted in MACHINE, as for Batch(MACHINE, String).  CIPHER
+     *  must not be modified while I am in use. */
+    Batch(Machine machine, int[] cipher) {
+        _size = machine.alphabet().size();
+        _slots = machine.numRotors();
+        _cipher = cipher;
+        _forward = new int[_slots][];
+        _backward = new int[_slots][];
+        _wirings = new int[_slots][];
+        _inverses = new int[_slots][];
+        _notches = new boolean[_slots][];
+        _rotates = new boolean[_slots];
+        _reflecting = new boolean[_slots];
+        boolean tables = true;
+        for (int i = 0; i < _slots; i += 1) {
+            Rotor rotor = machine.getRotor(i);
+            _forward[i] = rotor.forwardTable();
+            _backward[i] = rotor.backwardTable();
+            tables &= _forward[i] != null;
+            _wirings[i] = rotor.permutation().forwardTable();
+            _inverses[i] = rotor.permutation().inverseTable();
+            _rotates[i] = rotor.rotates();
+            _reflecting[i] = rotor.reflecting();
+            _notches[i] = i > 0 && _rotates[i - 1] ? rotor.notchTable()
+                : new boolean[_size];
+        }
+        _tables = tables;
+        _settings = new int[_slots];
+        _identity = new int[_size];
+        for (int c = 0; c < _size; c += 1) {
+            _identity[c] = c;
+        }
+        _inner = new int[_size];
+        _outer = new int[_size];
+        _plain = new int[_cipher.length];
+        _counts = new int[_size];
+    }
+
+    /** Decrypt candidates with the Vector API, when it is available,
+     *  iff ON.  Initially, as Vectors.enabled() says. */
+    void setVectors(boolean on) {
+        _vectors = on && Vectors.AVAILABLE;
+    }
+
+    /** Return the number of characters in my ciphertext. */
+    int length() {
+        return _cipher.length;
+    }
+
+    /** Decrypt my ciphertext under each of the first COUNT candidates
+     *  given by POSITIONS and PLUGBOARDS (or with no plugboard, if
+     *  PLUGBOARDS is null), storing the decryption under candidate K, as
+     *  alphabet indices, at K * length() in OUT. */
+    void decrypt(int[] positions, int[] plugboards, int count, int[] out) {
+        check(positions, plugboards, count);
+        if (out.length < (long) count * _cipher.length) {
+            throw error("output array too small for batch");
+        }
+        int k = 0;
+        if (vectorized(count)) {
+            Lanes lanes = lanes();
+            for (int n = Lanes.WIDTH; k + n <= count; k += n) {
+                lanes.run(positions, plugboards, k);
+                for (int lane = 0; lane < n; lane += 1) {
+                    lanes.copy(lane, out, (k + lane) * _cipher.length);
+                }
+            }
+        }
+        for (; k < count; k += 1) {
+            run(positions, plugboards, k, out, k * _cipher.length);
+        }
+    }
+
+    /** Score my decryption under each of the first COUNT candidates
+     *  given by POSITIONS and PLUGBOARDS (or with no plugboard, if
+     *  PLUGBOARDS is null), storing the score for candidate K in
+     *  SCORES[K].  The score is as given by MODEL.score, or the index of
+     *  coincidence if MODEL is null. */
+    void score(int[] positions, int[] plugboards, int count,
+               NgramModel model, double[] scores) {
+        check(positions, plugboards, count);
+        if (scores.length < count) {
+            throw error("score array too small for batch");
+        } else if (model != null && model.size() != _size) {
+            throw error("n-gram model is for another alphabet");
+        }
+        int k = 0;
+        if (vectorized(count)) {
+            Lanes lanes = lanes();
+            for (int n = Lanes.WIDTH; k + n <= count; k += n) {
+                lanes.run(positions, plugboards, k);
+                for (int lane = 0; lane < n; lane += 1) {
+                    lanes.copy(lane, _plain, 0);
+                    scores[k + lane] = score(model);
+                }
+            }
+        }
+        for (; k < count; k += 1) {
+            run(positions, plugboards, k, _plain, 0);
+            scores[k] = score(model);
+        }
+    }
+
+    /** Return the score of the decryption in _plain by MODEL, or its
+     *  index of coincidence if MODEL is null. */
+    private double score(NgramModel model) {
+        return model == null ? coincidence()
+            : model.score(_plain, _plain.length);
+    }
+
+    /** Return true iff COUNT candidates should be decrypted by Lanes,
+     *  at least in part. */
+    private boolean vectorized(int count) {
+        return _vectors && _tables && count >= Lanes.WIDTH;
+    }
+
+    /** Return my Lanes, creating them if need be. */
+    private Lanes lanes() {
+        if (_lanes == null) {
+            _lanes = new Lanes();
+        }
+        return _lanes;
+    }
+
+    /** Check that POSITIONS and PLUGBOARDS hold COUNT valid
+     *  candidates. */
+    private void check(int[] positions, int[] plugboards, int count) {
+        int per = _slots - 1;
+        if (count < 0 || positions.length < (long) count * per
+            || plugboards != null
+            && plugboards.length < (long) count * _size) {
+            throw error("too few candidates given for batch");
+        }
+        for (int k = 0; k < count * per; k += 1) {
+            if (positions[k] < 0 || positions[k] >= _size) {
+                throw error("rotor setting out of range");
+            } else if (positions[k] != 0 && _reflecting[k % per + 1]) {
+                throw error("reflector has only one position");
+            }
+        }
+        for (int k = 0; plugboards != null && k < count * _size; k += 1) {
+            if (plugboards[k] < 0 || plugboards[k] >= _size) {
+                throw error("plugboard entry out of range");
+            }
+        }
+    }
+
+    /** Decrypt my ciphertext under candidate K of POSITIONS and
+     *  PLUGBOARDS into OUT, starting at OFF. */
+    private void run(int[] positions, int[] plugboards, int k, int[] out,
+                     int off) {
+        int size = _size, last = _slots - 1;
+        int[] settings = _settings, inner = _inner, cipher = _cipher;
+        System.arraycopy(positions, k * last, settings, 1, last);
+        int[] plugs = plugboards == null ? _identity : plugboards;
+        int base = plugboards == null ? 0 : k * size;
+        int notched = countNotched(settings);
+        compose(0, settings, inner, 0, _outer);
+        int[] forward = _forward[last], backward = _backward[last];
+        int[] wiring = _wirings[last], inverse = _inverses[last];
+        boolean[] fastNotches = _notches[last];
+        boolean rotates = _rotates[last], tables = _tables;
+        int s = settings[last];
+        for (int p = 0; p < cipher.length; p += 1) {
+            if (notched != 0) {
+                settings[last] = s;
+                int moved = advance(settings);
+                if (moved < last) {
+                    compose(moved, settings, inner, 0, _outer);
+                }
+                notched = countNotched(settings);
+                s = settings[last];
+            } else if (rotates) {
+                s = s + 1 == size ? 0 : s + 1;
+                if (fastNotches[s]) {
+                    notched = 1;
+                }
+            }
+            int c = plugs[base + cipher[p]];
+            c = tables ? forward[s * size + c]
+                : Machine.convertSlot(wiring, s, c);
+            c = inner[c];
+            c = tables ? backward[s * size + c]
+                : Machine.convertSlot(inverse, s, c);
+            out[off + p] = plugs[base + c];
+        }
+    }
+
+    /** Advance the rotors set to SETTINGS by one keystroke, as
+     *  Machine.advanceRotors does.  Return the leftmost slot whose rotor
+     *  moved, or the fast rotor's slot if no other rotor moved. */
+    private int advance(int[] settings) {
+        int last = _slots - 1;
+        boolean rightAtNotch = _notches[last][settings[last]];
+        if (_rotates[last]) {
+            settings[last] = settings[last] + 1 == _size ? 0
+                : settings[last] + 1;
+        }
+        int moved = last;
+        for (int j = last - 1; j > 0; j -= 1) {
+            boolean atNotch = _notches[j][settings[j]];
+            if (_rotates[j]
+                && (rightAtNotch || (atNotch && _rotates[j - 1]))) {
+                settings[j] = settings[j] + 1 == _size ? 0 : settings[j] + 1;
+                moved = j;
+            }
+            rightAtNotch = atNotch;
+        }
+        return moved;
+    }
+
+    /** Return the number of slots after the reflector whose rotors are
+     *  at a notch when set to SETTINGS.  While it is zero, only the fast
+     *  rotor can move. */
+    private int countNotched(int[] settings) {
+        int count = 0;
+        for (int i = 1; i < _slots; i += 1) {
+            if (_notches[i][settings[i]]) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Set INNER[OFF .. OFF + size - 1] to the substitution made by the
+     *  rotors other than the fast rotor, from the fast rotor to the
+     *  reflector and back, at SETTINGS, after the rotors in slots MOVED
+     *  and up have changed.  OUTER holds the substitution made by the
+     *  rotors left of the middle slot, and is rebuilt only if one of them
+     *  changed. */
+    private void compose(int moved, int[] settings, int[] inner, int off,
+                         int[] outer) {
+        int size = _size, middle = _slots - 2;
+        if (middle == 0) {
+            System.arraycopy(_identity, 0, inner, off, size);
+            through(inner, off, 0, settings[0], true);
+            return;
+        }
+        if (moved < middle) {
+            System.arraycopy(_identity, 0, outer, 0, size);
+            for (int i = middle - 1; i >= 0; i -= 1) {
+                through(outer, 0, i, settings[i], true);
+            }
+            for (int i = 1; i < middle; i += 1) {
+                through(outer, 0, i, settings[i], false);
+            }
+        }
+        System.arraycopy(_identity, 0, inner, off, size);
+        through(inner, off, middle, settings[middle], true);
+        for (int c = off; c < off + size; c += 1) {
+            inner[c] = outer[inner[c]];
+        }
+        through(inner, off, middle, settings[middle], false);
+    }
+
+    /** Replace each entry of SUBST[OFF .. OFF + size - 1] by the result
+     *  of passing it through the rotor in SLOT at setting S, forward if
+     *  FORWARD, and otherwise backward. */
+    private void through(int[] subst, int off, int slot, int s,
+                         boolean forward) {
+        int size = _size;
+        if (_tables) {
+            int[] table = forward ? _forward[slot] : _backward[slot];
+            int base = s * size;
+            for (int c = off; c < off + size; c += 1) {
+                subst[c] = table[base + subst[c]];
+            }
+        } else {
+            int[] wiring = forward ? _wirings[slot] : _inverses[slot];
+            for (int c = off; c < off + size; c += 1) {
+                subst[c] = Machine.convertSlot(wiring, s, subst[c]);
+            }
+        }
+    }
+
+    /** Decrypts my ciphertext under WIDTH consecutive candidates at once
+     *  with the Vector API, one candidate per lane.  The setting of each
+     *  slot is a vector; each keystroke steps them under masks computed
+     *  from gathers of the notch tables, and each table lookup of the
+     *  conversion is a gather.  When a slower rotor moves in some lanes,
+     *  their inner substitutions, kept side by side in one array, are
+     *  rebuilt one lane at a time.  Used only when the rotors have
+     *  tables.  Loaded only if vectors are on (see setVectors). */
+    private final class Lanes {
+
+        /** Lanes for my rotors. */
+        Lanes() {
+            int n = WIDTH;
+            _laneSettings = new int[n][_slots];
+            _outers = new int[n][_size];
+            _inners = new int[n * _size];
+            _columns = new int[_slots][n];
+            _plugBases = new int[n];
+            _index = new int[n];
+            _out = new int[n * _cipher.length];
+            _notchInts = new int[_slots][];
+            for (int i = 1; i < _slots; i += 1) {
+                for (int c = 0; c < _size; c += 1) {
+                    if (_notches[i][c]) {
+                        if (_notchInts[i] == null) {
+                            _notchInts[i] = new int[_size];
+                        }
+                        _notchInts[i][c] = 1;
+                    }
+                }
+            }
+            int[] bases = new int[n];
+            for (int lane = 0; lane < n; lane += 1) {
+                bases[lane] = lane * _size;
+            }
+            _innerBases = IntVector.fromArray(SPECIES, bases, 0);
+        }
+
+        /** Decrypt my ciphertext under candidates FIRST .. FIRST + WIDTH
+         *  - 1 of POSITIONS and PLUGBOARDS (none if null), keeping the
+         *  results for copy. */
+        void run(int[] positions, int[] plugboards, int first) {
+            int size = _size, last = _slots - 1, middle = _slots - 2;
+            int n = WIDTH;
+            for (int lane = 0; lane < n; lane += 1) {
+                int[] settings = _laneSettings[lane];
+                System.arraycopy(positions, (first + lane) * last,
+                                 settings, 1, last);
+                compose(0, settings, _inners, lane * size, _outers[lane]);
+                _plugBases[lane] = plugboards == null ? 0
+                    : (first + lane) * size;
+                for (int i = 1; i < _slots; i += 1) {
+                    _columns[i][lane] = settings[i];
+                }
+            }
+            int[] plugs = plugboards == null ? _identity : plugboards;
+            IntVector plugBases = IntVector.fromArray(SPECIES, _plugBases, 0);
+            int[] forward = _forward[last], backward = _backward[last];
+            int[] cipher = _cipher, out = _out, fast = _columns[last];
+            long all = SPECIES.maskAll(true).toLong();
+            for (int p = 0; p < cipher.length; p += 1) {
+                long right = atNotch(last);
+                if (_rotates[last]) {
+                    increment(last, all);
+                }
+                long moved = 0, outer = 0;
+                for (int j = last - 1; j > 0; j -= 1) {
+                    long here = atNotch(j);
+                    if (_rotates[j]) {
+                        long move = _rotates[j - 1] ? right | here : right;
+                        if (move != 0) {
+                            increment(j, move);
+                            moved |= move;
+                            if (j < middle) {
+                                outer |= move;
+                            }
+                        }
+                    }
+                    right = here;
+                }
+                if (moved != 0) {
+                    recompose(moved, outer);
+                }
+                IntVector offsets =
+                    IntVector.fromArray(SPECIES, fast, 0).mul(size);
+                IntVector c = gather(plugs, plugBases.add(cipher[p]));
+                c = gather(forward, offsets.add(c));
+                c = gather(_inners, _innerBases.add(c));
+                c = gather(backward, offsets.add(c));
+                c = gather(plugs, plugBases.add(c));
+                c.intoArray(out, p * n);
+            }
+        }
+
+        /** Copy the decryption in lane LANE of the last run into OUT,
+         *  starting at OFF. */
+        void copy(int lane, int[] out, int off) {
+            int[] from = _out;
+            for (int p = 0, k = lane; p < _cipher.length; p += 1, k += WIDTH) {
+                out[off + p] = from[k];
+            }
+        }
+
+        /** Return the lanes whose rotor in SLOT is at a notch, as a
+         *  bit mask. */
+        private long atNotch(int slot) {
+            if (_notchInts[slot] == null) {
+                return 0;
+            }
+            return IntVector.fromArray(SPECIES, _notchInts[slot], 0,
+                                       _columns[slot], 0)
+                .compare(VectorOperators.NE, 0).toLong();
+        }
+
+        /** Advance the rotor in SLOT by one position in the lanes in the
+         *  bit mask LANES. */
+        private void increment(int slot, long lanes) {
+            IntVector next = IntVector.fromArray(SPECIES, _columns[slot], 0)
+                .add(1, VectorMask.fromLong(SPECIES, lanes));
+            next.blend(0, next.compare(VectorOperators.EQ, _size))
+                .intoArray(_columns[slot], 0);
+        }
+
+        /** Rebuild the inner substitutions of the lanes in the bit mask
+         *  MOVED, and also their outer substitutions in those in
+         *  OUTER. */
+        private void recompose(long moved, long outer) {
+            int middle = _slots - 2;
+            for (int lane = 0; lane < WIDTH; lane += 1) {
+                if ((moved & (1L << lane)) != 0) {
+                    int[] settings = _laneSettings[lane];
+                    for (int i = 1; i < _slots; i += 1) {
+                        settings[i] = _columns[i][lane];
+                    }
+                    compose((outer & (1L << lane)) != 0 ? 0 : middle,
+                            settings, _inners, lane * _size, _outers[lane]);
+                }
+            }
+        }
+
+        /** Return the entries of TABLE at INDEX. */
+        private IntVector gather(int[] table, IntVector index) {
+            index.intoArray(_index, 0);
+            return IntVector.fromArray(SPECIES, table, 0, _index, 0);
+        }
+
+        /** The shape of my vectors. */
+        static final VectorSpecies<Integer> SPECIES =
+            IntVector.SPECIES_PREFERRED;
+        /** Number of candidates decrypted at once. */
+        static final int WIDTH = SPECIES.length();
+
+        /** Rotor settings of each lane, updated only for
+         *  recomposing. */
+        private final int[][] _laneSettings;
+        /** Substitution by the rotors left of the middle slot in each
+         *  lane. */
+        private final int[][] _outers;
+        /** Substitution by the rotors other than the fast rotor in each
+         *  lane, lane L's starting at L * size. */
+        private final int[] _inners;
+        /** Offsets of the lanes' substitutions in _inners. */
+        private final IntVector _innerBases;
+        /** Settings of each slot in all lanes, which also serve as the
+         *  indices of the gathers from the notch tables. */
+        private final int[][] _columns;
+        /** Offset of each lane's plugboard. */
+        private final int[] _plugBases;
+        /** 1 at each notch of each slot, as in _notches, or null for
+         *  slots that never step on their own notches. */
+        private final int[][] _notchInts;
+        /** Indices of the current gather. */
+        private final int[] _index;
+        /** Decryptions of the last run: character P of lane L is at
+         *  P * WIDTH + L. */
+        private final int[] _out;
+    }
+
+    /** Return the index of coincidence of the decryption in _plain. */
+    private double coincidence() {
+        int n = _plain.length;
+        Arrays.fill(_counts, 0);
+        for (int i = 0; i < n; i += 1) {
+            _counts[_plain[i]] += 1;
+        }
+        long pairs = 0;
+        for (int count : _counts) {
+            pairs += (long) count * (count - 1);
+        }
+        return n < 2 ? 0 : (double) pairs / ((long) n * (n - 1));
+    }
+
+    /** Size of the alphabet. */
+    private final int _size;
+    /** Number of rotor slots. */
+    private final int _slots;
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+    /** Forward conversion table of the rotor in each slot, or null. */
+    private final int[][] _forward;
+    /** Backward conversion table of the rotor in each slot, or null. */
+    private final int[][] _backward;
+    /** Wiring of the rotor in each slot. */
+    private final int[][] _wirings;
+    /** Inverse wiring of the rotor in each slot. */
+    private final int[][] _inverses;
+    /** Notches of each slot, as in Machine. */
+    private final boolean[][] _notches;
+    /** True for each slot whose rotor rotates. */
+    private final boolean[] _rotates;
+    /** True for each slot whose rotor reflects. */
+    private final boolean[] _reflecting;
+    /** True iff every slot has conversion tables. */
+    private final boolean _tables;
+    /** True iff candidates may be decrypted by Lanes. */
+    private boolean _vectors = Vectors.enabled();
+    /** Current rotor setting of each slot. */
+    private final int[] _settings;
+    /** The identity substitution, used when there is no plugboard. */
+    private final int[] _identity;
+    /** Substitution by the rotors other than the fast rotor. */
+    private final int[] _inner;
+    /** Substitution by the rotors left of the middle slot. */
+    private final int[] _outer;
+    /** The decryption being scored. */
+    private final int[] _plain;
+    /** Number of occurrences of each character in _plain. */
+    private final int[] _counts;
+    /** Vector decryption of my candidates, or null if not yet used. */
+    private Lanes _lanes;
+}
@@ -0,0 +1,212 @@
+package enigma;
+
+import java.util.Random;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Batch class, which compare its
+ *  results with those of Machine.
+ *  @author Agam Gupta
+ */
+public class BatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Number of candidates tried with each machine. */
+    private static final int CANDIDATES = 7;
+
+    /** Return COUNT random rotor settings for MACH, drawing on
+     *  RANDOM. */
+    private static int[] randomPositions(Machine mach, int count,
+                                         Random random) {
+        int per = mach.numRotors() - 1;
+        int[] positions = new int[count * per];
+        for (int k = 0; k < positions.length; k += 1) {
+            positions[k] = random.nextInt(mach.alphabet().size());
+        }
+        return positions;
+    }
+
+    /** Return COUNT random plugboards over ALPHA, drawing on RANDOM. */
+    private static int[] randomPlugboards(Alphabet alpha, int count,
+                                          Random random) {
+        int size = alpha.size();
+        int[] plugboards = new int[count * size];
+        for (int k = 0; k < count; k += 1) {
+            Permutation perm = new Permutation(
+                MachineTest.randomCycles(alpha, true, random), alpha);
+            for (int c = 0; c < size; c += 1) {
+                plugboards[k * size + c] = perm.permute(c);
+            }
+        }
+        return plugboards;
+    }
+
+    /** Return the decryption of TEXT by MACH under candidate K of
+     *  POSITIONS and PLUGBOARDS (none if null), as alphabet indices. */
+    private static int[] expected(Machine mach, String text, int[] positions,
+                                  int[] plugboards, int k) {
+        Alphabet alpha = mach.alphabet();
+        int per = mach.numRotors() - 1, size = alpha.size();
+        int[] setting = new int[per];
+        System.arraycopy(positions, k * per, setting, 0, per);
+        mach.setRotors(setting);
+        StringBuilder cycles = new StringBuilder();
+        for (int c = 0; plugboards != null && c < size; c += 1) {
+            int d = plugboards[k * size + c];
+            if (d > c) {
+                cycles.append('(').append(alpha.toChar(c))
+                    .append(alpha.toChar(d)).append(')');
+            }
+        }
+        mach.setPlugboard(new Permutation(cycles.toString(), alpha));
+        String converted = mach.convert(text);
+        int[] result = new int[converted.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = alpha.toInt(converted.charAt(i));
+        }
+        return result;
+    }
+
+    /** Assert that Batch decrypts a random text under random candidates
+     *  for MACH, the random machine made from SEED, as the machine does,
+     *  drawing on RANDOM. */
+    private static void assertMatches(long seed, Machine mach,
+                                      Random random) {
+        String text = MachineTest.randomText(mach.alphabet(), 1500, random);
+        int[] positions = randomPositions(mach, CANDIDATES, random);
+        int[] plugboards = random.nextBoolean() ? null
+            : randomPlugboards(mach.alphabet(), CANDIDATES, random);
+        Batch batch = new Batch(mach, text);
+        int n = batch.length();
+        int[] out = new int[CANDIDATES * n];
+        batch.decrypt(positions, plugboards, CANDIDATES, out);
+        for (int k = 0; k < CANDIDATES; k += 1) {
+            int[] want = expected(mach, text, positions, plugboards, k);
+            assertEquals(n, want.length);
+            for (int i = 0; i < n; i += 1) {
+                assertEquals("seed " + seed + ", candidate " + k
+                             + ", character " + i, want[i],
+                             out[k * n + i]);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesMachine() {
+        TestUtils.forRandomMachines(100, true, BatchTest::assertMatches);
+    }
+
+    @Test
+    public void testWithoutTables() {
+        TestUtils.forRandomMachines(30, false, BatchTest::assertMatches);
+    }
+
+    /** Assert that Batch decrypts and scores the same with the Vector
+     *  API as without it for random candidates for MACH, the random
+     *  machine made from SEED, drawing on RANDOM and using enough
+     *  candidates to fill several vectors and leave some over. */
+    private static void assertVectorsMatch(long seed, Machine mach,
+                                           Random random) {
+        Alphabet alpha = mach.alphabet();
+        String text = MachineTest.randomText(alpha, 300, random);
+        int count = 37;
+        int[] positions = randomPositions(mach, count, random);
+        int[] plugboards = random.nextBoolean() ? null
+            : randomPlugboards(alpha, count, random);
+        NgramModel model = new NgramModel(alpha, text);
+        int[][] out = new int[2][];
+        double[][] scores = new double[2][count];
+        for (int v = 0; v < 2; v += 1) {
+            Batch batch = new Batch(mach, text);
+            batch.setVectors(v == 1);
+            out[v] = new int[count * batch.length()];
+            batch.decrypt(positions, plugboards, count, out[v]);
+            batch.score(positions, plugboards, count, model, scores[v]);
+        }
+        assertArrayEquals("seed " + seed, out[0], out[1]);
+        assertArrayEquals("seed " + seed, scores[0], scores[1], 0.0);
+    }
+
+    @Test
+    public void testVectors() {
+        Assume.assumeTrue(Vectors.AVAILABLE);
+        TestUtils.forRandomMachines(100, true, BatchTest::assertVectorsMatch);
+    }
+
+    @Test
+    public void testScore() {
+        Random random = new Random(7);
+        Machine mach = MachineTest.randomMachine(random);
+        Alphabet alpha = mach.alphabet();
+        String text = MachineTest.randomText(alpha, 400, random);
+        int[] positions = randomPositions(mach, CANDIDATES, random);
+        int[] plugboards = randomPlugboards(alpha, CANDIDATES, random);
+        NgramModel model = new NgramModel(alpha, text);
+        Batch batch = new Batch(mach, text);
+        double[] coincidence = new double[CANDIDATES];
+        double[] logs = new double[CANDIDATES];
+        batch.score(positions, plugboards, CANDIDATES, null, coincidence);
+        batch.score(positions, plugboards, CANDIDATES, model, logs);
+        for (int k = 0; k < CANDIDATES; k += 1) {
+            int[] plain = expected(mach, text, positions, plugboards, k);
+            int[] counts = new int[alpha.size()];
+            for (int c : plain) {
+                counts[c] += 1;
+            }
+            long pairs = 0;
+            for (int count : counts) {
+                pairs += (long) count * (count - 1);
+            }
+            assertEquals((double) pairs
+                         / ((long) plain.length * (plain.length - 1)),
+                         coincidence[k], 0.0);
+            assertEquals(model.score(plain, plain.length), logs[k], 0.0);
+        }
+    }
+
+    @Test
+    public void testBadCandidates() {
+        Random random = new Random(3);
+        Machine mach = MachineTest.randomMachine(random);
+        int per = mach.numRotors() - 1, size = mach.alphabet().size();
+        Batch batch = new Batch(mach, "");
+        int[][] bad = { new int[per], new int[2 * per] };
+        bad[0][0] = size;
+        bad[1][per] = -1;
+        for (int[] positions : bad) {
+            try {
+                batch.decrypt(positions, null, positions.length / per,
+                              new int[0]);
+                fail("accepted a rotor setting out of range");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+        try {
+            batch.decrypt(new int[per], null, 2, new int[0]);
+            fail("accepted too few positions");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        int[] plugboard = new int[size];
+        plugboard[0] = size;
+        try {
+            batch.score(new int[per], plugboard, 1, null, new double[1]);
+            fail("accepted a plugboard entry out of range");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            batch.score(new int[per], null, 1, null, new double[0]);
+            fail("accepted too small a score array");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
@@ -0,0 +1,1085 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.CharArrayReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** Timing harness for the hot paths of the simulator.  Run with
+ *  'make bench', passing options (see main) in BENCHFLAGS.  Each
+ *  benchmark reports the mean cost of one operation in nanoseconds, with
+ *  its standard deviation over the timed rounds.  JMH versions of the
+ *  benchmarks of single operations, whose results should be preferred
+ *  where the two differ, are in jmh/ (run with 'make jmh').
+ *  @author Agam Gupta
+ */
+final class Benchmarks {
+
+    /** Number of untimed warmup rounds per benchmark. */
+    private static final int WARMUP = 5;
+
+    /** Number of timed rounds per benchmark. */
+    private static final int ROUNDS = 10;
+
+    /** Operations performed in each round. */
+    private static final int OPS = 1 << 22;
+
+    /** Number of processors available. */
+    private static final int CPUS = Runtime.getRuntime().availableProcessors();
+
+    /** Not instantiable. */
+    private Benchmarks() {
+    }
+
+    /** Run the benchmarks selected by ARGS, which are options of the
+     *  form --NAME=VALUE:
+     *      --sizes=N,...    alphabet sizes (default 26,64,4096)
+     *      --rotors=N,...   numbers of rotor slots (default 5)
+     *      --lengths=N,...  message lengths (default 1024,1048576,104857600)
+     *      --only=TEXT      run only benchmarks whose names contain TEXT
+     *      --json=FILE      also write the results to FILE as JSON. */
+    public static void main(String... args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0
+                || !OPTIONS.contains(arg.substring(2, eq))) {
+                System.err.println("Usage: java enigma.Benchmarks "
+                                   + "[--sizes=N,...] [--rotors=N,...] "
+                                   + "[--lengths=N,...] [--only=TEXT] "
+                                   + "[--json=FILE]");
+                System.exit(1);
+            }
+            _options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        int[] sizes = ints("sizes", "26,64,4096");
+        int[] rotors = ints("rotors", "5");
+        int[] lengths = ints("lengths", "1024,1048576,104857600");
+        for (int size : sizes) {
+            run("alphabetLookup", () -> alphabetLookup(size));
+            run("permutationLookup", () -> permutationLookup(size));
+            run("rotorConvert", () -> rotorConvert(size, true));
+            run("rotorConvert", () -> rotorConvert(size, false));
+            for (int r : rotors) {
+                run("machineConvert", () -> machineConvert(size, r));
+                run("batchScore", () -> batchScore(size, r));
+            }
+        }
+        for (int length : lengths) {
+            for (int size : sizes) {
+                for (int r : rotors) {
+                    run("messageConvert",
+                        () -> messageConvert(size, r, length));
+                    run("mainProcess", () -> mainProcess(size, r, length));
+                }
+            }
+        }
+        run("repeatedTraffic", () -> repeatedTraffic(false));
+        run("repeatedTraffic", () -> repeatedTraffic(true));
+        run("shortMessages", () -> shortMessages(false));
+        run("shortMessages", () -> shortMessages(true));
+        for (int lanes = 1; lanes <= 64; lanes *= 8) {
+            int n = lanes;
+            run("multiConvert", () -> multiConvert(n, false));
+            run("multiConvert", () -> multiConvert(n, true));
+        }
+        run("parallelConvert", () -> parallelConvert(false));
+        run("parallelConvert", () -> parallelConvert(true));
+        for (int length : new int[] { 80, 1 << 20 }) {
+            run("streamProcess", () -> streamProcess(length, false));
+            run("streamProcess", () -> streamProcess(length, true));
+        }
+        for (int sample : new int[] { 1, 100 }) {
+            run("traceProcess", () -> traceProcess(sample));
+        }
+        for (int count : new int[] { 10, 1000, 100000 }) {
+            run("configLoad", () -> configLoad(count));
+            run("catalogLoad", () -> catalogLoad(count));
+        }
+        for (int count : new int[] { 10, 10000 }) {
+            run("settingLines", () -> settingLines(count, 4096));
+        }
+        run("settingLines", () -> settingLines(10000, 16));
+        run("recurringKeys", () -> recurringKeys(false));
+        run("recurringKeys", () -> recurringKeys(true));
+        for (int threads = 1; threads <= Math.max(2, CPUS); threads *= 2) {
+            int n = threads;
+            run("bombeSearch", () -> bombeSearch(n));
+            run("hillClimbSearch", () -> hillClimbSearch(n));
+        }
+        for (int depth = 1; depth <= 16; depth *= 16) {
+            for (int clients = 1; clients <= 16; clients *= 4) {
+                int d = depth, c = clients;
+                run("serveLoad", () -> serveLoad(c, d));
+            }
+        }
+        run("groupedWrite", () -> groupedWrite(false));
+        run("groupedWrite", () -> groupedWrite(true));
+        run("mappedProcess", () -> mappedProcess(1L << 30, false));
+        run("mappedProcess", () -> mappedProcess(1L << 30, true));
+        if (_options.containsKey("json")) {
+            writeJson(Path.of(_options.get("json")));
+        }
+    }
+
+    /** Names of the options accepted by main. */
+    private static final List<String> OPTIONS =
+        List.of("sizes", "rotors", "lengths", "only", "json");
+
+    /** Return the comma-separated integers given as the option NAME, or
+     *  in DEFLT if it was not given. */
+    private static int[] ints(String name, String deflt) {
+        String[] items = _options.getOrDefault(name, deflt).split(",");
+        int[] result = new int[items.length];
+        for (int i = 0; i < items.length; i += 1) {
+            result[i] = Integer.parseInt(items[i].trim());
+        }
+        return result;
+    }
+
+    /** Run BENCHMARK, whose method is named NAME, unless --only excludes
+     *  it. */
+    private static void run(String name, Runnable benchmark) {
+        String only = _options.get("only");
+        if (only == null || name.contains(only)) {
+            benchmark.run();
+        }
+    }
+
+    /** Return an alphabet of SIZE distinct characters, starting at 'A'. */
+    static String symbols(int size) {
+        StringBuilder chars = new StringBuilder(size);
+        for (char c = 'A'; chars.length() < size; c += 1) {
+            if (c != '*' && c != '(' && c != ')'
+                && !Character.isWhitespace(c)) {
+                chars.append(c);
+            }
+        }
+        return chars.toString();
+    }
+
+    /** Time Alphabet.toChar and Alphabet.toInt over an alphabet of
+     *  SIZE symbols. */
+    static void alphabetLookup(int size) {
+        String chars = symbols(size);
+        Alphabet alpha = new Alphabet(chars);
+        report("Alphabet.toChar/" + size, time(() -> {
+            int acc = 0;
+            for (int i = 0; i < OPS; i += 1) {
+                acc += alpha.toChar(i % size);
+            }
+            return acc;
+        }));
+        report("Alphabet.toInt/" + size, time(() -> {
+            int acc = 0;
+            for (int i = 0; i < OPS; i += 1) {
+                acc += alpha.toInt(chars.charAt(i % size));
+            }
+            return acc;
+        }));
+    }
+
+    /** Return a single cycle through all of the characters of CHARS in
+     *  a scrambled order. */
+    static String scrambledCycle(String chars) {
+        return scrambledCycle(chars, 0);
+    }
+
+    /** Return a single cycle through all of the characters of CHARS in
+     *  a scrambled order that differs for each VARIANT. */
+    static String scrambledCycle(String chars, int variant) {
+        int n = chars.length();
+        int step = n / 2 + 1 + variant;
+        while (gcd(step, n) != 1) {
+            step += 1;
+        }
+        StringBuilder cycle = new StringBuilder("(");
+        for (int i = 0, k = 0; i < n; i += 1, k = (k + step) % n) {
+            cycle.append(chars.charAt(k));
+        }
+        return cycle.append(")").toString();
+    }
+
+    /** Return a machine over an alphabet of SIZE (even) symbols with
+     *  ROTORS slots, all but the reflector moving, with its rotors
+     *  inserted and set and a plugboard swapping the first few pairs of
+     *  characters. */
+    static Machine syntheticMachine(int size, int rotors) {
+        String chars = symbols(size);
+        Alphabet alpha = new Alphabet(chars);
+        StringBuilder pairs = new StringBuilder();
+        for (int i = 0; i + 1 < size; i += 2) {
+            pairs.append('(').append(chars, i, i + 2).append(')');
+        }
+        List<Rotor> all = new ArrayList<>();
+        String[] names = new String[rotors];
+        names[0] = "R";
+        all.add(new Reflector("R", new Permutation(pairs.toString(), alpha)));
+        for (int k = 1; k < rotors; k += 1) {
+            names[k] = "M" + k;
+            all.add(new MovingRotor(names[k],
+                new Permutation(scrambledCycle(chars, 2 * k), alpha),
+                chars.substring(k, k + 1)));
+        }
+        Machine mach = new Machine(alpha, rotors, rotors - 1, all);
+        mach.insertRotors(names);
+        mach.setRotors(chars.substring(0, rotors - 1));
+        mach.setPlugboard(
+            new Permutation(pairs.substring(0, Math.min(40, size * 2)),
+                            alpha));
+        return mach;
+    }
+
+    /** Return the greatest common divisor of A and B. */
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    /** Time Permutation.permute and Permutation.invert on indices over an
+     *  alphabet of SIZE symbols. */
+    static void permutationLookup(int size) {
+        String chars = symbols(size);
+        Permutation perm =
+            new Permutation(scrambledCycle(chars), new Alphabet(chars));
+        report("Permutation.permute/" + size, time(() -> {
+            int acc = 0;
+            for (int i = 0; i < OPS; i += 1) {
+                acc += perm.permute(i % size);
+            }
+            return acc;
+        }));
+        report("Permutation.invert/" + size, time(() -> {
+            int acc = 0;
+            for (int i = 0; i < OPS; i += 1) {
+                acc += perm.invert(i % size);
+            }
+            return acc;
+        }));
+    }
+
+    /** Time Rotor.convertForward and Rotor.convertBackward, cycling
+     *  through all settings, on a rotor over an alphabet of SIZE symbols.
+     *  The rotor uses its precomputed tables iff TABLES. */
+    static void rotorConvert(int size, boolean tables) {
+        String chars = symbols(size);
+        Rotor rotor = new MovingRotor("R",
+            new Permutation(scrambledCycle(chars), new Alphabet(chars)), "")
+            .withTableLimit(tables ? Integer.MAX_VALUE : 0);
+        rotor.convertForward(0);
+        String variant = (tables ? "table/" : "arith/") + size;
+        report("Rotor.convertForward/" + variant, time(() -> {
+            int acc = 0;
+            for (int i = 0, p = 0; i < OPS; i += 1) {
+                acc += rotor.convertForward(p);
+                p += 1;
+                if (p == size) {
+                    p = 0;
+                    rotor.advance();
+                }
+            }
+            return acc;
+        }));
+        report("Rotor.convertBackward/" + variant, time(() -> {
+            int acc = 0;
+            for (int i = 0, p = 0; i < OPS; i += 1) {
+                acc += rotor.convertBackward(p);
+                p += 1;
+                if (p == size) {
+                    p = 0;
+                    rotor.advance();
+                }
+            }
+            return acc;
+        }));
+    }
+
+    /** Time Machine.convert(int) on a synthetic machine over SIZE
+     *  symbols with ROTORS slots, and report the bytes it allocates per
+     *  character. */
+    static void machineConvert(int size, int rotors) {
+        Machine mach = syntheticMachine(size, rotors);
+        String variant = "/" + size + "x" + rotors;
+        long before = allocatedBytes();
+        report("Machine.convert(int)" + variant, time(() -> {
+            int c = 0;
+            for (int i = 0; i < OPS; i += 1) {
+                c = mach.convert(c);
+            }
+            return c;
+        }));
+        report("Machine.convert(int)" + variant + "/allocated",
+               (allocatedBytes() - before)
+               / ((double) (WARMUP + ROUNDS) * OPS), 0, "B/op");
+    }
+
+    /** Time Batch.score, using the index of coincidence, on a synthetic
+     *  machine over SIZE symbols with ROTORS slots, and the same scoring
+     *  done by setting the machine to each candidate, reporting the cost
+     *  per character decrypted. */
+    static void batchScore(int size, int rotors) {
+        Machine mach = syntheticMachine(size, rotors);
+        String variant = "/" + size + "x" + rotors;
+        int count = 64, per = rotors - 1;
+        int[] cipher = mach.alphabet().indices(message(size, 1000), "text");
+        int[] positions = new int[count * per];
+        for (int k = 0; k < positions.length; k += 1) {
+            positions[k] = (k * 7 + k / per) % size;
+        }
+        Batch batch = new Batch(mach, cipher);
+        batch.setVectors(false);
+        double[] scores = new double[count];
+        long ops = (long) count * cipher.length;
+        report("Batch.score" + variant, time(() -> {
+            batch.score(positions, null, count, null, scores);
+            return (int) (scores[0] * size);
+        }, ops));
+        if (Vectors.AVAILABLE) {
+            Batch vectors = new Batch(mach, cipher);
+            vectors.setVectors(true);
+            report("Batch.score" + variant + "/vectors", time(() -> {
+                vectors.score(positions, null, count, null, scores);
+                return (int) (scores[0] * size);
+            }, ops));
+        }
+        mach.setPlugboard(new Permutation("", mach.alphabet()));
+        int[] setting = new int[per];
+        int[] counts = new int[size];
+        report("Batch.score" + variant + "/machine", time(() -> {
+            int acc = 0;
+            for (int k = 0; k < count; k += 1) {
+                System.arraycopy(positions, k * per, setting, 0, per);
+                mach.setRotors(setting);
+                Arrays.fill(counts, 0);
+                for (int c : cipher) {
+                    counts[mach.convert(c)] += 1;
+                }
+                acc += counts[0];
+            }
+            return acc;
+        }, ops));
+    }
+
+    /** Time Machine.convert(String) on a message of LENGTH characters,
+     *  reporting the cost per character. */
+    static void messageConvert(int length) {
+        messageConvert(26, 5, length);
+    }
+
+    /** Return a message of LENGTH characters from the first SIZE
+     *  symbols. */
+    static String message(int size, int length) {
+        String chars = symbols(size);
+        StringBuilder msg = new StringBuilder(length);
+        for (int i = 0; i < length; i += 1) {
+            msg.append(chars.charAt((i * 7 + i / size) % size));
+        }
+        return msg.toString();
+    }
+
+    /** Time Machine.convert(String) on a message of LENGTH characters
+     *  using a synthetic machine over SIZE symbols with ROTORS slots,
+     *  reporting the cost per character. */
+    static void messageConvert(int size, int rotors, int length) {
+        Machine mach = syntheticMachine(size, rotors);
+        String text = message(size, length);
+        int repeats = Math.max(1, OPS / length);
+        report("Machine.convert(String)/" + size + "x" + rotors + "/"
+               + length, time(() -> {
+            int acc = 0;
+            for (int i = 0; i < repeats; i += 1) {
+                acc += mach.convert(text).length();
+            }
+            return acc;
+        }, (long) repeats * length));
+    }
+
+    /** Time conversion of the same 250-character message over and over
+     *  under one key, as in repeated traffic, reporting the cost per
+     *  character.  The machine uses a state cache iff COMPILED. */
+    static void repeatedTraffic(boolean compiled) {
+        Machine mach = syntheticMachine(26, 5);
+        String setting = symbols(4);
+        char[] msg = new char[250];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = setting.charAt(i % 4);
+        }
+        char[] out = new char[msg.length];
+        StateCache cache = compiled ? new StateCache(1 << 16) : null;
+        mach.setStateCache(cache);
+        report("repeatedTraffic/" + (compiled ? "compiled" : "direct"),
+               time(() -> {
+                   int acc = 0;
+                   for (int i = 0; i < OPS; i += msg.length) {
+                       mach.setRotors(setting);
+                       acc += mach.convert(msg, 0, msg.length, out, 0);
+                   }
+                   return acc;
+               }));
+        if (cache != null) {
+            System.out.printf("  %s%n", cache);
+        }
+    }
+
+    /** Time conversion of many different 60-character messages, each
+     *  starting from the same setting, reporting the cost per character.
+     *  The messages are converted with a precomputed keystream iff
+     *  KEYSTREAM, and otherwise by resetting and stepping the machine. */
+    static void shortMessages(boolean keystream) {
+        Machine mach = syntheticMachine(26, 5);
+        String setting = symbols(4);
+        String chars = symbols(26);
+        char[] text = new char[1 << 16];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = chars.charAt((i * 31 + i / 7) % 26);
+        }
+        char[] out = new char[60];
+        Keystream stream = keystream ? mach.keystream(60) : null;
+        report("shortMessages/" + (keystream ? "keystream" : "machine"),
+               time(() -> {
+                   int acc = 0;
+                   for (int i = 0; i < OPS; i += out.length) {
+                       int start = i & (text.length - 1) & ~63;
+                       if (stream != null) {
+                           acc += stream.convert(0, text, start, out.length,
+                                                 out, 0);
+                       } else {
+                           mach.setRotors(setting);
+                           acc += mach.convert(text, start, out.length,
+                                               out, 0);
+                       }
+                   }
+                   return acc;
+               }));
+    }
+
+    /** Time conversion of LANES 60-character messages, each under its own
+     *  rotor order and settings, reporting the cost per character.  The
+     *  messages are converted in the lanes of a MultiMachine iff MULTI
+     *  (with and without the Vector API, if it is available), and
+     *  otherwise one after another, each by its own Machine. */
+    static void multiConvert(int lanes, boolean multi) {
+        MachineSpec spec = new Main(List.of(tempFile(catalog(26, 5, 4, 8))))
+            .readConfig().spec();
+        List<String[]> orders = spec.rotorOrders();
+        Machine[] machines = new Machine[lanes];
+        String[] settings = new String[lanes];
+        String[] messages = new String[lanes];
+        String chars = symbols(26);
+        for (int lane = 0; lane < lanes; lane += 1) {
+            machines[lane] = spec.newMachine();
+            machines[lane].insertRotors(
+                orders.get(lane * 37 % orders.size()));
+            machines[lane].setPlugboard(
+                new Permutation("(AB) (CD) (EF)", spec.alphabet()));
+            settings[lane] = "";
+            for (int i = 0; i < 4; i += 1) {
+                settings[lane] += chars.charAt((lane * 7 + i * 5) % 26);
+            }
+            messages[lane] = message(26, 60).substring(lane % 7)
+                + chars.substring(0, lane % 7);
+        }
+        MultiMachine multiMachine = new MultiMachine(spec, lanes);
+        multiMachine.setVectors(false);
+        int rounds = Math.max(1, OPS / (60 * lanes));
+        Work work = () -> {
+            int acc = 0;
+            for (int r = 0; r < rounds; r += 1) {
+                for (int lane = 0; lane < lanes; lane += 1) {
+                    machines[lane].setRotors(settings[lane]);
+                    if (multi) {
+                        multiMachine.setLane(lane, machines[lane]);
+                    } else {
+                        acc += machines[lane].convert(messages[lane])
+                            .charAt(0);
+                    }
+                }
+                if (multi) {
+                    acc += multiMachine.convert(messages)[0].charAt(0);
+                }
+            }
+            return acc;
+        };
+        long ops = (long) rounds * 60 * lanes;
+        report("MultiMachine.convert/" + lanes
+               + (multi ? "" : "/machine"), time(work, ops));
+        if (multi && Vectors.AVAILABLE) {
+            multiMachine.setVectors(true);
+            report("MultiMachine.convert/" + lanes + "/vectors",
+                   time(work, ops));
+        }
+    }
+
+    /** Time conversion of a 16M-character message, reporting the cost
+     *  per character, using convertParallel iff PARALLEL. */
+    static void parallelConvert(boolean parallel) {
+        Machine mach = syntheticMachine(26, 5);
+        String chars = symbols(26);
+        char[] text = new char[16 << 20];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = chars.charAt((i * 7 + i / 26) % 26);
+        }
+        char[] out = new char[text.length];
+        report((parallel ? "convertParallel/" : "convert/") + text.length
+               + "/" + ForkJoinPool.getCommonPoolParallelism(), time(() -> {
+                   if (parallel) {
+                       return mach.convertParallel(text, 0, text.length,
+                                                   out, 0);
+                   }
+                   return mach.convert(text, 0, text.length, out, 0);
+               }, text.length));
+    }
+
+    /** Time a MessageProcessor on 64M characters of input in lines of
+     *  LENGTH characters, reporting the cost per input character. */
+    static void streamProcess(int length) {
+        streamProcess(length, false);
+    }
+
+    /** Time MessageProcessor as for streamProcess(LENGTH), counting the
+     *  work in a Metrics iff METRICS, to measure the cost of metrics. */
+    static void streamProcess(int length, boolean metrics) {
+        Machine mach = syntheticMachine(26, 5);
+        Metrics counts = metrics ? new Metrics() : null;
+        mach.setMetrics(counts);
+        String chars = symbols(26);
+        char[] input = new char[64 << 20];
+        input[0] = '*';
+        input[1] = '\n';
+        for (int i = 2; i < input.length; i += 1) {
+            input[i] = i % (length + 1) == 0 ? '\n'
+                : chars.charAt((i * 7 + i / 26) % 26);
+        }
+        report("MessageProcessor/" + length + (metrics ? "/metrics" : ""),
+               time(() -> {
+                   try {
+                       MessageProcessor processor =
+                           new MessageProcessor(new CharArrayReader(input),
+                                                Writer.nullWriter());
+                       processor.setMetrics(counts);
+                       processor.process(mach, (line, row, column) -> null);
+                   } catch (IOException excp) {
+                       throw new Error(excp);
+                   }
+                   return mach.getRotor(mach.numRotors() - 1).setting();
+               }, input.length));
+    }
+
+    /** Time a MessageProcessor on 16M characters of input in lines of
+     *  80, writing a binary trace of every SAMPLEth line to a null
+     *  stream, reporting the cost per input character. */
+    static void traceProcess(int sample) {
+        Machine mach = syntheticMachine(26, 5);
+        String chars = symbols(26);
+        char[] input = new char[16 << 20];
+        input[0] = '*';
+        input[1] = '\n';
+        for (int i = 2; i < input.length; i += 1) {
+            input[i] = i % 81 == 0 ? '\n'
+                : chars.charAt((i * 7 + i / 26) % 26);
+        }
+        report("MessageProcessor/trace/" + sample, time(() -> {
+            try {
+                Trace trace = new Trace(mach.alphabet(), mach.numRotors(),
+                                        sample, Trace.BLOCK);
+                trace.startWriter(OutputStream.nullOutputStream());
+                mach.setTrace(trace);
+                MessageProcessor processor =
+                    new MessageProcessor(new CharArrayReader(input),
+                                         Writer.nullWriter());
+                processor.setTrace(trace);
+                processor.process(mach, (line, row, column) -> null);
+                trace.close();
+            } catch (IOException excp) {
+                throw new Error(excp);
+            }
+            return mach.getRotor(mach.numRotors() - 1).setting();
+        }, input.length, 1, 3));
+    }
+
+    /** Run a Server in this process and load it from CLIENTS
+     *  connections, each keeping DEPTH requests for 60-character messages
+     *  in flight, reporting the median and 99th percentile time from
+     *  sending a request to reading its reply, and the requests answered
+     *  per second. */
+    static void serveLoad(int clients, int depth) {
+        MachineSpec spec = new Main(List.of(tempFile(catalog(8))))
+            .readConfig().spec();
+        String[] requests = new String[64];
+        for (int i = 0; i < requests.length; i += 1) {
+            requests[i] = String.format("* R M%d M%d M%d M%d %s (AB) (YZ)%n"
+                                        + "%s%n", i % 8, (i + 1) % 8,
+                                        (i + 2) % 8, (i + 3) % 8,
+                                        symbols(26).substring(i % 22,
+                                                              i % 22 + 4),
+                                        message(26, 60));
+        }
+        String variant = "Server/" + clients + "x" + depth;
+        ExecutorService load = Executors.newFixedThreadPool(clients);
+        try (Server server = new Server(spec)) {
+            SocketAddress address = server.bind("0");
+            Thread serving = new Thread(() -> {
+                try {
+                    server.serve(Executors.newCachedThreadPool());
+                } catch (IOException excp) {
+                    throw new Error(excp);
+                }
+            });
+            serving.start();
+            int count = 20000 / clients;
+            serveLoad(address, load, clients, depth, requests, count, null);
+            Metrics.Histogram latency = new Metrics.Histogram();
+            long start = System.nanoTime();
+            serveLoad(address, load, clients, depth, requests, count,
+                      latency);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            report(variant + "/p50", latency.percentile(0.5) / 1e3, 0, "us");
+            report(variant + "/p99", latency.percentile(0.99) / 1e3, 0,
+                   "us");
+            report(variant + "/throughput",
+                   latency.count() / seconds, 0, "req/s");
+        } catch (IOException excp) {
+            throw new Error(excp);
+        } finally {
+            load.shutdown();
+        }
+    }
+
+    /** Send COUNT of REQUESTS, in turn, on each of CLIENTS connections to
+     *  ADDRESS, run by LOAD, each connection keeping DEPTH requests in
+     *  flight, recording the latency of each in nanoseconds in LATENCY
+     *  unless it is null. */
+    private static void serveLoad(SocketAddress address, ExecutorService load,
+                                  int clients, int depth, String[] requests,
+                                  int count, Metrics.Histogram latency) {
+        List<Future<?>> done = new ArrayList<>();
+        for (int c = 0; c < clients; c += 1) {
+            done.add(load.submit(() -> {
+                try (SocketChannel channel = SocketChannel.open(address)) {
+                    BufferedReader in = new BufferedReader(
+                        new InputStreamReader(
+                            Channels.newInputStream(channel), UTF_8));
+                    OutputStream out = Channels.newOutputStream(channel);
+                    long[] sent = new long[depth];
+                    for (int i = 0; i < count + depth; i += 1) {
+                        if (i >= depth) {
+                            String reply = in.readLine();
+                            if (reply == null || !reply.startsWith("+")) {
+                                throw new Error("bad reply: " + reply);
+                            } else if (latency != null) {
+                                latency.record(System.nanoTime()
+                                               - sent[i % depth]);
+                            }
+                        }
+                        if (i < count) {
+                            sent[i % depth] = System.nanoTime();
+                            out.write(requests[i % requests.length]
+                                      .getBytes(UTF_8));
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> client : done) {
+                client.get();
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new Error(excp);
+        }
+    }
+
+    /** Time a Bombe search with a pool of THREADS threads over every
+     *  order of 2 of 20 moving rotors and a reflector (380 orders of 676
+     *  settings each) for a 20-character crib, reporting the cost per
+     *  setting tried. */
+    static void bombeSearch(int threads) {
+        String config = catalog(26, 3, 2, 20);
+        MachineSpec spec = new Main(List.of(tempFile(config))).readConfig()
+            .spec();
+        Machine mach = spec.newMachine();
+        mach.insertRotors(new String[] { "R", "M3", "M7" });
+        mach.setRotors("KD");
+        mach.setPlugboard(new Permutation("(AB) (CD) (EF)", spec.alphabet()));
+        String crib = message(26, 20);
+        Bombe bombe = new Bombe(spec, mach.convert(crib), crib, 0);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        report("Bombe.search/" + threads, time(() -> {
+            return bombe.search(pool).size();
+        }, bombe.settings(), 1, 3));
+        pool.shutdown();
+    }
+
+    /** Time a HillClimb attack with a pool of THREADS threads over every
+     *  order of 2 of 8 moving rotors and a reflector (56 orders of 676
+     *  settings each) on 500 characters of ciphertext, climbing from the
+     *  best HillClimb.KEEP, and report the cost per setting tried. */
+    static void hillClimbSearch(int threads) {
+        String config = catalog(26, 3, 2, 8);
+        MachineSpec spec = new Main(List.of(tempFile(config))).readConfig()
+            .spec();
+        Machine mach = spec.newMachine();
+        mach.insertRotors(new String[] { "R", "M3", "M7" });
+        mach.setRotors("KD");
+        mach.setPlugboard(new Permutation("(AB) (CD) (EF)", spec.alphabet()));
+        NgramModel model = new NgramModel(spec.alphabet(),
+                                          message(26, 10000));
+        HillClimb attack =
+            new HillClimb(spec, mach.convert(message(26, 500)), model);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        report("HillClimb.search/" + threads, time(() -> {
+            return attack.search(pool).size();
+        }, attack.settings(), 1, 3));
+        pool.shutdown();
+    }
+
+    /** Return a configuration over 26 symbols and 5 slots with a
+     *  reflector R and ROTORS moving rotors named M0, M1, .... */
+    static String catalog(int rotors) {
+        return catalog(26, 5, 3, rotors);
+    }
+
+    /** Return a configuration over SIZE (even) symbols with SLOTS slots
+     *  and PAWLS pawls, a reflector R, and ROTORS moving rotors named M0,
+     *  M1, .... */
+    static String catalog(int size, int slots, int pawls, int rotors) {
+        String chars = symbols(size);
+        StringBuilder config = new StringBuilder(chars).append('\n')
+            .append(slots).append(' ').append(pawls).append("\n R R");
+        for (int i = 0; i + 1 < size; i += 2) {
+            config.append(" (").append(chars, i, i + 2).append(')');
+        }
+        config.append('\n');
+        for (int k = 0; k < rotors; k += 1) {
+            config.append(" M").append(k).append(" M")
+                .append(chars.charAt(k % size)).append(' ')
+                .append(scrambledCycle(chars, k % 20)).append('\n');
+        }
+        return config.toString();
+    }
+
+    /** Time Main.process on an input holding a message of LENGTH
+     *  characters over SIZE symbols in lines of 80, for a machine with
+     *  ROTORS slots, reporting the cost per character.  Main reads and
+     *  writes files in the default charset, so alphabets it cannot encode
+     *  are skipped. */
+    static void mainProcess(int size, int rotors, int length) {
+        if (!Charset.defaultCharset().newEncoder().canEncode(symbols(size))) {
+            System.out.printf("%-40s skipped: not encodable in %s%n",
+                              "Main.process/" + size, Charset.defaultCharset());
+            return;
+        }
+        StringBuilder input = new StringBuilder("* R");
+        for (int k = 0; k < rotors - 1; k += 1) {
+            input.append(" M").append(k);
+        }
+        input.append(' ').append(symbols(size), 0, rotors - 1);
+        String text = message(size, length);
+        for (int i = 0; i < length; i += 80) {
+            input.append('\n').append(text, i, Math.min(length, i + 80));
+        }
+        List<String> args =
+            List.of(tempFile(catalog(size, rotors, rotors - 1, rotors)),
+                    tempFile(input.append('\n').toString()),
+                    tempFile(""));
+        int rounds = (int) Math.max(1, Math.min(ROUNDS, OPS / length));
+        report("Main.process/" + size + "x" + rotors + "/" + length,
+               time(() -> {
+                   new Main(args).process();
+                   return length;
+               }, length, Math.min(WARMUP, rounds), rounds));
+    }
+
+    /** Return the name of a new temporary file containing TEXT in the
+     *  default charset, which is deleted on exit. */
+    static String tempFile(String text) {
+        try {
+            Path file = Files.createTempFile("enigma", ".conf");
+            file.toFile().deleteOnExit();
+            Files.writeString(file, text, Charset.defaultCharset());
+            return file.toString();
+        } catch (IOException excp) {
+            throw new Error(excp);
+        }
+    }
+
+    /** Time Main's reading of a configuration with ROTORS rotors,
+     *  reporting the cost per rotor. */
+    static void configLoad(int rotors) {
+        List<String> args = List.of(tempFile(catalog(rotors)));
+        report("Main.readConfig/" + rotors,
+               time(() -> new Main(args).readConfig().numRotors(),
+                    rotors, WARMUP, Math.max(1, 100000 / rotors)));
+    }
+
+    /** Time reading a binary catalog of ROTORS rotors (see CatalogFile),
+     *  reporting the cost per rotor. */
+    static void catalogLoad(int rotors) {
+        List<String> args = List.of(tempFile(catalog(rotors)));
+        try {
+            Path file = Files.createTempFile("enigma", ".bin");
+            file.toFile().deleteOnExit();
+            CatalogFile.write(new Main(args).readConfig().spec(), file);
+            report("CatalogFile.read/" + rotors,
+                   time(() -> {
+                       try {
+                           return CatalogFile.read(file).numRotors();
+                       } catch (IOException excp) {
+                           throw new Error(excp);
+                       }
+                   }, rotors, WARMUP, Math.max(1, 100000 / rotors)));
+        } catch (IOException excp) {
+            throw new Error(excp);
+        }
+    }
+
+    /** Time Main's handling of setting lines that choose among ROTORS
+     *  rotors, cycling through DISTINCT different lines, reporting the
+     *  cost per line. */
+    static void settingLines(int rotors, int distinct) {
+        Main main = new Main(List.of(tempFile(catalog(rotors))));
+        Machine mach = main.readConfig();
+        String[] lines = new String[distinct];
+        for (int i = 0; i < lines.length; i += 1) {
+            lines[i] = String.format("* R M%d M%d M%d M%d %s (AB) (YZ)",
+                                     i % rotors, (i + 1) % rotors,
+                                     (i + 2) % rotors, (i + 3) % rotors,
+                                     symbols(26).substring(i % 22,
+                                                           i % 22 + 4));
+        }
+        int count = 100000;
+        report("Main.setUp/" + rotors + "/" + distinct, time(() -> {
+            for (int i = 0; i < count; i += 1) {
+                main.setUp(mach, lines[i % lines.length], 1, 1);
+            }
+            return mach.getRotor(1).setting();
+        }, count));
+    }
+
+    /** Time a MessageProcessor on 16M characters of input in which each
+     *  60-character message follows one of 64 recurring setting lines,
+     *  set up through Main, reporting the cost per input character.  The
+     *  messages are converted from the keystreams cached with the
+     *  settings iff KEYSTREAMS, and otherwise by stepping the machine. */
+    static void recurringKeys(boolean keystreams) {
+        Main main = new Main(List.of(tempFile(catalog(16))));
+        Machine mach = main.readConfig();
+        String chars = symbols(26);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 16 << 20; i += 1) {
+            int key = i % 64, first = key % 16;
+            text.append(String.format("* R M%d M%d M%d M%d %s%n", first,
+                                      (first + 1 + key / 16) % 16,
+                                      (first + 6) % 16, (first + 11) % 16,
+                                      chars.substring(key % 4,
+                                                      key % 4 + 4)));
+            for (int k = 0; k < 60; k += 1) {
+                text.append(chars.charAt((i * 7 + k * 31) % 26));
+            }
+            text.append('\n');
+        }
+        char[] input = text.toString().toCharArray();
+        report("recurringKeys/" + (keystreams ? "keystream" : "machine"),
+               time(() -> {
+                   try {
+                       new MessageProcessor(new CharArrayReader(input),
+                                            Writer.nullWriter())
+                           .process(mach, (line, row, column) -> {
+                                   Keystream stream =
+                                       main.setUp(mach, line, row, column);
+                                   return keystreams ? stream : null;
+                               });
+                   } catch (IOException excp) {
+                       throw new Error(excp);
+                   }
+                   return mach.getRotor(mach.numRotors() - 1).setting();
+               }, input.length, 1, 3));
+    }
+
+    /** Time writing 64M characters in lines of 80 to a null Writer,
+     *  reporting the cost per character, in groups of five through a
+     *  GroupedOutputWriter iff GROUPED and otherwise directly. */
+    static void groupedWrite(boolean grouped) {
+        char[] line = symbols(80).toCharArray();
+        int lines = (64 << 20) / line.length;
+        Writer sink = Writer.nullWriter();
+        GroupedOutputWriter writer = new GroupedOutputWriter(sink);
+        report("write/" + (grouped ? "grouped" : "plain"), time(() -> {
+            try {
+                for (int i = 0; i < lines; i += 1) {
+                    if (grouped) {
+                        writer.write(line, 0, line.length);
+                        writer.endLine();
+                    } else {
+                        sink.write(line, 0, line.length);
+                        sink.write('\n');
+                    }
+                }
+                writer.flush();
+            } catch (IOException excp) {
+                throw new Error(excp);
+            }
+            return lines;
+        }, (long) lines * line.length));
+    }
+
+    /** Time Main's processing of a file of SIZE bytes into another file,
+     *  reporting the cost per input byte, mapping both files into memory
+     *  iff MAPPED. */
+    static void mappedProcess(long size, boolean mapped) {
+        Machine mach = syntheticMachine(26, 5);
+        String chars = symbols(26);
+        try {
+            Path input = Files.createTempFile("enigma", ".in");
+            Path output = Files.createTempFile("enigma", ".out");
+            try {
+                try (Writer w = new MappedWriter(input)) {
+                    char[] line = new char[81];
+                    line[80] = '\n';
+                    w.write("*\n");
+                    for (long n = 2; n < size; n += line.length) {
+                        for (int i = 0; i < 80; i += 1) {
+                            line[i] = chars.charAt((int) ((n + i) % 26));
+                        }
+                        w.write(line, 0, (int) Math.min(81, size - n));
+                    }
+                }
+                report((mapped ? "mapped/" : "streamed/") + size,
+                       time(() -> {
+                           try (Reader r = mapped ? new MappedReader(input)
+                                    : new InputStreamReader(
+                                          new FileInputStream(
+                                              input.toFile()));
+                                Writer w = mapped ? new MappedWriter(output)
+                                    : new OutputStreamWriter(
+                                          new FileOutputStream(
+                                              output.toFile()))) {
+                               new MessageProcessor(r, w)
+                                   .process(mach, (line, row, column) -> null);
+                           } catch (IOException excp) {
+                               throw new Error(excp);
+                           }
+                           return (int) output.toFile().length();
+                       }, size, 1, 1));
+            } finally {
+                Files.delete(input);
+                Files.delete(output);
+            }
+        } catch (IOException excp) {
+            throw new Error(excp);
+        }
+    }
+
+    /** Return the number of bytes allocated so far by this thread. */
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** A unit of benchmarked work. */
+    interface Work {
+        /** Do the work, returning a value that depends on it. */
+        int run();
+    }
+
+    /** Return the mean time in nanoseconds of one of the OPS operations
+     *  performed by WORK. */
+    static double time(Work work) {
+        return time(work, OPS);
+    }
+
+    /** Return the mean time in nanoseconds of one of the N operations
+     *  performed by WORK. */
+    static double time(Work work, long n) {
+        return time(work, n, WARMUP, ROUNDS);
+    }
+
+    /** Return the mean time in nanoseconds of one of the N operations
+     *  performed by WORK, over ROUNDS timed runs after WARMUP untimed
+     *  ones. */
+    static double time(Work work, long n, int warmup, int rounds) {
+        for (int i = 0; i < warmup; i += 1) {
+            _sink += work.run();
+        }
+        double sum = 0, sumSquares = 0;
+        for (int i = 0; i < rounds; i += 1) {
+            long start = System.nanoTime();
+            _sink += work.run();
+            double round = (System.nanoTime() - start) / (double) n;
+            sum += round;
+            sumSquares += round * round;
+        }
+        double mean = sum / rounds;
+        _error = rounds < 2 ? 0
+            : Math.sqrt(Math.max(0, (sumSquares - sum * mean)
+                                 / (rounds - 1)));
+        return mean;
+    }
+
+    /** Print the result NANOS for the benchmark named NAME, with the
+     *  standard deviation over rounds of the last call to time. */
+    static void report(String name, double nanos) {
+        report(name, nanos, _error, "ns/op");
+    }
+
+    /** Print the result SCORE, with standard deviation ERROR, in UNIT
+     *  for the benchmark named NAME, and record it for writeJson. */
+    static void report(String name, double score, double error,
+                       String unit) {
+        System.out.printf("%-40s %12.3f +- %8.3f %s%n", name, score,
+                          error, unit);
+        int slash = name.indexOf('/');
+        _results.add(String.format(
+            "  {\"benchmark\": \"%s\", \"params\": \"%s\", "
+            + "\"score\": %.3f, \"error\": %.3f, \"unit\": \"%s\"}",
+            slash < 0 ? name : name.substring(0, slash),
+            slash < 0 ? "" : name.substring(slash + 1), score, error,
+            unit));
+    }
+
+    /** Write the results reported so far to FILE as a JSON array. */
+    static void writeJson(Path file) {
+        try {
+            Files.writeString(file, "[\n" + String.join(",\n", _results)
+                              + "\n]\n");
+        } catch (IOException excp) {
+            throw new Error(excp);
+        }
+    }
+
+    /** Options given to main, by name. */
+    private static final HashMap<String, String> _options = new HashMap<>();
+
+    /** Results reported so far, as JSON objects. */
+    private static final List<String> _results = new ArrayList<>();
+
+    /** Standard deviation over rounds of the last result of time. */
+    private static double _error;
+
+    /** Accumulates benchmark results so they cannot be optimized away. */
+    private static long _sink;
+}
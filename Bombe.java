@@ -0,0 +1,415 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static enigma.EnigmaException.*;
+
+/** A crib attack on machines built to a MachineSpec, in the manner of
+ *  the Turing-Welchman bombe.  Given a ciphertext and a crib (plaintext
+ *  believed to encrypt to the ciphertext from some offset on), it tries
+ *  every rotor order and every setting of the rotors, and reports as a
+ *  Stop each one at which some plugboard is consistent with the crib.
+ *
+ *  The crib and the ciphertext under it form the menu: a graph on the
+ *  alphabet with an edge between the K-th crib character and the
+ *  ciphertext character under it, labeled K.  If S is the plugboard and
+ *  E(K) is the substitution made by the rotors alone at keystroke K,
+ *  then S(B) = E(K)(S(A)) for each such edge A-B.  The search assumes
+ *  S(T) = X for the menu's most connected character T and each X in
+ *  turn, and closes the set of such hypotheses under the edges and under
+ *  the symmetry of the plugboard, as bits in a matrix (the diagonal
+ *  board).  Since the implications run both ways, every hypothesis in
+ *  the closure implies all the others.  So a closure giving some
+ *  character two images refutes every hypothesis about T in it.  A
+ *  closure giving each character at most one image is a stop, and it
+ *  gives the plugboard pairs the menu determines.
+ *
+ *  The rotor orders tried are those of MachineSpec.rotorOrders.  Each
+ *  (order, setting of slot 1) pair is one unit of work.  Units are
+ *  divided among the threads of a fork-join pool, and each thread uses
+ *  its own machine and tables.
+ *  @author Agam Gupta
+ */
+class Bombe {
+
+    /** A candidate setting found by a search. */
+    static final class Stop implements Comparable<Stop> {
+
+        /** A stop with the rotors named ROTORS at positions POSITIONS and
+         *  the plugboard cycles PLUGBOARD, found at step RANK of the
+         *  search. */
+        Stop(String[] rotors, String positions, String plugboard,
+             long rank) {
+            _rotors = rotors.clone();
+            _positions = positions;
+            _plugboard = plugboard;
+            _rank = rank;
+        }
+
+        /** Return the names of the rotors, starting with the
+         *  reflector. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return the initial positions of the rotors after the
+         *  reflector. */
+        String positions() {
+            return _positions;
+        }
+
+        /** Return the plugboard pairs determined by the menu, in cycle
+         *  notation.  Characters it does not determine are left out. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        @Override
+        public int compareTo(Stop other) {
+            return Long.compare(_rank, other._rank);
+        }
+
+        /** Return me as a setting line, as accepted by Main. */
+        @Override
+        public String toString() {
+            return "* " + String.join(" ", _rotors) + " " + _positions
+                + (_plugboard.isEmpty() ? "" : " " + _plugboard);
+        }
+
+        /** Rotor names, from the reflector on. */
+        private final String[] _rotors;
+        /** Initial rotor positions. */
+        private final String _positions;
+        /** Plugboard cycles. */
+        private final String _plugboard;
+        /** Position of this stop in the order of the search. */
+        private final long _rank;
+    }
+
+    /** A bombe for machines built to SPEC that looks for settings under
+     *  which CIPHERTEXT, from its character OFFSET on, could be the
+     *  encryption of CRIB.  Blanks in CIPHERTEXT and CRIB are ignored, as
+     *  Machine.convert ignores them.  The square of the size of SPEC's
+     *  alphabet, and its product with the length of CRIB, must fit in an
+     *  int, since the bombe keeps tables of those sizes. */
+    Bombe(MachineSpec spec, String ciphertext, String crib, int offset) {
+        _spec = spec;
+        _alphabet = spec.alphabet();
+        _size = _alphabet.size();
+        _slots = spec.numRotors();
+        if ((long) _size * _size > Integer.MAX_VALUE) {
+            throw error("alphabet of %d characters is too large for a bombe",
+                        _size);
+        }
+        int[] cipher = _alphabet.indices(ciphertext, "ciphertext");
+        int[] plain = _alphabet.indices(crib, "crib");
+        if (plain.length == 0) {
+            throw error("empty crib");
+        } else if (offset < 0 || offset + plain.length > cipher.length) {
+            throw error("crib does not fit in the ciphertext at %d", offset);
+        }
+        _offset = offset;
+        _length = plain.length;
+        if ((long) _length * _size > Integer.MAX_VALUE) {
+            throw error("crib too long for an alphabet of %d characters",
+                        _size);
+        }
+
+        int[] degree = new int[_size];
+        for (int k = 0; k < _length; k += 1) {
+            degree[plain[k]] += 1;
+            degree[cipher[offset + k]] += 1;
+        }
+        _edgeStart = new int[_size + 1];
+        for (int c = 0; c < _size; c += 1) {
+            _edgeStart[c + 1] = _edgeStart[c] + degree[c];
+        }
+        _edgeTo = new int[2 * _length];
+        _edgeAt = new int[2 * _length];
+        int[] fill = Arrays.copyOf(_edgeStart, _size);
+        for (int k = 0; k < _length; k += 1) {
+            int a = plain[k], b = cipher[offset + k];
+            _edgeTo[fill[a]] = b;
+            _edgeAt[fill[a]++] = k;
+            _edgeTo[fill[b]] = a;
+            _edgeAt[fill[b]++] = k;
+        }
+        int test = 0;
+        for (int c = 1; c < _size; c += 1) {
+            if (degree[c] > degree[test]) {
+                test = c;
+            }
+        }
+        _test = test;
+
+        _orders = spec.rotorOrders();
+        long positions = 1;
+        for (int i = 2; i < _slots; i += 1) {
+            if (positions > Long.MAX_VALUE / _size) {
+                throw error("too many rotor positions to search");
+            }
+            positions *= _size;
+        }
+        _unitPositions = positions;
+        if ((long) _orders.size() * _size > Integer.MAX_VALUE) {
+            throw error("too many rotor orders to search");
+        }
+        _units = _orders.size() * _size;
+    }
+
+    /** Return the number of rotor orders to be tried. */
+    int orders() {
+        return _orders.size();
+    }
+
+    /** Return the number of machine settings (rotor order and positions)
+     *  to be tried. */
+    long settings() {
+        return _units * _unitPositions;
+    }
+
+    /** Return the stops found by trying every machine setting, in the
+     *  order in which they would be found by a sequential search, using
+     *  the common fork-join pool. */
+    List<Stop> search() {
+        return search(ForkJoinPool.commonPool());
+    }
+
+    /** Return the stops found by trying every machine setting, in the
+     *  order in which they would be found by a sequential search, using
+     *  the threads of POOL. */
+    List<Stop> search(ForkJoinPool pool) {
+        ConcurrentLinkedQueue<Stop> found = new ConcurrentLinkedQueue<>();
+        ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+        pool.invoke(new Search(0, _units, workers, found));
+        List<Stop> result = new ArrayList<>(found);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Searches the units in a range, splitting it among threads. */
+    private final class Search extends RecursiveAction {
+
+        /** A search of units LO .. HI - 1 by the worker from WORKERS of
+         *  each thread, adding stops to FOUND. */
+        Search(int lo, int hi, ThreadLocal<Worker> workers,
+               ConcurrentLinkedQueue<Stop> found) {
+            _lo = lo;
+            _hi = hi;
+            _workers = workers;
+            _found = found;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Search(_lo, mid, _workers, _found),
+                          new Search(mid, _hi, _workers, _found));
+            } else if (_hi > _lo) {
+                _workers.get().search(_lo, _found);
+            }
+        }
+
+        /** First unit searched. */
+        private final int _lo;
+        /** End of the units searched. */
+        private final int _hi;
+        /** The worker of each thread. */
+        private final ThreadLocal<Worker> _workers;
+        /** Receives stops. */
+        private final ConcurrentLinkedQueue<Stop> _found;
+    }
+
+    /** The machine and tables with which one thread searches units,
+     *  which are left cleared between tests so that a worker can search
+     *  any number of units in turn. */
+    private final class Worker {
+
+        /** A worker with a machine whose plugboard does nothing. */
+        Worker() {
+            _machine = _spec.newMachine();
+            _machine.setPlugboard(new Permutation("", _alphabet));
+            _subs = new int[_length * _size];
+            _position = new int[_slots - 1];
+            _words = (_size + 63) >>> 6;
+            _board = new long[_size * _words];
+            _images = new int[_size];
+            Arrays.fill(_images, -1);
+            _pairs = new int[_size * _size];
+            _tested = new long[_words];
+        }
+
+        /** Try every setting in unit UNIT, adding stops to FOUND. */
+        void search(int unit, ConcurrentLinkedQueue<Stop> found) {
+            String[] names = _orders.get(unit / _size);
+            _machine.insertRotors(names);
+            Arrays.fill(_position, 0);
+            _position[0] = unit % _size;
+            for (long p = 0; p < _unitPositions; p += 1) {
+                _machine.setRotors(_position);
+                _machine.seek(_offset);
+                _machine.substitutions(_length, _subs);
+                String plugboard = test();
+                if (plugboard != null) {
+                    found.add(new Stop(names, positions(), plugboard,
+                                       unit * _unitPositions + p));
+                }
+                for (int i = _position.length - 1; i > 0; i -= 1) {
+                    _position[i] += 1;
+                    if (_position[i] < _size) {
+                        break;
+                    }
+                    _position[i] = 0;
+                }
+            }
+        }
+
+        /** Return the plugboard cycles of the first consistent closure of
+         *  a hypothesis about the test character at the current
+         *  substitutions, or null if every hypothesis is refuted. */
+        private String test() {
+            Arrays.fill(_tested, 0);
+            for (int x = 0; x < _size; x += 1) {
+                if ((_tested[x >>> 6] & (1L << x)) != 0) {
+                    continue;
+                }
+                int count = close(x);
+                boolean consistent = true;
+                for (int k = 0; k < count; k += 1) {
+                    int a = _pairs[k] / _size;
+                    if (_images[a] < 0) {
+                        consistent = false;
+                    }
+                    if (a == _test) {
+                        int y = _pairs[k] % _size;
+                        _tested[y >>> 6] |= 1L << y;
+                    }
+                }
+                String result = consistent ? plugboard() : null;
+                clear(count);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        }
+
+        /** Close the hypothesis S(_test) = X, recording each hypothesis
+         *  S(A) = Y added as A * _size + Y in _pairs and in _board, and
+         *  setting _images[A] to Y, or to -2 if A has more than one image.
+         *  Return the number of hypotheses added. */
+        private int close(int x) {
+            int count = add(_test, x, 0);
+            for (int done = 0; done < count; done += 1) {
+                int a = _pairs[done] / _size, y = _pairs[done] % _size;
+                count = add(y, a, count);
+                for (int e = _edgeStart[a]; e < _edgeStart[a + 1]; e += 1) {
+                    count = add(_edgeTo[e],
+                                _subs[_edgeAt[e] * _size + y], count);
+                }
+            }
+            return count;
+        }
+
+        /** Add the hypothesis S(A) = Y, if new, as the COUNTth in _pairs,
+         *  returning the new count. */
+        private int add(int a, int y, int count) {
+            int word = a * _words + (y >>> 6);
+            long bit = 1L << y;
+            if ((_board[word] & bit) != 0) {
+                return count;
+            }
+            _board[word] |= bit;
+            _pairs[count] = a * _size + y;
+            _images[a] = _images[a] == -1 ? y : -2;
+            return count + 1;
+        }
+
+        /** Undo the first COUNT hypotheses in _pairs. */
+        private void clear(int count) {
+            for (int k = 0; k < count; k += 1) {
+                int a = _pairs[k] / _size, y = _pairs[k] % _size;
+                _board[a * _words + (y >>> 6)] = 0;
+                _images[a] = -1;
+            }
+        }
+
+        /** Return the plugboard cycles given by _images after a
+         *  consistent closure. */
+        private String plugboard() {
+            StringBuilder cycles = new StringBuilder();
+            for (int a = 0; a < _size; a += 1) {
+                if (_images[a] > a) {
+                    cycles.append(cycles.length() == 0 ? "(" : " (")
+                        .append(_alphabet.toChar(a))
+                        .append(_alphabet.toChar(_images[a])).append(')');
+                }
+            }
+            return cycles.toString();
+        }
+
+        /** Return the current rotor positions as characters. */
+        private String positions() {
+            char[] chars = new char[_position.length];
+            for (int i = 0; i < chars.length; i += 1) {
+                chars[i] = _alphabet.toChar(_position[i]);
+            }
+            return new String(chars);
+        }
+
+        /** The machine whose substitutions are tested. */
+        private final Machine _machine;
+        /** Substitution by the rotors at each keystroke of the crib. */
+        private final int[] _subs;
+        /** Positions of the rotors after the reflector. */
+        private final int[] _position;
+        /** Number of longs in each row of _board. */
+        private final int _words;
+        /** Bit Y of row A is set iff S(A) = Y is in the current
+         *  closure. */
+        private final long[] _board;
+        /** For each character A, -1 if the closure gives it no image, its
+         *  image Y if exactly one, or -2 if more than one. */
+        private final int[] _images;
+        /** Hypotheses in the current closure, in the order added. */
+        private final int[] _pairs;
+        /** Bit X is set iff S(_test) = X has been refuted or tried. */
+        private final long[] _tested;
+    }
+
+    /** The spec of the machines searched. */
+    private final MachineSpec _spec;
+    /** The alphabet of the machines. */
+    private final Alphabet _alphabet;
+    /** The size of _alphabet. */
+    private final int _size;
+    /** Number of rotor slots. */
+    private final int _slots;
+    /** Number of ciphertext characters before the crib. */
+    private final int _offset;
+    /** Number of characters in the crib. */
+    private final int _length;
+    /** Edges of the menu from character C are those at indices
+     *  _edgeStart[C] .. _edgeStart[C + 1] - 1 of _edgeTo and _edgeAt. */
+    private final int[] _edgeStart;
+    /** The character at the other end of each edge. */
+    private final int[] _edgeTo;
+    /** The crib position of each edge. */
+    private final int[] _edgeAt;
+    /** The character with the most edges, about which hypotheses are
+     *  made. */
+    private final int _test;
+    /** The rotor orders to try. */
+    private final List<String[]> _orders;
+    /** The number of settings of the slots after slot 1. */
+    private final long _unitPositions;
+    /** The number of units: rotor orders times positions of slot 1. */
+    private final int _units;
+}
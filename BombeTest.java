@@ -0,0 +1,121 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author Agam Gupta
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Alphabet of the machines tested. */
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    /** Return a spec with 3 slots and 2 pawls, reflector B, and rotors I,
+     *  II and III. */
+    private static MachineSpec spec() {
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B",
+            new Permutation(TestUtils.NAVALA.get("B"), AZ)));
+        rotors.add(new MovingRotor("I",
+            new Permutation(TestUtils.NAVALA.get("I"), AZ), "Q"));
+        rotors.add(new MovingRotor("II",
+            new Permutation(TestUtils.NAVALA.get("II"), AZ), "E"));
+        rotors.add(new MovingRotor("III",
+            new Permutation(TestUtils.NAVALA.get("III"), AZ), "V"));
+        return new MachineSpec(AZ, 3, 2, rotors);
+    }
+
+    /** Return the encryption of PLAIN with the rotors B II I at positions
+     *  QX and plugboard (AB) (CD) (EZ). */
+    private static String encrypt(String plain) {
+        Machine mach = spec().newMachine();
+        mach.insertRotors(new String[] { "B", "II", "I" });
+        mach.setRotors("QX");
+        mach.setPlugboard(new Permutation("(AB) (CD) (EZ)", AZ));
+        return mach.convert(plain);
+    }
+
+    /** Assert that STOPS include the setting used by encrypt, with
+     *  plugboard pairs all drawn from its plugboard. */
+    private static void assertFound(List<Bombe.Stop> stops) {
+        boolean found = false;
+        for (Bombe.Stop stop : stops) {
+            if (String.join(" ", stop.rotors()).equals("B II I")
+                && stop.positions().equals("QX")) {
+                found = true;
+                String pairs = stop.plugboard()
+                    .replaceAll("\\((AB|CD|EZ)\\)", "").trim();
+                assertEquals("unexpected pairs in " + stop, "", pairs);
+            }
+        }
+        assertTrue("true setting not among " + stops, found);
+    }
+
+    @Test
+    public void testOrders() {
+        Bombe bombe = new Bombe(spec(), "ABC", "XYZ", 0);
+        assertEquals(6, bombe.orders());
+        assertEquals(6 * 26 * 26, bombe.settings());
+    }
+
+    @Test
+    public void testFindsSetting() {
+        String plain = "WETTERVORHERSAGEBISKAYA";
+        String cipher = encrypt("HEUTE" + plain + "UNDSOWEITER");
+        List<Bombe.Stop> stops =
+            new Bombe(spec(), cipher, plain, 5).search();
+        assertFound(stops);
+        assertTrue("too many stops: " + stops.size(), stops.size() < 20);
+    }
+
+    @Test
+    public void testPoolSizes() {
+        String plain = "DEUTSCHEMARINEOBERKOMMANDO";
+        String cipher = encrypt(plain);
+        Bombe bombe = new Bombe(spec(), cipher, plain, 0);
+        List<Bombe.Stop> serial = bombe.search(new ForkJoinPool(1));
+        List<Bombe.Stop> parallel = bombe.search(new ForkJoinPool(4));
+        assertFound(serial);
+        assertEquals(serial.toString(), parallel.toString());
+    }
+
+    @Test
+    public void testBadCrib() {
+        for (String[] args : new String[][] {
+                { "ABC", "" }, { "ABC", "ABCD" }, { "ABC", "a" } }) {
+            try {
+                new Bombe(spec(), args[0], args[1], 0);
+                fail("accepted crib '" + args[1] + "'");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    @Test
+    public void testHugeAlphabet() {
+        char[] chars = new char[46341];
+        for (int i = 0; i < chars.length; i += 1) {
+            chars[i] = (char) (0x100 + i);
+        }
+        MachineSpec spec = new MachineSpec(new Alphabet(new String(chars)),
+                                           2, 1, List.of());
+        try {
+            new Bombe(spec, new String(chars, 1, 1), new String(chars, 0, 1),
+                      0);
+            fail("accepted an alphabet of " + chars.length + " characters");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
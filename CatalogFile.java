@@ -0,0 +1,185 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** Reads and writes machine specs in a compact binary form, so that large
+ *  rotor catalogs need not be parsed from cycle notation at each start.
+ *  A catalog file holds, in big-endian order:
+ *  <pre>
+ *      int     MAGIC
+ *      int     VERSION
+ *      string  the alphabet, of N characters
+ *      int     number of rotor slots
+ *      int     number of pawls
+ *      int     number of rotors
+ *      for each rotor:
+ *          byte    type: 'M', 'N', or 'R'
+ *          string  name
+ *          string  notches
+ *          N bytes (if N <= 256) or chars: the index to which the
+ *                  rotor's permutation takes each index
+ *      int     CRC-32 of all the preceding bytes
+ *  </pre>
+ *  where each string is an unsigned short count of bytes followed by
+ *  that many bytes of UTF-8.
+ *  @author Agam Gupta
+ */
+final class CatalogFile {
+
+    /** The first four bytes of every catalog file: "ENGC". */
+    static final int MAGIC = 0x454e4743;
+
+    /** The version of the format written. */
+    static final int VERSION = 1;
+
+    /** Not instantiable. */
+    private CatalogFile() {
+    }
+
+    /** Return true iff the file named by PATH starts as a catalog file
+     *  does. */
+    static boolean isCatalog(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] start = in.readNBytes(4);
+            return start.length == 4
+                && ByteBuffer.wrap(start).getInt() == MAGIC;
+        }
+    }
+
+    /** Write SPEC as a catalog file named by PATH. */
+    static void write(MachineSpec spec, Path path) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Alphabet alpha = spec.alphabet();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, alpha.toString());
+        out.writeInt(spec.numRotors());
+        out.writeInt(spec.numPawls());
+        out.writeInt(spec.rotors().size());
+        for (Rotor rotor : spec.rotors()) {
+            out.writeByte(rotor.reflecting() ? 'R'
+                          : rotor.rotates() ? 'M' : 'N');
+            writeString(out, rotor.name());
+            writeString(out, rotor.notches());
+            Permutation perm = rotor.permutation();
+            for (int k = 0; k < alpha.size(); k += 1) {
+                if (alpha.size() <= 256) {
+                    out.writeByte(perm.permute(k));
+                } else {
+                    out.writeChar(perm.permute(k));
+                }
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        Files.write(path, bytes.toByteArray());
+    }
+
+    /** Write S to OUT as a catalog string. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw error("string too long for a catalog file: %s", s);
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return the spec in the catalog file named by PATH, which is mapped
+     *  into memory to read it. */
+    static MachineSpec read(Path path) throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                    channel.size()));
+        }
+    }
+
+    /** Return the spec in the catalog in BUFFER, from its position to its
+     *  limit. */
+    static MachineSpec read(ByteBuffer buffer) {
+        ByteBuffer in = buffer.slice();
+        if (in.remaining() < 12 || in.getInt() != MAGIC) {
+            throw error("not a catalog file");
+        } else if (in.getInt() != VERSION) {
+            throw error("unsupported catalog file version");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate().position(0).limit(in.limit() - 4));
+        if (in.getInt(in.limit() - 4) != (int) crc.getValue()) {
+            throw error("catalog file is corrupt (bad checksum)");
+        }
+        in.limit(in.limit() - 4);
+        try {
+            Alphabet alpha = new Alphabet(readString(in));
+            int numRotors = in.getInt();
+            int numPawls = in.getInt();
+            if (numPawls < 1 || numRotors <= numPawls) {
+                throw error("S > P > 0 expected");
+            }
+            int count = in.getInt();
+            List<Rotor> rotors = new ArrayList<>();
+            int[] forward = new int[alpha.size()];
+            for (int i = 0; i < count; i += 1) {
+                byte type = in.get();
+                String name = readString(in);
+                String notches = readString(in);
+                for (int k = 0; k < forward.length; k += 1) {
+                    forward[k] = forward.length <= 256 ? in.get() & 0xff
+                        : in.getChar();
+                }
+                Permutation perm = new Permutation(forward, alpha);
+                switch (type) {
+                case 'M':
+                    rotors.add(new MovingRotor(name, perm, notches));
+                    break;
+                case 'N':
+                    rotors.add(new FixedRotor(name, perm));
+                    break;
+                case 'R':
+                    rotors.add(new Reflector(name, perm));
+                    break;
+                default:
+                    throw error("bad rotor type in catalog file");
+                }
+            }
+            if (in.hasRemaining()) {
+                throw error("junk at end of catalog file");
+            }
+            return new MachineSpec(alpha, numRotors, numPawls, rotors);
+        } catch (BufferUnderflowException | IllegalArgumentException excp) {
+            throw error("catalog file truncated");
+        }
+    }
+
+    /** Return the catalog string at the position of IN, advancing past
+     *  it. */
+    private static String readString(ByteBuffer in) {
+        int n = in.getShort() & 0xffff;
+        if (n > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[n];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -13,6 +13,16 @@ class FixedRotor extends Rotor {
         set(0);
     }
 
+    /** A copy of OTHER. */
+    FixedRotor(FixedRotor other) {
+        super(other);
+    }
+
+    @Override
+    FixedRotor copy() {
+        return new FixedRotor(this);
+    }
+
 
 
     @Override
@@ -0,0 +1,128 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import static enigma.EnigmaException.*;
+
+/** Writes message lines in groups of characters separated by blanks
+ *  (by default, groups of five), collecting them in a reusable buffer
+ *  that is written out in large blocks.
+ *  @author Agam Gupta
+ */
+class GroupedOutputWriter {
+
+    /** A writer to OUTPUT of groups of five characters, with no limit
+     *  on the length of a line. */
+    GroupedOutputWriter(Writer output) {
+        this(output, 5, 0);
+    }
+
+    /** A writer to OUTPUT of groups of GROUPSIZE > 0 characters.  If
+     *  LINEWIDTH > 0, a message line continues on a new line in place of
+     *  any blank that would make it longer than LINEWIDTH characters
+     *  (but each line holds at least one group). */
+    GroupedOutputWriter(Writer output, int groupSize, int lineWidth) {
+        if (groupSize <= 0 || lineWidth < 0) {
+            throw error("bad group size or line width");
+        }
+        _output = output;
+        _groupSize = groupSize;
+        _lineGroups = lineWidth == 0 ? Integer.MAX_VALUE
+            : Math.max(1, (lineWidth + 1) / (groupSize + 1));
+    }
+
+    /** Append the LEN characters of CHARS starting at OFF to the current
+     *  message line. */
+    void write(char[] chars, int off, int len) throws IOException {
+        for (int end = off + len; off < end; ) {
+            if (_group == _groupSize) {
+                separate();
+            }
+            int n = Math.min(_groupSize - _group, end - off);
+            if (_buffer.length - _size < n) {
+                writeOut();
+            }
+            System.arraycopy(chars, off, _buffer, _size, n);
+            _size += n;
+            _group += n;
+            off += n;
+        }
+    }
+
+    /** End the current message line (which may be empty). */
+    void endLine() throws IOException {
+        newLine();
+        _group = _groups = 0;
+        _complete = _size;
+    }
+
+    /** Write out everything appended so far and flush the output. */
+    void flush() throws IOException {
+        writeOut();
+        _output.flush();
+    }
+
+    /** Write out and flush only the lines ended so far, discarding any
+     *  part of the current line still in my buffer.  Used after an error
+     *  in the current line.  Any part of that line already written out
+     *  because my buffer filled up stays in the output. */
+    void flushComplete() throws IOException {
+        _size = _complete;
+        flush();
+    }
+
+    /** Start a new group, after a blank or on a new line. */
+    private void separate() throws IOException {
+        _groups += 1;
+        if (_groups == _lineGroups) {
+            newLine();
+            _groups = 0;
+        } else {
+            if (_size == _buffer.length) {
+                writeOut();
+            }
+            _buffer[_size++] = ' ';
+        }
+        _group = 0;
+    }
+
+    /** Append a line separator. */
+    private void newLine() throws IOException {
+        if (_buffer.length - _size < NEWLINE.length()) {
+            writeOut();
+        }
+        NEWLINE.getChars(0, NEWLINE.length(), _buffer, _size);
+        _size += NEWLINE.length();
+    }
+
+    /** Write the contents of my buffer to the output. */
+    private void writeOut() throws IOException {
+        _output.write(_buffer, 0, _size);
+        _size = _complete = 0;
+    }
+
+    /** Size of my buffer. */
+    static final int BLOCK = 1 << 16;
+
+    /** The line separator used in the output. */
+    private static final String NEWLINE = System.lineSeparator();
+
+    /** Destination of the grouped characters. */
+    private final Writer _output;
+    /** Number of characters in a group. */
+    private final int _groupSize;
+    /** Maximum number of groups on one line. */
+    private final int _lineGroups;
+    /** Output not yet written to _output. */
+    private final char[] _buffer = new char[BLOCK];
+    /** Number of characters in _buffer. */
+    private int _size;
+    /** Number of characters in _buffer up to the end of the last line
+     *  ended. */
+    private int _complete;
+    /** Number of characters in the current group. */
+    private int _group;
+    /** Number of groups before the current one on the current line. */
+    private int _groups;
+}
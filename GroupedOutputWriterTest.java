@@ -0,0 +1,71 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the GroupedOutputWriter class.
+ *  @author Agam Gupta
+ */
+public class GroupedOutputWriterTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** The line separator. */
+    private static final String NL = System.lineSeparator();
+
+    /** Return the output of a GroupedOutputWriter with group size GROUP
+     *  and line width WIDTH given LINES, each written in pieces of at
+     *  most PIECE characters. */
+    private static String grouped(int group, int width, int piece,
+                                  String... lines) throws IOException {
+        StringWriter result = new StringWriter();
+        GroupedOutputWriter out =
+            new GroupedOutputWriter(result, group, width);
+        for (String line : lines) {
+            char[] chars = line.toCharArray();
+            for (int i = 0; i < chars.length; i += piece) {
+                out.write(chars, i, Math.min(piece, chars.length - i));
+            }
+            out.endLine();
+        }
+        out.flush();
+        return result.toString();
+    }
+
+    @Test
+    public void testGroups() throws IOException {
+        String expected = "ABCDE FGHIJ KL" + NL + NL + "ABCDE" + NL;
+        for (int piece = 1; piece < 14; piece += 1) {
+            assertEquals(expected,
+                         grouped(5, 0, piece, "ABCDEFGHIJKL", "", "ABCDE"));
+        }
+        assertEquals("ABC DEF G" + NL, grouped(3, 0, 4, "ABCDEFG"));
+    }
+
+    @Test
+    public void testLineWidth() throws IOException {
+        assertEquals("ABCDE FGHIJ" + NL + "KLMNO P" + NL,
+                     grouped(5, 11, 3, "ABCDEFGHIJKLMNOP"));
+        assertEquals("ABCDE FGHIJ" + NL + "KLMNO P" + NL,
+                     grouped(5, 16, 3, "ABCDEFGHIJKLMNOP"));
+        assertEquals("ABC" + NL + "DE" + NL,
+                     grouped(3, 2, 1, "ABCDE"));
+    }
+
+    @Test
+    public void testFlushComplete() throws IOException {
+        StringWriter result = new StringWriter();
+        GroupedOutputWriter out = new GroupedOutputWriter(result);
+        out.write("ABCDEF".toCharArray(), 0, 6);
+        out.endLine();
+        out.write("GHI".toCharArray(), 0, 3);
+        out.flushComplete();
+        assertEquals("ABCDE F" + NL, result.toString());
+    }
+}
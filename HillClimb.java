@@ -0,0 +1,677 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only attack on machines built to a MachineSpec.  It
+ *  first decrypts the ciphertext at every rotor order and every setting
+ *  of the rotors, with no plugboard, and keeps the keep() settings whose
+ *  decryptions have the highest index of coincidence.  Then, from each
+ *  of those, it hill-climbs the plugboard: it repeatedly tries adding,
+ *  removing, or re-pairing one pair of plugs, keeping any change that
+ *  improves the score of the decryption under an NgramModel (or, with
+ *  none, its index of coincidence), until no change helps.
+ *
+ *  As in Bombe, the rotor orders tried are those of
+ *  MachineSpec.rotorOrders, each (order, setting of slot 1) pair is one
+ *  unit of work, and units are divided among the threads of a fork-join
+ *  pool.  Each thread has its own machine, buffers, and heap of the best
+ *  settings it has seen, which are merged at the end of the first phase.
+ *  Decryption and scoring work only on arrays of alphabet indices and
+ *  allocate nothing.  The scan decrypts BLOCK settings at a time through
+ *  a Batch.  The plugboard climb decrypts through the
+ *  substitutions the rotors make at each keystroke, computed once per
+ *  setting (see Machine.substitutions), so each trial plugboard costs
+ *  three table lookups per character.
+ *
+ *  With a checkpoint file, each thread appends a line to it as it
+ *  finishes a unit, giving the unit and the thread's best settings so
+ *  far.  A search given an existing checkpoint for the same ciphertext,
+ *  machines and keep() skips the units it records and starts from its
+ *  settings.
+ *  @author Agam Gupta
+ */
+class HillClimb {
+
+    /** A key found by a search: a rotor order, rotor positions, and
+     *  plugboard, with the score of the decryption it gives. */
+    final class Key implements Comparable<Key> {
+
+        /** The key with rotor order number ORDER, rotor positions
+         *  POSITIONS, and plugboard PLUGBOARD (the image of each
+         *  character, or null for none), scoring SCORE. */
+        Key(int order, int[] positions, int[] plugboard, double score) {
+            _order = order;
+            _positions = positions;
+            _plugboard = plugboard;
+            _score = score;
+        }
+
+        /** Return the names of the rotors, starting with the
+         *  reflector. */
+        String[] rotors() {
+            return _orders.get(_order).clone();
+        }
+
+        /** Return the initial positions of the rotors after the
+         *  reflector. */
+        String positions() {
+            char[] chars = new char[_positions.length];
+            for (int i = 0; i < chars.length; i += 1) {
+                chars[i] = _alphabet.toChar(_positions[i]);
+            }
+            return new String(chars);
+        }
+
+        /** Return the plugboard in cycle notation. */
+        String plugboard() {
+            StringBuilder cycles = new StringBuilder();
+            for (int a = 0; _plugboard != null && a < _size; a += 1) {
+                if (_plugboard[a] > a) {
+                    cycles.append(cycles.length() == 0 ? "(" : " (")
+                        .append(_alphabet.toChar(a))
+                        .append(_alphabet.toChar(_plugboard[a]))
+                        .append(')');
+                }
+            }
+            return cycles.toString();
+        }
+
+        /** Return the score of my decryption: its index of coincidence
+         *  before the plugboard is climbed, and its climbing score
+         *  after. */
+        double score() {
+            return _score;
+        }
+
+        /** Order keys from best to worst, breaking ties by rotor order
+         *  and then positions. */
+        @Override
+        public int compareTo(Key other) {
+            return compare(other._score, other._order, other._positions, 0);
+        }
+
+        /** Return a positive value if the key with score SCORE, rotor
+         *  order ORDER and the positions at index FROM of POSITIONS comes
+         *  before me (from best to worst), a negative value if after, and
+         *  0 if it is the same key as mine. */
+        int compare(double score, int order, int[] positions, int from) {
+            if (score != _score) {
+                return Double.compare(score, _score);
+            } else if (order != _order) {
+                return Integer.compare(_order, order);
+            }
+            return Arrays.compare(_positions, 0, _positions.length,
+                                  positions, from,
+                                  from + _positions.length);
+        }
+
+        /** Return me as a setting line, as accepted by Main. */
+        @Override
+        public String toString() {
+            String cycles = plugboard();
+            return "* " + String.join(" ", _orders.get(_order)) + " "
+                + positions() + (cycles.isEmpty() ? "" : " " + cycles);
+        }
+
+        /** Index of my rotor order in _orders. */
+        private final int _order;
+        /** Initial rotor positions, as alphabet indices. */
+        private final int[] _positions;
+        /** Image of each character under my plugboard, or null. */
+        private final int[] _plugboard;
+        /** Score of my decryption. */
+        private final double _score;
+    }
+
+    /** An attack on CIPHERTEXT, encrypted by a machine built to SPEC,
+     *  climbing the plugboard by the scores of MODEL, or by index of
+     *  coincidence if MODEL is null.  Blanks in CIPHERTEXT are
+     *  ignored. */
+    HillClimb(MachineSpec spec, String ciphertext, NgramModel model) {
+        _spec = spec;
+        _alphabet = spec.alphabet();
+        _size = _alphabet.size();
+        _slots = spec.numRotors();
+        _cipher = _alphabet.indices(ciphertext, "ciphertext");
+        if (_cipher.length < 2) {
+            throw error("ciphertext too short to attack");
+        } else if (model != null && model.size() != _size) {
+            throw error("n-gram model is for another alphabet");
+        }
+        _model = model;
+        _orders = spec.rotorOrders();
+        long positions = 1;
+        for (int i = 2; i < _slots; i += 1) {
+            if (positions > Long.MAX_VALUE / _size) {
+                throw error("too many rotor positions to search");
+            }
+            positions *= _size;
+        }
+        _unitPositions = positions;
+        if ((long) _orders.size() * _size > Integer.MAX_VALUE) {
+            throw error("too many rotor orders to search");
+        }
+        _units = _orders.size() * _size;
+    }
+
+    /** Keep the best N settings found by index of coincidence for
+     *  climbing. */
+    void setKeep(int n) {
+        if (n < 1) {
+            throw error("must keep at least one setting");
+        }
+        _keep = n;
+    }
+
+    /** Return the number of settings kept for climbing. */
+    int keep() {
+        return _keep;
+    }
+
+    /** Checkpoint searches in the file PATH, resuming from it if it
+     *  exists, or do not checkpoint if PATH is null. */
+    void setCheckpoint(Path path) {
+        _checkpoint = path;
+    }
+
+    /** Return the number of rotor orders to be tried. */
+    int orders() {
+        return _orders.size();
+    }
+
+    /** Return the number of machine settings (rotor order and positions)
+     *  to be tried. */
+    long settings() {
+        return (long) _units * _unitPositions;
+    }
+
+    /** Return the keys found by climbing from the best settings, best
+     *  first, using the common fork-join pool. */
+    List<Key> search() {
+        return search(ForkJoinPool.commonPool());
+    }
+
+    /** Return the keys found by climbing from the best settings, best
+     *  first, using the threads of POOL. */
+    List<Key> search(ForkJoinPool pool) {
+        Run run = new Run();
+        try {
+            if (_checkpoint != null) {
+                run.resume();
+            }
+            pool.invoke(new Scan(0, _units, run));
+        } finally {
+            run.close();
+        }
+        List<Key> candidates = new ArrayList<>(run._resumed);
+        for (Worker worker : run._workers) {
+            candidates.addAll(worker._best);
+        }
+        Collections.sort(candidates);
+        List<Key> starts = new ArrayList<>();
+        for (Key key : candidates) {
+            if (starts.size() == _keep) {
+                break;
+            } else if (starts.isEmpty()
+                       || starts.get(starts.size() - 1).compareTo(key) != 0) {
+                starts.add(key);
+            }
+        }
+        Key[] climbed = new Key[starts.size()];
+        pool.invoke(new Climb(0, climbed.length, starts, climbed, run));
+        List<Key> result = Arrays.asList(climbed);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Return the decryption of my ciphertext, without blanks, under
+     *  KEY. */
+    String decrypt(Key key) {
+        Machine machine = _spec.newMachine();
+        machine.insertRotors(key.rotors());
+        machine.setRotors(key._positions);
+        machine.setPlugboard(new Permutation(key.plugboard(), _alphabet));
+        char[] text = new char[_cipher.length];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = _alphabet.toChar(machine.convert(_cipher[i]));
+        }
+        return new String(text);
+    }
+
+    /** The state of one search: its workers, the units already done,
+     *  and its checkpoint. */
+    private final class Run {
+
+        /** Return the worker for the current thread. */
+        Worker worker() {
+            return _local.get();
+        }
+
+        /** Read the units done and the best settings found so far from
+         *  the checkpoint file, if it exists, and open it for
+         *  appending. */
+        void resume() {
+            String header = header();
+            try {
+                boolean exists = Files.exists(_checkpoint)
+                    && Files.size(_checkpoint) > 0;
+                if (exists) {
+                    readCheckpoint(header);
+                }
+                _log = Files.newBufferedWriter(_checkpoint,
+                                               StandardOpenOption.CREATE,
+                                               StandardOpenOption.APPEND);
+                if (!exists) {
+                    _log.write(header);
+                    _log.newLine();
+                    _log.flush();
+                }
+            } catch (IOException excp) {
+                throw error("could not use checkpoint %s: %s", _checkpoint,
+                            excp.getMessage());
+            }
+        }
+
+        /** Read the checkpoint file, which must start with HEADER.  Lines
+         *  that cannot be parsed, such as one cut off by a crash, are
+         *  ignored, so that their units are searched again. */
+        private void readCheckpoint(String header) throws IOException {
+            try (BufferedReader in = Files.newBufferedReader(_checkpoint)) {
+                if (!header.equals(in.readLine())) {
+                    throw error("checkpoint %s is for another search",
+                                _checkpoint);
+                }
+                String line;
+                while ((line = in.readLine()) != null) {
+                    try {
+                        parse(line.trim().split("\\s+"));
+                    } catch (RuntimeException excp) {
+                        continue;
+                    }
+                }
+            }
+        }
+
+        /** Record the unit and the settings given by the WORDS of a
+         *  checkpoint line. */
+        private void parse(String[] words) {
+            if (!words[0].equals("unit") || words.length % 3 != 2) {
+                throw error("bad checkpoint line");
+            }
+            int unit = Integer.parseInt(words[1]);
+            List<Key> keys = new ArrayList<>();
+            for (int w = 2; w < words.length; w += 3) {
+                int order = Integer.parseInt(words[w + 1]);
+                String[] digits = words[w + 2].split(",");
+                int[] positions = new int[_slots - 1];
+                if (order < 0 || order >= _orders.size()
+                    || digits.length != positions.length) {
+                    throw error("bad checkpoint setting");
+                }
+                for (int i = 0; i < positions.length; i += 1) {
+                    positions[i] = Integer.parseInt(digits[i]);
+                    if (positions[i] < 0 || positions[i] >= _size) {
+                        throw error("bad checkpoint setting");
+                    }
+                }
+                keys.add(new Key(order, positions, null,
+                                 Double.parseDouble(words[w])));
+            }
+            if (unit < 0 || unit >= _units) {
+                throw error("bad checkpoint unit");
+            }
+            _done.set(unit);
+            _resumed.addAll(keys);
+        }
+
+        /** Return true iff UNIT was done before this search resumed. */
+        boolean done(int unit) {
+            return _done.get(unit);
+        }
+
+        /** Note in the checkpoint, if any, that UNIT is done, and that
+         *  BEST are the best settings of the worker that did it. */
+        void finished(int unit, PriorityQueue<Key> best) {
+            if (_log == null) {
+                return;
+            }
+            StringBuilder line = new StringBuilder("unit ").append(unit);
+            for (Key key : best) {
+                line.append(' ').append(key._score).append(' ')
+                    .append(key._order).append(' ');
+                for (int i = 0; i < key._positions.length; i += 1) {
+                    line.append(i == 0 ? "" : ",").append(key._positions[i]);
+                }
+            }
+            synchronized (this) {
+                try {
+                    _log.write(line.toString());
+                    _log.newLine();
+                    _log.flush();
+                } catch (IOException excp) {
+                    throw error("could not write checkpoint %s: %s",
+                                _checkpoint, excp.getMessage());
+                }
+            }
+        }
+
+        /** Close the checkpoint, if any. */
+        void close() {
+            if (_log != null) {
+                try {
+                    _log.close();
+                } catch (IOException excp) {
+                    throw error("could not write checkpoint %s: %s",
+                                _checkpoint, excp.getMessage());
+                }
+            }
+        }
+
+        /** The workers created for this search. */
+        private final ConcurrentLinkedQueue<Worker> _workers =
+            new ConcurrentLinkedQueue<>();
+        /** The worker of each thread. */
+        private final ThreadLocal<Worker> _local = ThreadLocal.withInitial(
+            () -> {
+                Worker worker = new Worker();
+                _workers.add(worker);
+                return worker;
+            });
+        /** Units recorded as done by the checkpoint. */
+        private final BitSet _done = new BitSet();
+        /** Settings recorded by the checkpoint. */
+        private final List<Key> _resumed = new ArrayList<>();
+        /** Appends to the checkpoint, or null. */
+        private BufferedWriter _log;
+    }
+
+    /** Scans the units in a range, splitting it among threads. */
+    private final class Scan extends RecursiveAction {
+
+        /** A scan of units LO .. HI - 1 for RUN. */
+        Scan(int lo, int hi, Run run) {
+            _lo = lo;
+            _hi = hi;
+            _run = run;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Scan(_lo, mid, _run), new Scan(mid, _hi, _run));
+            } else if (_hi > _lo && !_run.done(_lo)) {
+                Worker worker = _run.worker();
+                worker.scan(_lo);
+                _run.finished(_lo, worker._best);
+            }
+        }
+
+        /** First unit scanned. */
+        private final int _lo;
+        /** End of the units scanned. */
+        private final int _hi;
+        /** The search this is part of. */
+        private final Run _run;
+    }
+
+    /** Climbs from the settings in a range, splitting it among
+     *  threads. */
+    private final class Climb extends RecursiveAction {
+
+        /** A climb from each of STARTS[LO .. HI - 1] for RUN, storing the
+         *  key reached from STARTS[K] in CLIMBED[K]. */
+        Climb(int lo, int hi, List<Key> starts, Key[] climbed, Run run) {
+            _lo = lo;
+            _hi = hi;
+            _starts = starts;
+            _climbed = climbed;
+            _run = run;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Climb(_lo, mid, _starts, _climbed, _run),
+                          new Climb(mid, _hi, _starts, _climbed, _run));
+            } else if (_hi > _lo) {
+                _climbed[_lo] = _run.worker().climb(_starts.get(_lo));
+            }
+        }
+
+        /** First setting climbed from. */
+        private final int _lo;
+        /** End of the settings climbed from. */
+        private final int _hi;
+        /** The settings to climb from. */
+        private final List<Key> _starts;
+        /** Receives the keys reached. */
+        private final Key[] _climbed;
+        /** The search this is part of. */
+        private final Run _run;
+    }
+
+    /** The machine, buffers, and best settings of one thread. */
+    private final class Worker {
+
+        /** A worker with a machine whose plugboard does nothing. */
+        Worker() {
+            _machine = _spec.newMachine();
+            _machine.setPlugboard(new Permutation("", _alphabet));
+            _position = new int[_slots - 1];
+            _positions = new int[BLOCK * (_slots - 1)];
+            _scores = new double[BLOCK];
+            _counts = new int[_size];
+            _plain = new int[_cipher.length];
+            _plugs = new int[_size];
+            _best = new PriorityQueue<>(Math.min(_keep, KEEP) + 1,
+                                        Collections.reverseOrder());
+        }
+
+        /** Decrypt at every setting in unit UNIT, keeping the best in
+         *  _best. */
+        void scan(int unit) {
+            int order = unit / _size, per = _slots - 1;
+            _machine.insertRotors(_orders.get(order));
+            Batch batch = new Batch(_machine, _cipher);
+            Arrays.fill(_position, 0);
+            _position[0] = unit % _size;
+            for (long p = 0; p < _unitPositions; p += BLOCK) {
+                int count = (int) Math.min(BLOCK, _unitPositions - p);
+                for (int k = 0; k < count; k += 1) {
+                    System.arraycopy(_position, 0, _positions, k * per, per);
+                    for (int i = per - 1; i > 0; i -= 1) {
+                        _position[i] += 1;
+                        if (_position[i] < _size) {
+                            break;
+                        }
+                        _position[i] = 0;
+                    }
+                }
+                batch.score(_positions, null, count, null, _scores);
+                for (int k = 0; k < count; k += 1) {
+                    double score = _scores[k];
+                    if (_best.size() < _keep
+                        || _best.peek().compare(score, order, _positions,
+                                                k * per) > 0) {
+                        _best.add(new Key(order,
+                                          Arrays.copyOfRange(_positions,
+                                                             k * per,
+                                                             k * per + per),
+                                          null, score));
+                        if (_best.size() > _keep) {
+                            _best.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        /** Return the key reached by climbing the plugboard from the
+         *  setting of START. */
+        Key climb(Key start) {
+            int n = _cipher.length;
+            if (_subs == null) {
+                _subs = new int[n * _size];
+            }
+            _machine.insertRotors(_orders.get(start._order));
+            _machine.setRotors(start._positions);
+            _machine.substitutions(n, _subs);
+            for (int c = 0; c < _size; c += 1) {
+                _plugs[c] = c;
+            }
+            double best = evaluate();
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int a = 0; a < _size; a += 1) {
+                    for (int b = a + 1; b < _size; b += 1) {
+                        int x = _plugs[a], y = _plugs[b];
+                        if (x == b) {
+                            _plugs[a] = a;
+                            _plugs[b] = b;
+                        } else {
+                            _plugs[x] = x;
+                            _plugs[y] = y;
+                            _plugs[a] = b;
+                            _plugs[b] = a;
+                        }
+                        double score = evaluate();
+                        if (score > best) {
+                            best = score;
+                            improved = true;
+                        } else {
+                            _plugs[a] = x;
+                            _plugs[x] = a;
+                            _plugs[b] = y;
+                            _plugs[y] = b;
+                        }
+                    }
+                }
+            }
+            return new Key(start._order, start._positions, _plugs.clone(),
+                           best);
+        }
+
+        /** Return the score of the decryption under the substitutions
+         *  in _subs and the plugboard in _plugs, leaving it in
+         *  _plain. */
+        private double evaluate() {
+            int size = _size;
+            int[] subs = _subs, plugs = _plugs, cipher = _cipher;
+            for (int i = 0; i < cipher.length; i += 1) {
+                _plain[i] = plugs[subs[i * size + plugs[cipher[i]]]];
+            }
+            return _model == null ? coincidence()
+                : _model.score(_plain, cipher.length);
+        }
+
+        /** Return the index of coincidence of the decryption in
+         *  _plain. */
+        private double coincidence() {
+            Arrays.fill(_counts, 0);
+            for (int i = 0; i < _plain.length; i += 1) {
+                _counts[_plain[i]] += 1;
+            }
+            long pairs = 0;
+            for (int count : _counts) {
+                pairs += (long) count * (count - 1);
+            }
+            return (double) pairs / ((long) _plain.length
+                                     * (_plain.length - 1));
+        }
+
+        /** The machine used to decrypt. */
+        private final Machine _machine;
+        /** Positions of the rotors after the reflector. */
+        private final int[] _position;
+        /** Settings scanned together, as for Batch. */
+        private final int[] _positions;
+        /** Index of coincidence at each setting in _positions. */
+        private final double[] _scores;
+        /** Number of occurrences of each character in _plain. */
+        private final int[] _counts;
+        /** The current decryption. */
+        private final int[] _plain;
+        /** The plugboard being climbed: the image of each character. */
+        private final int[] _plugs;
+        /** The best settings seen, worst first, up to _keep of them. */
+        private final PriorityQueue<Key> _best;
+        /** Substitution by the rotors at each keystroke, allocated on
+         *  the first climb. */
+        private int[] _subs;
+    }
+
+    /** Return the first line of my checkpoint files, which identifies
+     *  the ciphertext, the machines searched, and the number of settings
+     *  kept, which bounds the settings each checkpoint line records. */
+    private String header() {
+        CRC32 crc = new CRC32();
+        for (int c : _cipher) {
+            crc.update(c >>> 8);
+            crc.update(c);
+        }
+        for (String[] order : _orders) {
+            crc.update(String.join(" ", order).getBytes(UTF_8));
+            crc.update('\n');
+        }
+        return String.format("%s %d %s %d %d %d %08x", MAGIC, VERSION,
+                             _alphabet, _slots, _units, _keep,
+                             crc.getValue());
+    }
+
+    /** Number of settings scanned together. */
+    static final int BLOCK = 256;
+
+    /** Default number of settings kept for climbing. */
+    static final int KEEP = 20;
+
+    /** The first word of a checkpoint file. */
+    static final String MAGIC = "enigma-hillclimb";
+
+    /** The version of the checkpoint format written. */
+    static final int VERSION = 1;
+
+    /** The spec of the machines searched. */
+    private final MachineSpec _spec;
+    /** The alphabet of the machines. */
+    private final Alphabet _alphabet;
+    /** The size of _alphabet. */
+    private final int _size;
+    /** Number of rotor slots. */
+    private final int _slots;
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+    /** Scores decryptions while climbing, or null to use the index of
+     *  coincidence. */
+    private final NgramModel _model;
+    /** The rotor orders to try. */
+    private final List<String[]> _orders;
+    /** The number of settings of the slots after slot 1. */
+    private final long _unitPositions;
+    /** The number of units of work. */
+    private final int _units;
+    /** Number of settings kept for climbing. */
+    private int _keep = KEEP;
+    /** The checkpoint file, or null. */
+    private Path _checkpoint;
+}
@@ -0,0 +1,220 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the HillClimb and NgramModel
+ *  classes.
+ *  @author Agam Gupta
+ */
+public class HillClimbTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Alphabet of the machines tested. */
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    /** Text from which the model is built, which is not the text
+     *  encrypted, so that the attack cannot lean on a model of its own
+     *  plaintext. */
+    private static final String TRAINING =
+        "It was the best of times, it was the worst of times, it was the "
+        + "age of wisdom, it was the age of foolishness, it was the epoch "
+        + "of belief, it was the epoch of incredulity, it was the season of "
+        + "Light, it was the season of Darkness, it was the spring of hope, "
+        + "it was the winter of despair, we had everything before us, we "
+        + "had nothing before us, we were all going direct to Heaven, we "
+        + "were all going direct the other way. In short, the period was so "
+        + "far like the present period, that some of its noisiest "
+        + "authorities insisted on its being received, for good or for "
+        + "evil, in the superlative degree of comparison only. There were a "
+        + "king with a large jaw and a queen with a plain face, on the "
+        + "throne of England; there were a king with a large jaw and a "
+        + "queen with a fair face, on the throne of France. In both "
+        + "countries it was clearer than crystal to the lords of the State "
+        + "preserves of loaves and fishes, that things in general were "
+        + "settled for ever. Call me Ishmael. Some years ago, never mind "
+        + "how long precisely, having little or no money in my purse, and "
+        + "nothing particular to interest me on shore, I thought I would "
+        + "sail about a little and see the watery part of the world. It is "
+        + "a way I have of driving off the spleen and regulating the "
+        + "circulation. Whenever I find myself growing grim about the "
+        + "mouth; whenever it is a damp, drizzly November in my soul; "
+        + "whenever I find myself involuntarily pausing before coffin "
+        + "warehouses, and bringing up the rear of every funeral I meet, "
+        + "then, I account it high time to get to sea as soon as I can.";
+
+    /** Text which is encrypted. */
+    private static final String TEXT =
+        "It is a truth universally acknowledged, that a single man in "
+        + "possession of a good fortune, must be in want of a wife. However "
+        + "little known the feelings or views of such a man may be on his "
+        + "first entering a neighbourhood, this truth is so well fixed in "
+        + "the minds of the surrounding families, that he is considered as "
+        + "the rightful property of some one or other of their daughters. "
+        + "My dear Mr. Bennet, said his lady to him one day, have you heard "
+        + "that Netherfield Park is let at last? Mr. Bennet replied that he "
+        + "had not. But it is, returned she; for Mrs. Long has just been "
+        + "here, and she told me all about it. Mr. Bennet made no answer. "
+        + "Do not you want to know who has taken it? cried his wife "
+        + "impatiently. You want to tell me, and I have no objection to "
+        + "hearing it. This was invitation enough. Why, my dear, you must "
+        + "know, Mrs. Long says that Netherfield is taken by a young man of "
+        + "large fortune from the north of England; that he came down on "
+        + "Monday in a chaise and four to see the place, and was so much "
+        + "delighted with it that he agreed with Mr. Morris immediately.";
+
+    /** Return a spec with 3 slots and 2 pawls, reflector B, and rotors I,
+     *  II and III. */
+    private static MachineSpec spec() {
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B",
+            new Permutation(TestUtils.NAVALA.get("B"), AZ)));
+        rotors.add(new MovingRotor("I",
+            new Permutation(TestUtils.NAVALA.get("I"), AZ), "Q"));
+        rotors.add(new MovingRotor("II",
+            new Permutation(TestUtils.NAVALA.get("II"), AZ), "E"));
+        rotors.add(new MovingRotor("III",
+            new Permutation(TestUtils.NAVALA.get("III"), AZ), "V"));
+        return new MachineSpec(AZ, 3, 2, rotors);
+    }
+
+    /** Return the letters of TEXT, in upper case. */
+    private static String plaintext() {
+        return TEXT.toUpperCase().replaceAll("[^A-Z]", "");
+    }
+
+    /** Return the encryption of the plaintext with the rotors B III I at
+     *  positions MF and plugboard (AQ) (HT) (KW). */
+    private static String ciphertext() {
+        Machine mach = spec().newMachine();
+        mach.insertRotors(new String[] { "B", "III", "I" });
+        mach.setRotors("MF");
+        mach.setPlugboard(new Permutation("(AQ) (HT) (KW)", AZ));
+        return mach.convert(plaintext());
+    }
+
+    /** Return an attack on the ciphertext, using a model of
+     *  TRAINING. */
+    private static HillClimb attack() {
+        return new HillClimb(spec(), ciphertext(),
+                             new NgramModel(AZ, TRAINING));
+    }
+
+    /** Assert that the best of KEYS is the key used by ciphertext. */
+    private static void assertFound(HillClimb attack,
+                                    List<HillClimb.Key> keys) {
+        HillClimb.Key best = keys.get(0);
+        assertEquals("* B III I MF (AQ) (HT) (KW)", best.toString());
+        assertEquals(plaintext(), attack.decrypt(best));
+    }
+
+    @Test
+    public void testModel() {
+        NgramModel model = new NgramModel(AZ, "the cat, the hat");
+        assertEquals(26 * 26, model.bigrams().length);
+        assertEquals(26 * 26 * 26, model.trigrams().length);
+        float the = model.trigrams()[(AZ.toInt('T') * 26 + AZ.toInt('H'))
+                                     * 26 + AZ.toInt('E')];
+        float cat = model.trigrams()[(AZ.toInt('C') * 26 + AZ.toInt('A'))
+                                     * 26 + AZ.toInt('T')];
+        float tca = model.trigrams()[(AZ.toInt('T') * 26 + AZ.toInt('C'))
+                                     * 26 + AZ.toInt('A')];
+        assertTrue(the > cat);
+        assertTrue(cat > tca);
+        int[] english = AZ.indices("THEHAT", "text");
+        int[] noise = AZ.indices("TQHZAX", "text");
+        assertTrue(model.score(english, 6) > model.score(noise, 6));
+    }
+
+    @Test
+    public void testFindsKey() {
+        HillClimb attack = attack();
+        assertEquals(6, attack.orders());
+        assertEquals(6 * 26 * 26, attack.settings());
+        assertFound(attack, attack.search());
+    }
+
+    @Test
+    public void testPoolSizes() {
+        HillClimb attack = attack();
+        attack.setKeep(5);
+        List<HillClimb.Key> serial = attack.search(new ForkJoinPool(1));
+        List<HillClimb.Key> parallel = attack.search(new ForkJoinPool(4));
+        assertEquals(5, serial.size());
+        assertFound(attack, serial);
+        assertEquals(serial.toString(), parallel.toString());
+    }
+
+    @Test
+    public void testCheckpoint() throws IOException {
+        Path checkpoint = Files.createTempFile("enigma", ".ckpt");
+        try {
+            Files.delete(checkpoint);
+            HillClimb attack = attack();
+            attack.setCheckpoint(checkpoint);
+            List<HillClimb.Key> first = attack.search();
+            List<String> lines = Files.readAllLines(checkpoint);
+            assertEquals(1 + 6 * 26, lines.size());
+            assertTrue(lines.get(0).startsWith(HillClimb.MAGIC + " "));
+
+            Files.write(checkpoint, lines.subList(0, 1 + 3 * 26));
+            Files.write(checkpoint, List.of("unit 99 0.5 junk"),
+                        StandardOpenOption.APPEND);
+            List<HillClimb.Key> resumed = attack.search();
+            assertEquals(first.toString(), resumed.toString());
+            assertEquals(1 + 6 * 26 + 1,
+                         Files.readAllLines(checkpoint).size());
+
+            HillClimb other =
+                new HillClimb(spec(), ciphertext().substring(1), null);
+            HillClimb keeping = attack();
+            keeping.setKeep(HillClimb.KEEP + 1);
+            for (HillClimb search : List.of(other, keeping)) {
+                search.setCheckpoint(checkpoint);
+                try {
+                    search.search();
+                    fail("resumed from another search's checkpoint");
+                } catch (EnigmaException excp) {
+                    /* Expected. */
+                }
+            }
+        } finally {
+            Files.deleteIfExists(checkpoint);
+        }
+    }
+
+    @Test
+    public void testBadArguments() {
+        try {
+            new HillClimb(spec(), "A", null);
+            fail("accepted a one-character ciphertext");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            new HillClimb(spec(), "ABC",
+                          new NgramModel(new Alphabet("ABC"), "ABC"));
+            fail("accepted a model for another alphabet");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            attack().setKeep(0);
+            fail("accepted keeping no settings");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
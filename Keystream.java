@@ -0,0 +1,131 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The sequence of substitutions a machine performs on successive
+ *  keystrokes from some fixed starting state, precomputed as a table.
+ *  Entry K gives the substitution applied to the (K+1)st character
+ *  converted.  When the period of the machine's stepping is known, the
+ *  table covers one transient prefix and one full period, and later
+ *  positions wrap around into the period.  A Keystream is immutable.
+ *  @author Agam Gupta
+ */
+class Keystream {
+
+    /** A keystream over ALPHABET whose first LENGTH substitutions are
+     *  given by TABLE, where position K maps C to TABLE[K * size + C].
+     *  If PERIOD > 0, position K >= LENGTH is the same as position
+     *  PREFIX + (K - PREFIX) % PERIOD, and LENGTH must equal
+     *  PREFIX + PERIOD. */
+    Keystream(Alphabet alphabet, int[] table, int length,
+              int prefix, int period) {
+        if (length < 0 || (long) length * alphabet.size() > table.length) {
+            throw error("keystream table too small");
+        }
+        _alphabet = alphabet;
+        _size = alphabet.size();
+        _length = length;
+        _prefix = prefix;
+        _period = period;
+        if (_size <= 1 << Byte.SIZE) {
+            _bytes = new byte[length * _size];
+            for (int i = 0; i < _bytes.length; i += 1) {
+                _bytes[i] = (byte) table[i];
+            }
+            _shorts = null;
+        } else {
+            _shorts = new short[length * _size];
+            for (int i = 0; i < _shorts.length; i += 1) {
+                _shorts[i] = (short) table[i];
+            }
+            _bytes = null;
+        }
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of positions I hold explicitly. */
+    int length() {
+        return _length;
+    }
+
+    /** Return the number of positions I cover: all of them
+     *  (Long.MAX_VALUE) if period() > 0, and otherwise length(). */
+    long limit() {
+        return _period > 0 ? Long.MAX_VALUE : _length;
+    }
+
+    /** Return the number of positions before my stepping enters its
+     *  cycle, if period() > 0. */
+    int prefix() {
+        return _prefix;
+    }
+
+    /** Return the period of my stepping, or 0 if it is longer than
+     *  length(), in which case I cover only length() positions. */
+    int period() {
+        return _period;
+    }
+
+    /** Return the result of converting C (an index in my alphabet) as
+     *  the character at POSITION (numbering from 0). */
+    int substitute(long position, int c) {
+        int row = row(position) * _size;
+        if (_bytes != null) {
+            return _bytes[row + c] & 0xff;
+        }
+        return _shorts[row + c] & 0xffff;
+    }
+
+    /** Convert the LEN characters of IN starting at INOFF, skipping
+     *  blanks, as the characters at positions START and following, and
+     *  place the results in OUT starting at OUTOFF, as for
+     *  Machine.convert.  Returns the number of characters placed in
+     *  OUT. */
+    int convert(long start, char[] in, int inOff, int len,
+                char[] out, int outOff) {
+        Alphabet alpha = _alphabet;
+        long position = start;
+        int k = outOff;
+        for (int i = inOff; i < inOff + len; i += 1) {
+            char ch = in[i];
+            if (ch == ' ') {
+                continue;
+            } else if (!alpha.contains(ch)) {
+                throw error("character '%c' not in alphabet", ch);
+            }
+            out[k] = alpha.toChar(substitute(position, alpha.toInt(ch)));
+            position += 1;
+            k += 1;
+        }
+        return k - outOff;
+    }
+
+    /** Return the row of my table holding POSITION. */
+    private int row(long position) {
+        if (position < _length) {
+            return (int) position;
+        } else if (_period == 0) {
+            throw error("keystream covers only %d positions", _length);
+        }
+        return (int) (_prefix + (position - _prefix) % _period);
+    }
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+    /** The size of my alphabet. */
+    private final int _size;
+    /** Number of positions held in my table. */
+    private final int _length;
+    /** Length of the transient before my stepping cycle. */
+    private final int _prefix;
+    /** Period of my stepping, or 0 if unknown. */
+    private final int _period;
+    /** My table, for alphabets of at most 256 characters, else null. */
+    private final byte[] _bytes;
+    /** My table, for larger alphabets, else null. */
+    private final short[] _shorts;
+}
@@ -1,13 +1,27 @@
 package enigma;
 
 
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import static enigma.EnigmaException.*;
 
-/** Class that represents a complete enigma machine.
+/** Class that represents a complete enigma machine.  The wiring is
+ *  described by a MachineSpec, which may be shared; the rotor settings
+ *  and plugboard belong to the Machine alone, so machines built from one
+ *  spec may be used concurrently, each from a single thread.
+ *
+ *  The Rotor objects in the slots describe the machine, but converting
+ *  and stepping use only parallel arrays taken from them when they are
+ *  inserted: the setting, notch table, and conversion tables (or, for
+ *  large alphabets, permutation tables) of each slot.  The hot loops
+ *  thus make no calls on the Rotor hierarchy.  A rotor's own setting is
+ *  brought up to date only when it is fetched with getRotor.
  *  @author Agam Gupta
  */
 class Machine {
@@ -17,11 +31,39 @@ class Machine {
      *  available rotors. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
-        _alphabet = alpha;
-        _rotorList =  allRotors.stream().toList();
-        _numRotor = numRotors;
-        _pawls = pawls;
+        this(new MachineSpec(alpha, numRotors, pawls, allRotors));
+    }
 
+    /** A new Enigma machine built to SPEC, with no rotors inserted. */
+    Machine(MachineSpec spec) {
+        _spec = spec;
+        _alphabet = spec.alphabet();
+        _numRotor = spec.numRotors();
+        _pawls = spec.numPawls();
+    }
+
+    /** A copy of M, with copies of M's rotors at their current settings,
+     *  that can be advanced independently of M.  The copy shares M's
+     *  plugboard and metrics but not its state cache. */
+    private Machine(Machine m) {
+        this(m._spec);
+        _metrics = m._metrics;
+        _selected = m._selected;
+        _plugboard = m._plugboard;
+        for (int i = 0; i < m._actualRotors.size(); i++) {
+            _actualRotors.add(m.getRotor(i).copy());
+        }
+        initSlots();
+    }
+
+    /** Return a copy of me (see Machine(Machine)). */
+    Machine copy() {
+        return new Machine(this);
+    }
+
+    /** Return the spec to which I am built. */
+    MachineSpec spec() {
+        return _spec;
     }
 
     /** Return the number of rotor slots I have. */
@@ -38,26 +80,106 @@ class Machine {
      *  #(numRotors()-1) is the fast Rotor.  Modifying this Rotor has
      *  undefined results. */
     Rotor getRotor(int k) {
-        return _actualRotors.get(k);
+        Rotor rotor = _actualRotors.get(k);
+        if (rotor.setting() != _settings[k]) {
+            rotor.set(_settings[k]);
+        }
+        return rotor;
+    }
+
+    /** Return true iff rotors have been inserted in my slots. */
+    boolean hasRotors() {
+        return !_actualRotors.isEmpty();
     }
 
     Alphabet alphabet() {
         return _alphabet;
     }
 
-    /** Set my rotor slots to the rotors named ROTORS from my set of
-     *  available rotors (ROTORS[0] names the reflector).
-     *  Initially, all rotors are set at their 0 setting. */
+    /** Set my rotor slots to copies of the rotors named ROTORS from my
+     *  set of available rotors (ROTORS[0] names the reflector).  There
+     *  must be one name for each slot, each naming a different available
+     *  rotor.  Initially, all rotors are set at their 0 setting.  If
+     *  the rotors are those already inserted, they are just set to 0. */
     void insertRotors(String[] rotors) {
-        _actualRotors.clear();
+        if (rotors.length != _numRotor) {
+            throw error("%d rotors named for %d slots", rotors.length,
+                        _numRotor);
+        }
+        List<Rotor> selected = new ArrayList<>(rotors.length);
         for (int i = 0; i < rotors.length; i++) {
-            for (int j = 0; j < _rotorList.size(); j++) {
-                if (rotors[i].equals(_rotorList.get(j).name())) {
-                    _actualRotors.add(_rotorList.get(j));
-                }
+            Rotor rotor = _spec.rotor(rotors[i]);
+            if (rotor == null) {
+                throw error("unknown rotor %s", rotors[i]);
+            } else if (selected.contains(rotor)) {
+                throw error("rotor %s used more than once", rotors[i]);
+            }
+            selected.add(rotor);
+        }
+        if (selected.equals(_selected)) {
+            for (int i = 0; i < _slots.length; i++) {
+                _slots[i].set(0);
+                _settings[i] = 0;
             }
+            countNotched();
+            _group = null;
+            return;
+        }
+        _actualRotors.clear();
+        for (Rotor rotor : selected) {
+            _actualRotors.add(rotor.copy());
+        }
+        initSlots();
+        if (_stateCache != null && !selected.equals(_selected)) {
+            _stateCache.clear();
         }
+        _selected = selected;
+    }
 
+    /** Set up my per-slot stepping state from the rotors in
+     *  _actualRotors. */
+    private void initSlots() {
+        int n = _actualRotors.size();
+        _slots = _actualRotors.toArray(new Rotor[n]);
+        _settings = new int[n];
+        _notches = new boolean[n][];
+        _rotates = new boolean[n];
+        int[][] forward = new int[n][];
+        int[][] backward = new int[n][];
+        boolean tables = true;
+        _wirings = new int[n][];
+        _inverses = new int[n][];
+        for (int i = 0; i < n; i++) {
+            _settings[i] = _slots[i].setting();
+            _rotates[i] = _slots[i].rotates();
+            forward[i] = _slots[i].forwardTable();
+            backward[i] = _slots[i].backwardTable();
+            tables &= forward[i] != null;
+            _wirings[i] = _slots[i].permutation().forwardTable();
+            _inverses[i] = _slots[i].permutation().inverseTable();
+            if (i > 0 && _rotates[i - 1]) {
+                _notches[i] = _slots[i].notchTable();
+            } else {
+                _notches[i] = new boolean[_alphabet.size()];
+            }
+        }
+        boolean[] fastNotches = _notches[n - 1];
+        int size = fastNotches.length;
+        _fastDistance = new int[size];
+        for (int i = 2 * size - 1, d = Integer.MAX_VALUE; i >= 0; i--) {
+            if (fastNotches[i % size]) {
+                d = 0;
+            } else if (d != Integer.MAX_VALUE) {
+                d += 1;
+            }
+            if (i < size) {
+                _fastDistance[i] = d;
+            }
+        }
+        _forward = tables ? forward : null;
+        _backward = tables ? backward : null;
+        countNotched();
+        _group = null;
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -67,7 +189,29 @@ class Machine {
 
         for (int i = 1; i < numRotors(); i++) {
             _actualRotors.get(i).set(setting.charAt(i - 1));
+            _settings[i] = _actualRotors.get(i).setting();
         }
+        countNotched();
+        _group = null;
+    }
+
+    /** Set the rotor in each slot K > 0 to SETTING[K - 1], given as an
+     *  index in my alphabet. */
+    void setRotors(int[] setting) {
+        if (setting.length != _numRotor - 1) {
+            throw error("%d settings given for %d rotors", setting.length,
+                        _numRotor - 1);
+        }
+        for (int i = 1; i < _numRotor; i++) {
+            if (setting[i - 1] < 0 || setting[i - 1] >= _alphabet.size()) {
+                throw error("rotor setting out of range");
+            } else if (setting[i - 1] != 0 && _slots[i].reflecting()) {
+                throw error("reflector has only one position");
+            }
+            _settings[i] = setting[i - 1];
+        }
+        countNotched();
+        _group = null;
     }
 
     /** Return the current plugboard's permutation. */
@@ -77,95 +221,564 @@ class Machine {
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
+        if (_stateCache != null && !plugboard.equals(_plugboard)) {
+            _stateCache.clear();
+            _group = null;
+        }
         _plugboard = plugboard;
 
     }
 
+    /** Use CACHE to hold the substitutions performed by the whole
+     *  machine at each combination of rotor settings it reaches, so that
+     *  converting a character in a previously seen state is one table
+     *  lookup.  A null CACHE turns this off.  The cache is cleared
+     *  whenever the rotors or plugboard change. */
+    void setStateCache(StateCache cache) {
+        long states = 1;
+        for (int i = 2; i < _numRotor && cache != null; i++) {
+            if (states > Long.MAX_VALUE / _alphabet.size()) {
+                throw error("too many rotor states to cache");
+            }
+            states *= _alphabet.size();
+        }
+        _stateCache = cache;
+        _group = null;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /** Return my state cache, or null if I have none. */
+    StateCache stateCache() {
+        return _stateCache;
+    }
+
+    /** Record each keystroke in TRACE while it is active (see
+     *  Trace.active), or trace nothing if TRACE is null.  TRACE must be
+     *  for a machine with my alphabet and number of slots, and only the
+     *  thread using me may produce records for it. */
+    void setTrace(Trace trace) {
+        _trace = trace;
+    }
+
+    /** Count the characters I convert in blocks (with convert(char[],
+     *  int, int, char[], int) and convert(CharBuffer, CharBuffer)) and
+     *  the steps of my rotors in METRICS, or in nothing if METRICS is
+     *  null.  The steps of my fast rotor are counted only for the
+     *  characters converted in blocks. */
+    void setMetrics(Metrics metrics) {
+        _metrics = metrics;
+    }
+
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
         advanceRotors();
-        if (Main.verbose()) {
-            System.err.printf("[");
-            for (int r = 1; r < numRotors(); r += 1) {
-                System.err.printf("%c",
-                        alphabet().toChar(getRotor(r).setting()));
-            }
-            System.err.printf("] %c -> ", alphabet().toChar(c));
+        if (_trace != null && _trace.active()) {
+            return traceConvert(c);
+        } else if (_stateCache != null) {
+            return substitution()[c];
+        }
+        return _plugboard.permute(applyRotors(_plugboard.permute(c)));
+    }
+
+    /** Return the conversion of C at the current rotor settings,
+     *  recording it in _trace. */
+    private int traceConvert(int c) {
+        int size = _alphabet.size();
+        int off = _trace.claim();
+        char[] record = _trace.buffer();
+        record[off] = Trace.KEY;
+        for (int r = 1; r < _slots.length; r += 1) {
+            record[off + r] = (char) _settings[r];
         }
-        c = plugboard().permute(c);
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(c));
+        int k = off + _slots.length;
+        record[k++] = (char) c;
+        c = _plugboard.permute(c);
+        record[k++] = (char) c;
+        for (int r = _slots.length - 1; r >= 0; r -= 1) {
+            c = convertSlot(_wirings[r], _settings[r], c);
+            record[k++] = (char) ((c + _settings[r]) % size);
         }
-        c = applyRotors(c);
-        c = plugboard().permute(c);
-        if (Main.verbose()) {
-            System.err.printf("%c%n", alphabet().toChar(c));
+        for (int r = 1; r < _slots.length; r += 1) {
+            c = convertSlot(_inverses[r], _settings[r], c);
+            record[k++] = (char) ((c + _settings[r]) % size);
         }
+        c = _plugboard.permute(c);
+        record[k] = (char) c;
+        _trace.commit();
         return c;
     }
 
-    /** Advance all rotors to their next position. */
+    /** Return the substitution performed by the whole machine at the
+     *  current rotor settings, from my state cache if possible. */
+    private int[] substitution() {
+        int last = _settings.length - 1;
+        if (_group == null) {
+            long key = 0;
+            for (int i = 1; i < last; i++) {
+                key = key * _alphabet.size() + _settings[i];
+            }
+            _group = _stateCache.group(key, _alphabet.size());
+        }
+        int[] result = _group[_settings[last]];
+        if (result == null) {
+            _stateCache.miss();
+            result = new int[_alphabet.size()];
+            substitution(result, 0);
+            _group[_settings[last]] = result;
+        } else {
+            _stateCache.hit();
+        }
+        return result;
+    }
+
+    /** Store the substitution performed by the whole machine at the
+     *  current rotor settings into INTO, starting at index START. */
+    private void substitution(int[] into, int start) {
+        for (int c = 0; c < _alphabet.size(); c++) {
+            into[start + c] =
+                _plugboard.permute(applyRotors(_plugboard.permute(c)));
+        }
+    }
+
+    /** Return the substitutions I will perform on each of the next N
+     *  keystrokes, leaving my state unchanged.  If the stepping of my
+     *  rotors from the current settings repeats within N keystrokes,
+     *  the result holds only the positions up to the end of the first
+     *  period, and covers all positions after that as well.  The table
+     *  of substitutions must fit in an array. */
+    Keystream keystream(int n) {
+        int[] saved = _settings.clone();
+        int[] period = period(n);
+        int length = period[1] > 0 ? period[0] + period[1] : n;
+        long entries = (long) length * _alphabet.size();
+        if (entries > Integer.MAX_VALUE - 8) {
+            throw error("keystream of %d positions is too large", length);
+        }
+        int[] table = new int[(int) entries];
+        for (int k = 0; k < length; k++) {
+            advanceRotors(null);
+            substitution(table, k * _alphabet.size());
+        }
+        restoreSettings(saved);
+        return new Keystream(_alphabet, table, length,
+                             period[0], period[1]);
+    }
+
+    /** Advance me by N keystrokes, storing the substitution performed by
+     *  the whole machine at each of them into INTO, which must hold
+     *  N * alphabet size entries: the substitution at keystroke K
+     *  starts at index K * alphabet size. */
+    void substitutions(int n, int[] into) {
+        for (int k = 0; k < n; k++) {
+            advanceRotors();
+            substitution(into, k * _alphabet.size());
+        }
+    }
+
+    /** Advance my rotors to the settings they would have after K more
+     *  keystrokes, without converting anything.  Runs of keystrokes that
+     *  move only the fast rotor are skipped in one jump, and for very
+     *  large K the stepping period (see period) is used to reduce K.
+     *  The steps are not noted in my metrics, since no keystroke is
+     *  actually made (convertParallel seeks copies of me to the keys
+     *  that other copies convert). */
+    void seek(long k) {
+        if (k > SEEK_PERIOD_THRESHOLD) {
+            int[] period = period(SEEK_PERIOD_LIMIT);
+            if (period[1] > 0 && k > period[0] + period[1]) {
+                k = period[0] + 1 + (k - period[0] - 1) % period[1];
+            }
+        }
+        int last = _settings.length - 1;
+        while (k > 0) {
+            if (_notched > 0) {
+                advanceRotors(null);
+                k -= 1;
+            } else if (!_rotates[last]) {
+                break;
+            } else {
+                long jump = Math.min(k, _fastDistance[_settings[last]]);
+                int next = (int) ((_settings[last] + jump)
+                                  % _notches[last].length);
+                _settings[last] = next;
+                if (_notches[last][next]) {
+                    _notched += 1;
+                }
+                k -= jump;
+            }
+        }
+    }
+
+    /** Convert the LEN characters of IN starting at INOFF as for
+     *  convert(char[], int, int, char[], int), placing the results in
+     *  OUT (which must be a different array) starting at OUTOFF, but
+     *  dividing the work among the threads of the common fork-join pool.
+     *  Each chunk of about PARALLEL_CHUNK characters is converted by a
+     *  copy of me sought to that chunk's position; the results and my
+     *  final state are the same as for the sequential conversion.  If
+     *  IN holds a character not in my alphabet, the error reported and
+     *  my final state are also those of the sequential conversion, which
+     *  stops at the first such character. */
+    int convertParallel(char[] in, int inOff, int len,
+                        char[] out, int outOff) {
+        return convertParallel(in, inOff, len, out, outOff, PARALLEL_CHUNK);
+    }
+
+    /** Convert as for convertParallel(IN, INOFF, LEN, OUT, OUTOFF), using
+     *  chunks of CHUNK > 0 characters. */
+    int convertParallel(char[] in, int inOff, int len,
+                        char[] out, int outOff, int chunk) {
+        int chunks = len / chunk + (len % chunk == 0 ? 0 : 1);
+        Machine[] machines = new Machine[chunks];
+        int[] starts = new int[chunks + 1];
+        Machine cursor = copy();
+        for (int c = 0; c < chunks; c++) {
+            machines[c] = cursor.copy();
+            int start = inOff + c * chunk;
+            int end = start + Math.min(chunk, len - c * chunk);
+            int keys = 0;
+            for (int i = start; i < end; i++) {
+                if (in[i] != ' ') {
+                    keys += 1;
+                }
+            }
+            starts[c + 1] = starts[c] + keys;
+            cursor.seek(keys);
+        }
+        EnigmaException[] errors = new EnigmaException[chunks];
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            try {
+                machines[c].convert(in, inOff + c * chunk,
+                                    Math.min(chunk, len - c * chunk),
+                                    out, outOff + starts[c]);
+            } catch (EnigmaException excp) {
+                errors[c] = excp;
+            }
+        });
+        for (int c = 0; c < chunks; c++) {
+            if (errors[c] != null) {
+                restoreSettings(machines[c]._settings);
+                throw errors[c];
+            }
+        }
+        restoreSettings(cursor._settings);
+        return starts[chunks];
+    }
+
+    /** Return the period of the sequence of rotor settings my next
+     *  keystrokes produce, as an array { PREFIX, PERIOD }, where the
+     *  settings after keystroke K + PERIOD are the same as after
+     *  keystroke K for all K > PREFIX.  Returns { 0, 0 } if PREFIX +
+     *  PERIOD would exceed LIMIT.  Uses Brent's cycle-finding algorithm
+     *  and leaves my state unchanged. */
+    int[] period(int limit) {
+        int[] tortoise = _settings.clone();
+        nextSettings(tortoise);
+        int[] start = tortoise.clone();
+        int[] hare = tortoise.clone();
+        nextSettings(hare);
+        int power = 1, period = 1;
+        long steps = 1;
+        while (!Arrays.equals(tortoise, hare)) {
+            if (steps > 6L * limit) {
+                return new int[] { 0, 0 };
+            } else if (power == period) {
+                System.arraycopy(hare, 0, tortoise, 0, hare.length);
+                power *= 2;
+                period = 0;
+            }
+            nextSettings(hare);
+            period += 1;
+            steps += 1;
+        }
+        System.arraycopy(start, 0, tortoise, 0, start.length);
+        System.arraycopy(start, 0, hare, 0, start.length);
+        for (int i = 0; i < period; i++) {
+            nextSettings(hare);
+        }
+        int prefix = 0;
+        while (!Arrays.equals(tortoise, hare)) {
+            nextSettings(tortoise);
+            nextSettings(hare);
+            prefix += 1;
+        }
+        if ((long) prefix + period > limit) {
+            return new int[] { 0, 0 };
+        }
+        return new int[] { prefix, period };
+    }
+
+    /** Replace SETTINGS, a vector of settings for my slots, by the
+     *  settings after one keystroke, following the same rules as
+     *  advanceRotors. */
+    private void nextSettings(int[] settings) {
+        int last = settings.length - 1;
+        boolean rightAtNotch = _notches[last][settings[last]];
+        if (_rotates[last]) {
+            settings[last] = (settings[last] + 1) % _alphabet.size();
+        }
+        for (int j = last - 1; j > 0; j--) {
+            boolean atNotch = _notches[j][settings[j]];
+            if (_rotates[j]
+                && (rightAtNotch || (atNotch && _rotates[j - 1]))) {
+                settings[j] = (settings[j] + 1) % _alphabet.size();
+            }
+            rightAtNotch = atNotch;
+        }
+    }
+
+    /** Set the rotor in each slot to the corresponding entry of
+     *  SETTINGS. */
+    private void restoreSettings(int[] settings) {
+        System.arraycopy(settings, 1, _settings, 1, settings.length - 1);
+        countNotched();
+        _group = null;
+    }
+
+    /** Advance all rotors to their next position.  The fast rotor always
+     *  moves; any other rotating rotor moves when the rotor to its right
+     *  was at a notch, or when it is itself at a notch and the rotor to
+     *  its left rotates (double stepping).  Notches are those before any
+     *  rotor moves.  Steps are noted in my metrics, if any. */
     private void advanceRotors() {
-        ArrayList<Boolean> originalBooleans = new ArrayList<Boolean>();
-        for (int i = 0; i < _actualRotors.size(); i++) {
-            originalBooleans.add(_actualRotors.get(i).atNotch());
+        advanceRotors(_metrics);
+    }
+
+    /** Advance all rotors as for advanceRotors(), noting the steps in
+     *  METRICS, or nowhere if METRICS is null. */
+    private void advanceRotors(Metrics metrics) {
+        int last = _settings.length - 1;
+        if (_notched == 0) {
+            if (_rotates[last]) {
+                step(last);
+            }
+            return;
+        }
+        boolean rightAtNotch = _notches[last][_settings[last]];
+        if (_rotates[last]) {
+            step(last);
+        }
+        for (int j = last - 1; j > 0; j--) {
+            boolean atNotch = _notches[j][_settings[j]];
+            if (_rotates[j]
+                && (rightAtNotch || (atNotch && _rotates[j - 1]))) {
+                step(j);
+                _group = null;
+                if (metrics != null) {
+                    metrics.stepped(!rightAtNotch);
+                }
+            }
+            rightAtNotch = atNotch;
         }
-        _actualRotors.get(_actualRotors.size() - 1).advance();
-        for (int j = _actualRotors.size() - 2; j > 0; j--) {
-            if ((originalBooleans.get(j + 1) && _actualRotors.get(j).rotates())
-                    || (originalBooleans.get(j)
-                    && _actualRotors.get(j - 1).rotates()
-                            && _actualRotors.get(j).rotates())) {
-                _actualRotors.get(j).advance();
+    }
+
+    /** Set _notched to the number of rotors past the reflector that are
+     *  at a notch. */
+    private void countNotched() {
+        _notched = 0;
+        for (int i = 1; i < _settings.length; i++) {
+            if (_notches[i][_settings[i]]) {
+                _notched += 1;
             }
         }
     }
 
+    /** Advance the rotor in slot K by one position. */
+    private void step(int k) {
+        boolean[] notches = _notches[k];
+        int next = _settings[k] + 1;
+        if (next == notches.length) {
+            next = 0;
+        }
+        if (notches[_settings[k]]) {
+            _notched -= 1;
+        }
+        if (notches[next]) {
+            _notched += 1;
+        }
+        _settings[k] = next;
+    }
+
     /** Return the result of applying the rotors to the character C (as an
      *  index in the range 0..alphabet size - 1). */
     private int applyRotors(int c) {
-
-        for (int i = _actualRotors.size() - 1; i >= 0; i--) {
-            c = _actualRotors.get(i).convertForward(c);
+        int[] settings = _settings;
+        int[][] forward = _forward;
+        if (forward != null) {
+            int size = _alphabet.size();
+            for (int i = forward.length - 1; i >= 0; i--) {
+                c = forward[i][settings[i] * size + c];
+            }
+            int[][] backward = _backward;
+            for (int i = 1; i < backward.length; i++) {
+                c = backward[i][settings[i] * size + c];
+            }
+            return c;
         }
-        for (int i = 1; i < _actualRotors.size(); i++) {
-            c = _actualRotors.get(i).convertBackward(c);
+        for (int i = settings.length - 1; i >= 0; i--) {
+            c = convertSlot(_wirings[i], settings[i], c);
+        }
+        for (int i = 1; i < settings.length; i++) {
+            c = convertSlot(_inverses[i], settings[i], c);
         }
-
         return c;
+    }
 
+    /** Return the result of passing C through a rotor with the wiring
+     *  (or inverse wiring) WIRING at setting SETTING. */
+    static int convertSlot(int[] wiring, int setting, int c) {
+        int size = wiring.length;
+        c += setting;
+        if (c >= size) {
+            c -= size;
+        }
+        c = wiring[c] - setting;
+        return c < 0 ? c + size : c;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String result = "";
-        for (int i = 0; i < msg.length(); i++) {
-            if (msg.charAt(i) == ' ') {
+        char[] chars = msg.toCharArray();
+        int len = convert(chars, 0, chars.length, chars, 0);
+        return new String(chars, 0, len);
+    }
+
+    /** Convert the LEN characters of IN starting at INOFF, skipping
+     *  blanks, and place the results in OUT starting at OUTOFF, updating
+     *  the state of the rotors accordingly.  Returns the number of
+     *  characters placed in OUT.  IN and OUT may be the same array
+     *  provided OUTOFF <= INOFF. */
+    int convert(char[] in, int inOff, int len, char[] out, int outOff) {
+        Alphabet alpha = _alphabet;
+        int k = outOff;
+        for (int i = inOff; i < inOff + len; i++) {
+            char ch = in[i];
+            if (ch == ' ') {
                 continue;
-            } else if (!alphabet().contains(msg.charAt(i))) {
-                throw new EnigmaException("bruh");
-            } else {
-                result += alphabet()
-                        .toChar(convert(alphabet().toInt(msg.charAt(i))));
+            } else if (!alpha.contains(ch)) {
+                throw error("character '%c' not in alphabet", ch);
             }
+            out[k] = alpha.toChar(convert(alpha.toInt(ch)));
+            k += 1;
+        }
+        if (_metrics != null) {
+            noteConverted(k - outOff);
+        }
+        return k - outOff;
+    }
 
+    /** Convert the remaining characters of IN, skipping blanks, and
+     *  put the results into OUT, advancing the positions of both and
+     *  updating the state of the rotors accordingly.  Returns the number
+     *  of characters put into OUT, which must have room for
+     *  IN.remaining() characters. */
+    int convert(CharBuffer in, CharBuffer out) {
+        int len = in.remaining();
+        if (out.remaining() < len) {
+            throw new BufferOverflowException();
+        }
+        int count;
+        if (in.hasArray() && out.hasArray()) {
+            count = convert(in.array(), in.arrayOffset() + in.position(),
+                            len, out.array(),
+                            out.arrayOffset() + out.position());
+            in.position(in.limit());
+            out.position(out.position() + count);
+        } else {
+            count = 0;
+            while (in.hasRemaining()) {
+                char ch = in.get();
+                if (ch == ' ') {
+                    continue;
+                } else if (!_alphabet.contains(ch)) {
+                    throw error("character '%c' not in alphabet", ch);
+                }
+                out.put(_alphabet.toChar(convert(_alphabet.toInt(ch))));
+                count += 1;
+            }
+            if (_metrics != null) {
+                noteConverted(count);
+            }
+        }
+        return count;
+    }
+
+    /** Note in _metrics, which must not be null, that I converted N
+     *  characters in a block, and so stepped my fast rotor N times if it
+     *  rotates at all.  Its steps are counted here, a block at a time,
+     *  rather than in advanceRotors, which steps it on every keystroke. */
+    private void noteConverted(int n) {
+        _metrics.converted(n);
+        if (_rotates[_rotates.length - 1]) {
+            _metrics.fastStepped(n);
         }
-        return result;
     }
 
+    /** Seeks farther than this many keystrokes first look for a period
+     *  in the stepping of the rotors. */
+    static final long SEEK_PERIOD_THRESHOLD = 1L << 24;
+
+    /** Longest stepping period looked for by seek. */
+    static final int SEEK_PERIOD_LIMIT = 1 << 22;
+
+    /** Default number of characters converted by each task in
+     *  convertParallel. */
+    static final int PARALLEL_CHUNK = 1 << 16;
+
+    /** The spec to which I am built. */
+    private final MachineSpec _spec;
     /** Common alphabet of my rotors. */
-    private Alphabet _alphabet;
-    /** List of all rotors. */
-    private List<Rotor> _rotorList;
+    private final Alphabet _alphabet;
     /** number of rotors. */
-    private int _numRotor;
+    private final int _numRotor;
     /** number of pawls. */
-    private int _pawls;
+    private final int _pawls;
+    /** The rotors from my spec's catalog of which my rotors are copies. */
+    private List<Rotor> _selected;
     /** permutation for plugboard. */
     private Permutation _plugboard;
     /** rotors i am actually using. */
     private ArrayList<Rotor> _actualRotors = new ArrayList<>();
+    /** The rotors in my slots, as an array. */
+    private Rotor[] _slots;
+    /** Current setting of the rotor in each slot. */
+    private int[] _settings;
+    /** Notch table (see Rotor.notchTable) of the rotor in each slot, or
+     *  a table with no notches if the rotor to its left cannot move, since
+     *  its notches then have no effect. */
+    private boolean[][] _notches;
+    /** True for each slot whose rotor rotates. */
+    private boolean[] _rotates;
+    /** Forward conversion table (see Rotor.forwardTable) of the rotor in
+     *  each slot, or null if my alphabet is too large for tables. */
+    private int[][] _forward;
+    /** Backward conversion table of the rotor in each slot, or null if
+     *  _forward is null. */
+    private int[][] _backward;
+    /** Permutation table (see Permutation.forwardTable) of the rotor in
+     *  each slot, used when there are no conversion tables. */
+    private int[][] _wirings;
+    /** Inverse permutation table of the rotor in each slot. */
+    private int[][] _inverses;
+    /** Number of slots other than the reflector's whose rotor is at a
+     *  notch.  When zero, only the fast rotor can move. */
+    private int _notched;
+    /** Cache of whole-machine substitutions, or null. */
+    private StateCache _stateCache;
+    /** Where I count my work, or null. */
+    private Metrics _metrics;
+    /** Where I record my keystrokes, or null. */
+    private Trace _trace;
+    /** Number of keystrokes from each setting of the fast rotor until it
+     *  is at a notch that can move another rotor, or Integer.MAX_VALUE
+     *  if there is no such notch. */
+    private int[] _fastDistance;
+    /** Group of substitutions in _stateCache for the current settings of
+     *  all but the fast rotor, or null if not yet looked up. */
+    private int[][] _group;
 }
@@ -0,0 +1,127 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** The fixed description of an Enigma machine: its alphabet, its numbers
+ *  of slots and pawls, and its catalog of available rotors.  A spec is
+ *  never modified after construction and may be shared among threads;
+ *  each thread converts with its own Machine from newMachine(), whose
+ *  rotor settings and plugboard are its own.
+ *  @author Agam Gupta
+ */
+class MachineSpec {
+
+    /** A spec for machines with alphabet ALPHA, 1 < NUMROTORS rotor
+     *  slots, and 0 <= PAWLS < NUMROTORS pawls.  ALLROTORS contains all
+     *  the available rotors, which must have distinct names and must not
+     *  be modified or used directly afterwards. */
+    MachineSpec(Alphabet alpha, int numRotors, int pawls,
+                Collection<Rotor> allRotors) {
+        _alphabet = alpha;
+        _rotors = List.copyOf(allRotors);
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _index = new HashMap<>(2 * _rotors.size());
+        for (Rotor rotor : _rotors) {
+            if (_index.put(rotor.name(), rotor) != null) {
+                throw error("duplicate rotor name %s", rotor.name());
+            }
+        }
+    }
+
+    /** Return a new machine built to this spec, with no rotors inserted
+     *  yet. */
+    Machine newMachine() {
+        return new Machine(this);
+    }
+
+    /** Return a spec like me whose rotors have the table limit LIMIT
+     *  (see Rotor.withTableLimit), so that its machines convert with
+     *  rotor tables only for alphabets of at most LIMIT characters. */
+    MachineSpec withTableLimit(int limit) {
+        List<Rotor> rotors = new ArrayList<>(_rotors.size());
+        for (Rotor rotor : _rotors) {
+            rotors.add(rotor.withTableLimit(limit));
+        }
+        return new MachineSpec(_alphabet, _numRotors, _pawls, rotors);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots of my machines. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls of my machines. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return my catalog of available rotors.  These rotors serve only
+     *  as templates: machines insert copies of them (see Rotor.copy). */
+    List<Rotor> rotors() {
+        return _rotors;
+    }
+
+    /** Return the rotor in my catalog named NAME, or null if there is
+     *  none. */
+    Rotor rotor(String name) {
+        return _index.get(name);
+    }
+
+    /** Return every rotor order my machines accept: the names of the
+     *  rotors for each slot, with a reflector in slot 0, non-moving rotors
+     *  in the slots without pawls, and moving rotors in the slots with
+     *  pawls, no rotor appearing twice.  Orders are listed by the catalog
+     *  positions of their rotors, slot 0 most significant. */
+    List<String[]> rotorOrders() {
+        List<String[]> orders = new ArrayList<>();
+        addOrders(new ArrayList<>(), orders);
+        return orders;
+    }
+
+    /** Add to ORDERS every rotor order that extends PREFIX, a list of the
+     *  rotors for the first slots. */
+    private void addOrders(List<Rotor> prefix, List<String[]> orders) {
+        int slot = prefix.size();
+        if (slot == _numRotors) {
+            String[] names = new String[slot];
+            for (int i = 0; i < slot; i += 1) {
+                names[i] = prefix.get(i).name();
+            }
+            orders.add(names);
+            return;
+        }
+        for (Rotor rotor : _rotors) {
+            boolean fits = slot == 0 ? rotor.reflecting()
+                : slot < _numRotors - _pawls
+                ? !rotor.rotates() && !rotor.reflecting()
+                : rotor.rotates();
+            if (fits && !prefix.contains(rotor)) {
+                prefix.add(rotor);
+                addOrders(prefix, orders);
+                prefix.remove(slot);
+            }
+        }
+    }
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+    /** All available rotors. */
+    private final List<Rotor> _rotors;
+    /** The available rotors, indexed by name. */
+    private final HashMap<String, Rotor> _index;
+    /** Number of rotor slots. */
+    private final int _numRotors;
+    /** Number of pawls. */
+    private final int _pawls;
+}
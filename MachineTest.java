@@ -1,6 +1,21 @@
 package enigma;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
 import org.junit.Test;
 import org.junit.Rule;
 import org.junit.rules.Timeout;
@@ -48,6 +63,91 @@ public class MachineTest {
         return mach;
     }
 
+    /** Characters from which random alphabets are drawn. */
+    private static final String SYMBOLS =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    /** Return a random permutation of ALPHA in cycle notation, using
+     *  only cycles of length 2 iff PAIRS, drawing on RANDOM. */
+    static String randomCycles(Alphabet alpha, boolean pairs,
+                               Random random) {
+        List<Character> chars = new ArrayList<>();
+        for (int i = 0; i < alpha.size(); i += 1) {
+            chars.add(alpha.toChar(i));
+        }
+        Collections.shuffle(chars, random);
+        StringBuilder cycles = new StringBuilder();
+        for (int i = 0; i < chars.size(); ) {
+            int len = pairs ? 2 : 1 + random.nextInt(chars.size() - i);
+            if (i + len > chars.size()) {
+                break;
+            }
+            cycles.append('(');
+            for (int j = i; j < i + len; j += 1) {
+                cycles.append(chars.get(j));
+            }
+            cycles.append(") ");
+            i += len;
+        }
+        return cycles.toString();
+    }
+
+    /** Return a random string of LEN characters from ALPHA, with
+     *  occasional blanks, drawing on RANDOM. */
+    static String randomText(Alphabet alpha, int len, Random random) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < len; i += 1) {
+            text.append(random.nextInt(8) == 0 ? ' '
+                        : alpha.toChar(random.nextInt(alpha.size())));
+        }
+        return text.toString();
+    }
+
+    /** Return a machine with a random alphabet, rotors, notches,
+     *  settings and plugboard, drawing on RANDOM. */
+    static Machine randomMachine(Random random) {
+        Alphabet alpha =
+            new Alphabet(SYMBOLS.substring(0, 2 + random.nextInt(30)));
+        int numRotors = 2 + random.nextInt(5);
+        int pawls = 1 + random.nextInt(numRotors - 1);
+        List<Rotor> rotors = new ArrayList<>();
+        String[] names = new String[numRotors];
+        for (int i = 0; i < numRotors; i += 1) {
+            names[i] = "R" + i;
+            Permutation perm =
+                new Permutation(randomCycles(alpha, i == 0, random), alpha);
+            if (i == 0) {
+                rotors.add(new Reflector(names[i], perm));
+            } else if (i < numRotors - pawls) {
+                rotors.add(new FixedRotor(names[i], perm));
+            } else {
+                String notches = "";
+                for (int k = random.nextInt(4); k > 0; k -= 1) {
+                    char c = alpha.toChar(random.nextInt(alpha.size()));
+                    if (notches.indexOf(c) < 0) {
+                        notches += c;
+                    }
+                }
+                rotors.add(new MovingRotor(names[i], perm, notches));
+            }
+        }
+        Machine mach = new Machine(alpha, numRotors, pawls, rotors);
+        mach.insertRotors(names);
+        String setting = randomText(alpha, numRotors - 1, random);
+        mach.setRotors(setting.replace(' ', alpha.toChar(0)));
+        mach.setPlugboard(
+            new Permutation(randomCycles(alpha, true, random), alpha));
+        return mach;
+    }
+
+    /** Assert that A and B have their rotors at the same settings. */
+    private static void assertSameSettings(Machine a, Machine b) {
+        for (int i = 0; i < a.numRotors(); i += 1) {
+            assertEquals("setting of rotor " + i,
+                         a.getRotor(i).setting(), b.getRotor(i).setting());
+        }
+    }
+
     @Test
     public void testInsertRotors() {
         Machine mach = new Machine(AZ, 5, 3, ROTORS.values());
@@ -55,11 +155,107 @@ public class MachineTest {
         assertEquals(5, mach.numRotors());
         assertEquals(3, mach.numPawls());
         assertEquals(AZ, mach.alphabet());
-        assertEquals(ROTORS.get("B"), mach.getRotor(0));
-        assertEquals(ROTORS.get("Beta"), mach.getRotor(1));
-        assertEquals(ROTORS.get("III"), mach.getRotor(2));
-        assertEquals(ROTORS.get("IV"), mach.getRotor(3));
-        assertEquals(ROTORS.get("I"), mach.getRotor(4));
+        for (int i = 0; i < ROTORS1.length; i += 1) {
+            assertEquals(ROTORS1[i], mach.getRotor(i).name());
+            assertNotSame(ROTORS.get(ROTORS1[i]), mach.getRotor(i));
+        }
+    }
+
+    @Test
+    public void testInsertRotorsErrors() {
+        Machine mach = new Machine(AZ, 5, 3, ROTORS.values());
+        String[][] bad = {
+            { "B", "Beta", "III", "IV" },
+            { "B", "Beta", "III", "IV", "X" },
+            { "B", "Beta", "III", "IV", "III" },
+        };
+        for (String[] names : bad) {
+            try {
+                mach.insertRotors(names);
+                fail("accepted " + String.join(" ", names));
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+        List<Rotor> twice = new ArrayList<>(ROTORS.values());
+        twice.add(new FixedRotor("Beta", twice.get(0).permutation()));
+        try {
+            new MachineSpec(AZ, 5, 3, twice);
+            fail("accepted duplicate rotor names");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testSettingCache() {
+        assertEquals("* B Beta (AB)",
+                     SettingCache.normalize(" \t*  B\tBeta   (AB) "));
+        SettingCache cache = new SettingCache(2);
+        Permutation plugboard =
+            new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ);
+        cache.put("a", new SettingCache.Setting(ROTORS1, SETTING1,
+                                                plugboard));
+        cache.put("b", null);
+        assertNotNull(cache.get("a"));
+        cache.put("c", null);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertEquals(2, cache.hits());
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.misses());
+
+        Machine mach = mach1();
+        mach.setPlugboard(plugboard);
+        String text = "FROMHISSHOULDERHIAWATHA";
+        String expected = mach.convert(text);
+        cache.get("a").applyTo(mach);
+        assertEquals(expected, mach.convert(text));
+    }
+
+    @Test
+    public void testSettingKeystream() throws IOException {
+        String[] settings = { "* B Beta III IV I AXLE (HQ) (EX)",
+                              "* B Beta I III IV QZZA", "* B Beta IV I III "
+                              + "ZZZZ (AB) (CD) (YZ)" };
+        SettingCache cache = new SettingCache(settings.length);
+        Machine mach = new Machine(AZ, 5, 3, ROTORS.values());
+        for (int use = 0; use < SettingCache.KEYSTREAM_USES; use += 1) {
+            assertNull(Main.setUp(mach, cache, settings[0], 1, 1));
+        }
+        Keystream stream = Main.setUp(mach, cache, settings[0], 1, 1);
+        assertNotNull(stream);
+        assertSame(stream, Main.setUp(mach, cache, settings[0], 1, 1));
+        String text = randomText(AZ, (int) Math.min(stream.limit(), 500),
+                                 new Random(7));
+        char[] out = new char[text.length()];
+        int n = stream.convert(0, text.toCharArray(), 0, text.length(),
+                               out, 0);
+        assertEquals(mach.convert(text), new String(out, 0, n));
+
+        Random random = new Random(8);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 8 * SettingCache.KEYSTREAM_USES; i += 1) {
+            input.append(settings[random.nextInt(settings.length)])
+                .append('\n');
+            for (int lines = random.nextInt(3); lines >= 0; lines -= 1) {
+                input.append(randomText(AZ, random.nextInt(300), random))
+                    .append('\n');
+            }
+        }
+        StringWriter expected = new StringWriter();
+        SettingCache plain = new SettingCache(settings.length);
+        new MessageProcessor(new StringReader(input.toString()), expected)
+            .process(mach, (line, row, column) -> {
+                    Main.setUp(mach, plain, line, row, column);
+                    return null;
+                });
+        StringWriter actual = new StringWriter();
+        SettingCache streams = new SettingCache(settings.length);
+        new MessageProcessor(new StringReader(input.toString()), actual)
+            .process(mach, (line, row, column) ->
+                     Main.setUp(mach, streams, line, row, column));
+        assertEquals(expected.toString(), actual.toString());
     }
 
     @Test
@@ -76,4 +272,371 @@ public class MachineTest {
         assertEquals("QVPQSOKOILPUBKJZPISFXDW",
                 mach.convert("FROMHISSHOULDERHIAWATHA"));
     }
+
+    @Test
+    public void testConvertBulk() {
+        String expected = "QVPQSOKOILPUBKJZPISFXDW";
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        char[] in = "..FROM HIS SHOULDER HIAWATHA".toCharArray();
+        char[] out = new char[30];
+        assertEquals(23, mach.convert(in, 2, in.length - 2, out, 1));
+        assertEquals(expected, new String(out, 1, 23));
+
+        mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        CharBuffer src = CharBuffer.wrap("FROMHIS SHOULDER HIAWATHA");
+        CharBuffer dst =
+            ByteBuffer.allocateDirect(60).asCharBuffer();
+        assertEquals(23, mach.convert(src, dst));
+        assertFalse(src.hasRemaining());
+        dst.flip();
+        assertEquals(expected, dst.toString());
+    }
+
+    @Test
+    public void testStateCache() {
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        String expected = mach.convert(msg);
+        StateCache cache = new StateCache(16);
+        mach.setStateCache(cache);
+        for (int i = 0; i < 3; i += 1) {
+            mach.insertRotors(ROTORS1);
+            mach.setRotors(SETTING1);
+            mach.setPlugboard(
+                new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+            assertEquals(expected, mach.convert(msg));
+        }
+        assertEquals(3 * msg.length(), cache.hits() + cache.misses());
+
+        cache = new StateCache(1000);
+        mach.setStateCache(cache);
+        for (int i = 0; i < 3; i += 1) {
+            mach.setRotors(SETTING1);
+            assertEquals(expected, mach.convert(msg));
+        }
+        assertEquals(msg.length(), cache.misses());
+        assertEquals(2 * msg.length(), cache.hits());
+    }
+
+    @Test
+    public void testKeystream() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        Keystream stream = mach.keystream(20000);
+        assertEquals(26 * 25 * 26, stream.period());
+        assertEquals(stream.prefix() + stream.period(), stream.length());
+
+        char[] msg = new char[50000];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = (char) ('A' + (i * 7 + i / 26) % 26);
+        }
+        char[] expected = new char[msg.length];
+        char[] actual = new char[msg.length];
+        stream.convert(0, msg, 0, msg.length, actual, 0);
+        mach.convert(msg, 0, msg.length, expected, 0);
+        assertArrayEquals(expected, actual);
+
+        mach = mach1();
+        mach.setPlugboard(new Permutation("", AZ));
+        Keystream shorter = mach.keystream(100);
+        assertEquals(0, shorter.period());
+        assertEquals(100, shorter.length());
+        assertEquals(100, shorter.limit());
+        assertEquals(Long.MAX_VALUE, stream.limit());
+        try {
+            new Keystream(AZ, new int[26 * 99], 100, 0, 0);
+            fail("keystream built from too small a table");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testSeekMatchesStepping() {
+        Random random = new Random(61);
+        for (int trial = 0; trial < 200; trial += 1) {
+            Machine stepped = randomMachine(random);
+            Machine sought = stepped.copy();
+            String text = randomText(stepped.alphabet(),
+                                     random.nextInt(5000), random);
+            int keys = stepped.convert(text).length();
+            sought.seek(keys);
+            assertSameSettings(stepped, sought);
+            String more = randomText(stepped.alphabet(), 50, random);
+            assertEquals(stepped.convert(more), sought.convert(more));
+        }
+    }
+
+    @Test
+    public void testSeekUsesPeriod() {
+        Random random = new Random(62);
+        for (int trial = 0; trial < 20; trial += 1) {
+            Machine mach = randomMachine(random);
+            int[] period = mach.period(1 << 20);
+            if (period[1] == 0) {
+                continue;
+            }
+            long near = period[0] + 1 + random.nextInt(period[1]);
+            Machine far = mach.copy();
+            mach.seek(near);
+            far.seek(near + period[1] * (Machine.SEEK_PERIOD_THRESHOLD
+                                         / period[1] + 3));
+            assertSameSettings(mach, far);
+        }
+    }
+
+    @Test
+    public void testConvertParallel() {
+        Random random = new Random(63);
+        for (int trial = 0; trial < 100; trial += 1) {
+            Machine sequential = randomMachine(random);
+            Machine parallel = sequential.copy();
+            char[] text = randomText(sequential.alphabet(),
+                                     random.nextInt(20000), random)
+                .toCharArray();
+            char[] expected = new char[text.length];
+            char[] actual = new char[text.length];
+            int chunk = 1 + random.nextInt(3000);
+            assertEquals(sequential.convert(text, 0, text.length,
+                                            expected, 0),
+                         parallel.convertParallel(text, 0, text.length,
+                                                  actual, 0, chunk));
+            assertArrayEquals(expected, actual);
+            assertSameSettings(sequential, parallel);
+        }
+    }
+
+    @Test
+    public void testConvertParallelLargeChunk() {
+        Random random = new Random(65);
+        Machine sequential = randomMachine(random);
+        Machine parallel = sequential.copy();
+        char[] text = randomText(sequential.alphabet(), 5000, random)
+            .toCharArray();
+        char[] expected = new char[text.length];
+        char[] actual = new char[text.length];
+        assertEquals(sequential.convert(text, 0, text.length, expected, 0),
+                     parallel.convertParallel(text, 0, text.length,
+                                              actual, 0, Integer.MAX_VALUE));
+        assertArrayEquals(expected, actual);
+        assertSameSettings(sequential, parallel);
+    }
+
+    @Test
+    public void testConvertParallelError() {
+        Random random = new Random(64);
+        for (int trial = 0; trial < 50; trial += 1) {
+            Machine sequential = randomMachine(random);
+            Machine parallel = sequential.copy();
+            char[] text = randomText(sequential.alphabet(),
+                                     1 + random.nextInt(20000), random)
+                .toCharArray();
+            text[random.nextInt(text.length)] = '*';
+            int chunk = 1 + random.nextInt(3000);
+            char[] out = new char[text.length];
+            String expected = null, actual = null;
+            try {
+                sequential.convert(text, 0, text.length, out, 0);
+            } catch (EnigmaException excp) {
+                expected = excp.getMessage();
+            }
+            try {
+                parallel.convertParallel(text, 0, text.length, out, 0,
+                                         chunk);
+            } catch (EnigmaException excp) {
+                actual = excp.getMessage();
+            }
+            assertNotNull(expected);
+            assertEquals(expected, actual);
+            assertSameSettings(sequential, parallel);
+        }
+    }
+
+    @Test
+    public void testConvertAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        int c = 0;
+        for (int i = 0; i < 100_000; i += 1) {
+            c = mach.convert(c);
+        }
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 10_000_000; i += 1) {
+            c = mach.convert(c);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void testSharedSpec() throws InterruptedException {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        String text = randomText(AZ, 20000, new Random(9)).replace(" ", "");
+        String expected = mach.convert(text);
+        MachineSpec spec = mach.spec();
+        String[] results = new String[64];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i += 1) {
+            int k = i;
+            threads[i] = new Thread(() -> {
+                Machine m = spec.newMachine();
+                m.insertRotors(ROTORS1);
+                m.setRotors(SETTING1);
+                m.setPlugboard(
+                    new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+                results[k] = m.convert(text);
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (String result : results) {
+            assertEquals(expected, result);
+        }
+    }
+
+    @Test
+    public void testCatalogFile() throws IOException {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        Path file = Files.createTempFile("enigma", ".bin");
+        try {
+            CatalogFile.write(mach.spec(), file);
+            assertTrue(CatalogFile.isCatalog(file));
+            MachineSpec spec = CatalogFile.read(file);
+            assertEquals(AZ.toString(), spec.alphabet().toString());
+            assertEquals(5, spec.numRotors());
+            assertEquals(3, spec.numPawls());
+            assertEquals(ROTORS.size(), spec.rotors().size());
+            Machine copy = spec.newMachine();
+            copy.insertRotors(ROTORS1);
+            copy.setRotors(SETTING1);
+            copy.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)",
+                                              spec.alphabet()));
+            String text = randomText(AZ, 5000, new Random(3));
+            assertEquals(mach.convert(text), copy.convert(text));
+
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[bytes.length / 2] ^= 1;
+            try {
+                CatalogFile.read(ByteBuffer.wrap(bytes));
+                fail("corrupt catalog accepted");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testCatalogFileCounts() throws IOException {
+        Path file = Files.createTempFile("enigma", ".bin");
+        try {
+            CatalogFile.write(mach1().spec(), file);
+            ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+            int counts = 4 + 4 + 2 + AZ.size();
+            int[][] bad = { { 0, 0 }, { 5, 0 }, { 5, 5 }, { 5, 6 },
+                            { 1, 1 } };
+            for (int[] slotsAndPawls : bad) {
+                bytes.putInt(counts, slotsAndPawls[0]);
+                bytes.putInt(counts + 4, slotsAndPawls[1]);
+                CRC32 crc = new CRC32();
+                crc.update(bytes.array(), 0, bytes.limit() - 4);
+                bytes.putInt(bytes.limit() - 4, (int) crc.getValue());
+                try {
+                    CatalogFile.read(bytes.duplicate());
+                    fail("catalog accepted with " + slotsAndPawls[0]
+                         + " slots and " + slotsAndPawls[1] + " pawls");
+                } catch (EnigmaException excp) {
+                    assertEquals("S > P > 0 expected", excp.getMessage());
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testMetrics() {
+        Machine mach = new Machine(AZ, 5, 3, ROTORS.values());
+        mach.insertRotors(ROTORS1);
+        mach.setRotors("AAIP");
+        mach.setPlugboard(new Permutation("", AZ));
+        Metrics metrics = new Metrics();
+        mach.setMetrics(metrics);
+        char[] text = "A A A".toCharArray();
+        assertEquals(3, mach.convert(text, 0, text.length, text, 0));
+        assertEquals(3, metrics.getCharacters());
+        assertEquals(6, metrics.getSteps());
+        assertEquals(1, metrics.getDoubleSteps());
+        assertEquals(0, metrics.getMessages());
+        mach.copy().convert("AAAA".toCharArray(), 0, 4, new char[4], 0);
+        assertEquals(7, metrics.getCharacters());
+        assertEquals(10, metrics.getSteps());
+        assertEquals(1, metrics.getDoubleSteps());
+        mach.setMetrics(null);
+        mach.convert(text, 0, text.length, text, 0);
+        assertEquals(7, metrics.getCharacters());
+    }
+
+    @Test
+    public void testTrace() throws IOException {
+        String expected = String.join(System.lineSeparator(),
+            "[AXLF] H -> Z -> L -> F -> W -> S -> Z -> T -> Y -> X -> X -> S",
+            "[AXLG] E -> E -> N -> T -> L -> D -> Q -> M -> E -> B -> N -> Z",
+            "");
+        for (int capacity : new int[] { 1, 16 }) {
+            Machine mach = mach1();
+            mach.setPlugboard(new Permutation("(YF) (ZH)", AZ));
+            Trace trace = new Trace(AZ, 5, 1, capacity);
+            StringWriter text = new StringWriter();
+            trace.renderTo(text);
+            mach.setTrace(trace);
+            trace.startMessage();
+            assertEquals("SZ", mach.convert("HE"));
+            trace.close();
+            assertEquals(expected, text.toString());
+        }
+
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(YF) (ZH)", AZ));
+        Trace trace = new Trace(AZ, 5, 2, 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        trace.startWriter(bytes);
+        mach.setTrace(trace);
+        for (String msg : new String[] { "H", "E", "L", "L" }) {
+            trace.startMessage();
+            mach.convert(msg);
+        }
+        trace.close();
+        StringWriter text = new StringWriter();
+        Trace.render(new ByteArrayInputStream(bytes.toByteArray()), text);
+        assertEquals(String.join(System.lineSeparator(), "(message 1)",
+            "[AXLF] H -> Z -> L -> F -> W -> S -> Z -> T -> Y -> X -> X -> S",
+            "(message 3)",
+            "[AXLH] L -> L -> S -> C -> Y -> E -> A -> R -> Z -> Q -> C -> V",
+            ""), text.toString());
+    }
+
+    @Test
+    public void testWithoutTables() {
+        TestUtils.forRandomMachines(50, true, (seed, tables, random) -> {
+            Machine plain = TestUtils.withoutTables(tables);
+            assertNull(plain.getRotor(1).forwardTable());
+            String text = randomText(tables.alphabet(), 500, random);
+            assertEquals("seed " + seed, tables.convert(text),
+                         plain.convert(text));
+            assertSameSettings(tables, plain);
+        });
+    }
 }
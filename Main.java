@@ -1,16 +1,24 @@
 package enigma;
 
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.util.concurrent.Executors;
 import ucb.util.CommandArgs;
 
 import static enigma.EnigmaException.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /** Enigma simulator.
  *  @author Agam Gupta
@@ -25,18 +33,118 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.  With --mmap, INPUT and OUTPUT must both be
+     *  given, and be different files, and when the alphabet is ASCII they
+     *  are mapped into memory rather than read and written through
+     *  buffers.  With
+     *  --compile-config, ARGS are CONFIG and OUTPUT, and the configuration
+     *  is written to OUTPUT as a binary catalog (see CatalogFile), which
+     *  may be given as CONFIG in later runs.  With --metrics, counts of
+     *  the work done and message latencies are published through JMX as
+     *  enigma:type=Metrics and printed on the standard error at the end
+     *  and every N seconds, as given by --metrics-interval=N (default
+     *  METRICS_INTERVAL).  --verbose prints a trace of each keystroke on
+     *  the standard error, and --trace=FILE writes one in binary to FILE
+     *  instead, from a background thread (see Trace); with
+     *  --trace-sample=N, either traces only every Nth message line.  With
+     *  --render-trace, ARGS are TRACE and optionally OUTPUT, and the
+     *  binary trace in TRACE is printed as --verbose would have printed
+     *  it.  With --bombe=CRIB, INPUT is ciphertext, and each setting of
+     *  the machine under which the ciphertext from character N on (as
+     *  given by --crib-at=N, default 0) could encrypt CRIB is printed as
+     *  a setting line (see Bombe).  With --hill-climb, INPUT is
+     *  ciphertext, and the keys found by a ciphertext-only attack (see
+     *  HillClimb) are printed best first, each as a setting line followed
+     *  by its decryption.  The attack scores decryptions with bigrams and
+     *  trigrams estimated from the text in the file given by --ngrams,
+     *  or by index of coincidence without one; it climbs from the best
+     *  N settings, as given by --keep=N (default HillClimb.KEEP); and
+     *  with --checkpoint=FILE, it records its progress in FILE and
+     *  resumes from FILE if it exists.  With --serve=PORT or
+     *  --serve=SOCKET, ARGS is CONFIG alone, and requests to convert
+     *  messages are answered until the process is killed, on the given
+     *  TCP port of the loopback interface or at the given Unix-domain
+     *  socket path (see Server). */
     public static void main(String... args) {
         try {
             CommandArgs options =
-                new CommandArgs("--verbose --=(.*){1,3}", args);
+                new CommandArgs("--verbose --compiled --mmap "
+                                + "--compile-config --metrics "
+                                + "--metrics-interval=(\\d+) "
+                                + "--trace=(.+) --trace-sample=(\\d+) "
+                                + "--render-trace --bombe=(.+) "
+                                + "--crib-at=(\\d+) --hill-climb "
+                                + "--ngrams=(.+) --keep=(\\d+) "
+                                + "--checkpoint=(.+) --serve=(.+) "
+                                + "--=(.*){1,3}", args);
             if (!options.ok()) {
                 throw error("Usage: java enigma.Main [--verbose] "
-                            + "[INPUT [OUTPUT]]");
+                            + "[--compiled] [--mmap] [--metrics "
+                            + "[--metrics-interval=N]]%n"
+                            + "                      [--trace=FILE] "
+                            + "[--trace-sample=N] CONFIG [INPUT [OUTPUT]]"
+                            + "%n   or: java enigma.Main --compile-config "
+                            + "CONFIG OUTPUT"
+                            + "%n   or: java enigma.Main --render-trace "
+                            + "TRACE [OUTPUT]"
+                            + "%n   or: java enigma.Main --bombe=CRIB "
+                            + "[--crib-at=N] CONFIG [INPUT [OUTPUT]]"
+                            + "%n   or: java enigma.Main --hill-climb "
+                            + "[--ngrams=TEXT] [--keep=N] "
+                            + "[--checkpoint=FILE]%n"
+                            + "                      CONFIG [INPUT "
+                            + "[OUTPUT]]"
+                            + "%n   or: java enigma.Main --serve=PORT|SOCKET "
+                            + "[--metrics] CONFIG");
             }
 
             _verbose = options.contains("--verbose");
-            new Main(options.get("--")).process();
+            _compiled = options.contains("--compiled");
+            _mmap = options.contains("--mmap");
+            if (options.contains("--metrics")) {
+                _metrics = new Metrics();
+                if (options.contains("--metrics-interval")) {
+                    _metricsInterval = number(options, "--metrics-interval",
+                                              Long.MAX_VALUE);
+                }
+            }
+            if (options.contains("--trace")) {
+                _tracePath = Path.of(options.getLast("--trace"));
+            }
+            if (options.contains("--trace-sample")) {
+                _traceSample = (int) number(options, "--trace-sample",
+                                            Integer.MAX_VALUE);
+            }
+            if (options.contains("--render-trace")) {
+                renderTrace(options.get("--"));
+            } else if (options.contains("--bombe")) {
+                int offset = options.contains("--crib-at")
+                    ? (int) number(options, "--crib-at", Integer.MAX_VALUE)
+                    : 0;
+                new Main(options.get("--"))
+                    .bombe(options.getLast("--bombe"), offset);
+            } else if (options.contains("--hill-climb")) {
+                new Main(options.get("--"))
+                    .hillClimb(options.contains("--ngrams")
+                               ? Path.of(options.getLast("--ngrams")) : null,
+                               options.contains("--keep")
+                               ? (int) number(options, "--keep",
+                                              Integer.MAX_VALUE)
+                               : HillClimb.KEEP,
+                               options.contains("--checkpoint")
+                               ? Path.of(options.getLast("--checkpoint"))
+                               : null);
+            } else if (options.contains("--serve")) {
+                if (options.get("--").size() != 1) {
+                    throw error("--serve requires CONFIG alone");
+                }
+                new Main(options.get("--"))
+                    .serve(options.getLast("--serve"));
+            } else if (options.contains("--compile-config")) {
+                new Main(options.get("--"), true).compileConfig();
+            } else {
+                new Main(options.get("--")).process();
+            }
             return;
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
@@ -47,212 +155,508 @@ public final class Main {
     /** Open the necessary files for non-option arguments ARGS (see comment
       *  on main). */
     Main(List<String> args) {
+        this(args, false);
+    }
+
+    /** Open the necessary files for non-option arguments ARGS, which are
+     *  CONFIG and OUTPUT if COMPILING (see comment on main). */
+    Main(List<String> args, boolean compiling) {
         _config = getInput(args.get(0));
 
+        if (compiling) {
+            if (args.size() != 2) {
+                throw error("--compile-config requires CONFIG and OUTPUT");
+            }
+            _outputPath = Path.of(args.get(1));
+            return;
+        }
+
+        if (_mmap) {
+            if (args.size() < 3) {
+                throw error("--mmap requires INPUT and OUTPUT files");
+            }
+            _inputPath = Path.of(args.get(1));
+            _outputPath = Path.of(args.get(2));
+            return;
+        }
+
         if (args.size() > 1) {
 
-            _input = getInput(args.get(1));
+            _input = getReader(args.get(1));
         } else {
-            _input = new Scanner(System.in);
+            _input = new InputStreamReader(System.in);
         }
 
         if (args.size() > 2) {
             _output = getOutput(args.get(2));
+            _outputPath = Path.of(args.get(2));
         } else {
-            _output = System.out;
+            _output = new OutputStreamWriter(System.out);
         }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
-
+    /** Return a Tokenizer reading the contents of the file named NAME,
+     *  or null if it is a binary catalog, which is left for readConfig. */
+    private Tokenizer getInput(String name) {
         try {
-            File ugay = new File(name);
-            return new Scanner(ugay);
+            Path path = Path.of(name);
+            if (CatalogFile.isCatalog(path)) {
+                _catalogPath = path;
+                return null;
+            }
+            return new Tokenizer(new String(Files.readAllBytes(path)));
         } catch (IOException excp) {
-            System.out.println(name);
             throw error("could not open %s", name);
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a Reader reading from the file named NAME. */
+    private Reader getReader(String name) {
         try {
-            return new PrintStream(new File(name));
+            return new InputStreamReader(new FileInputStream(name));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
-    /** Configure an Enigma machine from the contents of configuration
-     *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
-    private void process() {
-        Machine newMach = readConfig();
-        String initialSet = "";
-        if (_input.hasNext()) {
-            initialSet = _input.nextLine();
-        } else {
-            throw error("nothing present in input file");
+    /** Return a Writer writing to the file named NAME. */
+    private Writer getOutput(String name) {
+        try {
+            return new OutputStreamWriter(new FileOutputStream(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
         }
+    }
 
-        setUp(newMach, initialSet);
-        while (_input.hasNext()) {
-            String line = _input.nextLine().trim();
-            if (line.equals("")) {
-                _output.println("");
-                continue;
-            } else if (line.charAt(0) == '*') {
-                setUp(newMach, line);
-            } else {
-                printMessageLine(newMach.convert(line));
+    /** Return the number given as the value of the last OPTION in
+     *  OPTIONS, which must be made of digits and be at most MAX. */
+    private static long number(CommandArgs options, String option,
+                               long max) {
+        String value = options.getLast(option);
+        try {
+            long result = Long.parseLong(value);
+            if (result <= max) {
+                return result;
             }
+        } catch (NumberFormatException excp) {
+            /* Reported below. */
         }
+        throw error("%s=%s is too large", option, value);
+    }
 
+    /** Print the binary trace named by ARGS[0] as text on the file named by
+     *  ARGS[1], if present, or else on the standard output. */
+    private static void renderTrace(List<String> args) {
+        if (args.size() > 2) {
+            throw error("--render-trace requires TRACE and at most OUTPUT");
+        }
+        try (InputStream in =
+             new BufferedInputStream(new FileInputStream(args.get(0)))) {
+            Writer out = args.size() > 1
+                ? new OutputStreamWriter(new FileOutputStream(args.get(1)))
+                : new OutputStreamWriter(System.out);
+            Trace.render(in, out);
+            if (args.size() > 1) {
+                out.close();
+            }
+        } catch (IOException excp) {
+            throw error("could not render %s: %s", args.get(0),
+                        excp.getMessage());
+        }
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Open _inputPath and _outputPath for --mmap, mapping them into
+     *  memory if every character of _alphabet is a single byte in ASCII,
+     *  and otherwise reading and writing them normally.  They may not be
+     *  the same file, since the output is truncated before the input is
+     *  read. */
+    private void openMapped() {
         try {
-
-            String alphabetString = "";
-            if (_config.hasNext()) {
-                alphabetString = _config.next().trim();
-                _alphabet = new Alphabet(alphabetString);
-            } else {
-                _alphabet = new Alphabet("");
+            if (Files.exists(_outputPath)
+                && Files.isSameFile(_inputPath, _outputPath)) {
+                throw error("input and output are the same file");
             }
-
-            if (_alphabet.contains('*') | _alphabet.contains('(')
-                    | _alphabet.contains(')')
-                    | _alphabet.size() == 0) {
-                throw new
-                        EnigmaException("(,( or * "
-                        + "present in alphabet or alphabet is empty");
+        } catch (IOException excp) {
+            throw error("could not open %s", _inputPath);
+        }
+        for (int i = 0; i < _alphabet.size(); i += 1) {
+            if (_alphabet.toChar(i) >= 0x80) {
+                _input = getReader(_inputPath.toString());
+                _output = getOutput(_outputPath.toString());
+                return;
             }
+        }
+        try {
+            _input = new MappedReader(_inputPath);
+        } catch (IOException excp) {
+            throw error("could not open %s", _inputPath);
+        }
+        try {
+            _output = new MappedWriter(_outputPath);
+        } catch (IOException excp) {
+            throw error("could not open %s", _outputPath);
+        }
+    }
 
-
-
-            int numRotors = 0;
-            int numPawls = 0;
-            if (_config.hasNextInt()) {
-                numRotors = Integer.parseInt(_config.next());
-                if (numRotors < 1) {
-                    throw new
-                            EnigmaException("numRotors must be greater than 0");
+    /** Configure an Enigma machine from the contents of configuration
+     *  file _config and apply it to the messages in _input, sending the
+     *  results to _output. */
+    void process() {
+        Machine newMach = readConfig();
+        if (_mmap) {
+            openMapped();
+        }
+        if (_compiled) {
+            long groupBytes = 4L * _alphabet.size() * _alphabet.size();
+            newMach.setStateCache(new StateCache((int) Math.max(1,
+                Math.min(STATE_CACHE_BYTES / groupBytes, Integer.MAX_VALUE))));
+        }
+        MessageProcessor processor = new MessageProcessor(_input, _output);
+        Trace trace = startTrace(newMach.numRotors());
+        newMach.setTrace(trace);
+        processor.setTrace(trace);
+        if (_metrics != null) {
+            newMach.setMetrics(_metrics);
+            processor.setMetrics(_metrics);
+            _settingCache.setListener(_metrics);
+            _metrics.register(METRICS_NAME);
+            _metrics.startDumping(System.err, _metricsInterval);
+        }
+        Throwable failure = null;
+        try {
+            processor.process(newMach, (line, row, column) ->
+                              setUp(newMach, line, row, column));
+        } catch (IOException excp) {
+            EnigmaException ioFailure =
+                error("I/O error: %s", excp.getMessage());
+            failure = ioFailure;
+            throw ioFailure;
+        } catch (RuntimeException | Error excp) {
+            failure = excp;
+            throw excp;
+        } finally {
+            EnigmaException closing = null;
+            if (trace != null) {
+                try {
+                    trace.close();
+                } catch (IOException excp) {
+                    closing = suppress(closing,
+                                       error("could not write trace: %s",
+                                             excp.getMessage()));
                 }
-            } else {
-                throw error(" No number of rotors given");
             }
-
-            if (_config.hasNextInt()) {
-                numPawls = _config.nextInt();
-                if (numPawls < 1) {
-                    throw new
-                            EnigmaException("numRotors must be greater than 0");
+            if (_metrics != null) {
+                _metrics.stopDumping();
+                System.err.println(_metrics);
+            }
+            if (_outputPath != null) {
+                try {
+                    _output.close();
+                } catch (IOException excp) {
+                    closing = suppress(closing,
+                                       error("could not close %s",
+                                             _outputPath));
                 }
-            } else {
-                throw new EnigmaException("No number of pawls given");
             }
-
-
-            if ((numRotors <= numPawls) | (numRotors < 1) | (numPawls < 1)) {
-                throw new EnigmaException(" S > P > 0 expected");
+            if (closing != null) {
+                if (failure == null) {
+                    throw closing;
+                }
+                failure.addSuppressed(closing);
             }
+        }
+        if (_compiled) {
+            System.err.println(newMach.stateCache());
+            System.err.println(_settingCache);
+        }
 
+    }
 
-            while (_config.hasNext()) {
-                allRotors.add(readRotor());
-            }
-            return new Machine(_alphabet, numRotors, numPawls, allRotors);
-
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+    /** Return FIRST, the first error in cleaning up, with LATER added to
+     *  it as suppressed, or LATER if FIRST is null. */
+    private static EnigmaException suppress(EnigmaException first,
+                                            EnigmaException later) {
+        if (first == null) {
+            return later;
         }
+        first.addSuppressed(later);
+        return first;
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
+    /** Print a setting line for each stop of a Bombe searching for CRIB
+     *  at character OFFSET of the ciphertext in _input, using the
+     *  machines described by _config. */
+    private void bombe(String crib, int offset) {
+        MachineSpec spec = readConfig().spec();
+        String ciphertext = readInput();
         try {
-            String combinedRotateSet;
-            Character rotorType;
-            String rotorName = "";
-            String permutationCycles = "";
-            String notches = "";
+            for (Bombe.Stop stop
+                     : new Bombe(spec, ciphertext, crib, offset).search()) {
+                _output.write(stop + System.lineSeparator());
+            }
+            closeOutput();
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
 
+    /** Print the keys found by a HillClimb attack on the ciphertext in
+     *  _input, using the machines described by _config, each followed by
+     *  its decryption.  The attack scores by a model of the text in
+     *  NGRAMS, unless it is null, climbs from the best KEEP settings,
+     *  and checkpoints in CHECKPOINT, unless it is null. */
+    private void hillClimb(Path ngrams, int keep, Path checkpoint) {
+        MachineSpec spec = readConfig().spec();
+        NgramModel model = null;
+        if (ngrams != null) {
+            try {
+                model = new NgramModel(spec.alphabet(),
+                                       Files.readString(ngrams, UTF_8));
+            } catch (IOException excp) {
+                throw error("could not read %s: %s", ngrams,
+                            excp.getMessage());
+            }
+        }
+        HillClimb attack = new HillClimb(spec, readInput(), model);
+        attack.setKeep(keep);
+        attack.setCheckpoint(checkpoint);
+        try {
+            for (HillClimb.Key key : attack.search()) {
+                _output.write(key + System.lineSeparator());
+                _output.write(attack.decrypt(key) + System.lineSeparator());
+            }
+            closeOutput();
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
 
-            if (_config.hasNext()) {
-                rotorName = _config.next();
+    /** Answer requests at ADDRESS (see Server.bind) with machines
+     *  described by _config, until killed. */
+    private void serve(String address) {
+        MachineSpec spec = readConfig().spec();
+        Server server = new Server(spec);
+        if (_metrics != null) {
+            server.setMetrics(_metrics);
+            _metrics.register(METRICS_NAME);
+            _metrics.startDumping(System.err, _metricsInterval);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException excp) {
+                /* Exiting anyway. */
             }
+        }));
+        try {
+            System.err.printf("serving on %s%n", server.bind(address));
+            server.serve(Executors.newCachedThreadPool());
+        } catch (IOException excp) {
+            throw error("could not serve on %s: %s", address,
+                        excp.getMessage());
+        } finally {
+            try {
+                server.close();
+            } catch (IOException excp) {
+                /* Nothing more to serve. */
+            }
+        }
+    }
 
-            combinedRotateSet = _config.next();
-            rotorType = combinedRotateSet.charAt(0);
+    /** Return all the text in _input. */
+    private String readInput() {
+        StringBuilder text = new StringBuilder();
+        char[] block = new char[MessageProcessor.BLOCK];
+        try {
+            int n;
+            while ((n = _input.read(block)) >= 0) {
+                text.append(block, 0, n);
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+        return text.toString();
+    }
 
+    /** Close _output if it is a file, and otherwise flush it. */
+    private void closeOutput() throws IOException {
+        if (_outputPath != null) {
+            _output.close();
+        } else {
+            _output.flush();
+        }
+    }
 
-            if (combinedRotateSet.length() > 1) {
-                notches = combinedRotateSet.substring(1);
-            }
+    /** Return the trace requested by --trace or --verbose for a machine
+     *  with SLOTS slots over _alphabet, or null if there is none. */
+    private Trace startTrace(int slots) {
+        if (_tracePath == null && !_verbose) {
+            return null;
+        }
+        Trace trace = new Trace(_alphabet, slots, _traceSample, Trace.BLOCK);
+        if (_tracePath == null) {
+            trace.renderTo(new OutputStreamWriter(System.err));
+            return trace;
+        }
+        try {
+            trace.startWriter(new FileOutputStream(_tracePath.toFile()));
+        } catch (IOException excp) {
+            throw error("could not open %s", _tracePath);
+        }
+        return trace;
+    }
 
-            while (_config.hasNext("(\\(["
-                    + _alphabet.toString() + "]*\\))+")) {
-                permutationCycles += _config.next() + " ";
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config. */
+    Machine readConfig() {
+        if (_catalogPath != null) {
+            MachineSpec spec;
+            try {
+                spec = CatalogFile.read(_catalogPath);
+            } catch (IOException excp) {
+                throw error("could not read %s", _catalogPath);
             }
+            _alphabet = spec.alphabet();
+            return spec.newMachine();
+        }
+        _alphabet = new Alphabet(_config.next("alphabet"));
+        if (_alphabet.contains('*') || _alphabet.contains('(')
+            || _alphabet.contains(')')) {
+            throw _config.error("alphabet may not contain '*', '(' or ')'");
+        }
+        int numRotors = _config.nextInt("number of rotors");
+        int numPawls = _config.nextInt("number of pawls");
+        if (numPawls < 1 || numRotors <= numPawls) {
+            throw _config.error("S > P > 0 expected");
+        }
+        while (_config.hasNext()) {
+            allRotors.add(readRotor());
+        }
+        return new MachineSpec(_alphabet, numRotors, numPawls,
+                               allRotors).newMachine();
+    }
 
-            Permutation perm = new
-                    Permutation(permutationCycles.trim(), _alphabet);
+    /** Write the configuration in _config to _outputPath as a binary
+     *  catalog. */
+    private void compileConfig() {
+        MachineSpec spec = readConfig().spec();
+        try {
+            CatalogFile.write(spec, _outputPath);
+        } catch (IOException excp) {
+            throw error("could not write %s", _outputPath);
+        }
+    }
 
-            if (rotorType == 'M') {
-                return new MovingRotor(rotorName, perm, notches);
-            } else if (rotorType == 'N') {
-                return new FixedRotor(rotorName, perm);
-            } else if (rotorType == 'R') {
-                return new Reflector(rotorName, perm);
-            } else {
-                throw new EnigmaException("not "
-                        + "chosen appropriate rotor type: check readrotor");
+    /** Return a rotor, reading its description from _config. */
+    private Rotor readRotor() {
+        String rotorName = _config.next("rotor name");
+        String type = _config.next("rotor type");
+        String notches = type.substring(1);
+        if ("MNR".indexOf(type.charAt(0)) < 0) {
+            throw _config.error("rotor type must be M, N or R");
+        } else if (type.charAt(0) != 'M' && !notches.isEmpty()) {
+            throw _config.error("only moving rotors have notches");
+        }
+        for (int i = 0; i < notches.length(); i += 1) {
+            if (!_alphabet.contains(notches.charAt(i))) {
+                throw _config.error("notch '%c' not in alphabet",
+                                    notches.charAt(i));
             }
-
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
+        }
+        StringBuilder cycles = new StringBuilder();
+        while (_config.atCycle()) {
+            cycles.append('(').append(_config.nextCycle(_alphabet))
+                .append(')');
+        }
+        Permutation perm;
+        try {
+            perm = new Permutation(cycles.toString(), _alphabet);
+        } catch (EnigmaException excp) {
+            throw _config.error("%s", excp.getMessage());
+        }
+        switch (type.charAt(0)) {
+        case 'M':
+            return new MovingRotor(rotorName, perm, notches);
+        case 'N':
+            return new FixedRotor(rotorName, perm);
+        default:
+            return new Reflector(rotorName, perm);
         }
     }
 
     /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
+     *  which must have the format specified in the assignment, and
+     *  which starts at line LINE, column COLUMN of the input.  Returns
+     *  the keystream of M from the new setting, if one is cached (see
+     *  SettingCache), or null. */
+    Keystream setUp(Machine M, String settings, long line, int column) {
+        return setUp(M, _settingCache, settings, line, column);
+    }
 
-        Scanner newScan = new Scanner(settings);
-        if (!newScan.next().equals("*")) {
-            throw new EnigmaException(" Setting does not start with *");
+    /** Set M as for setUp(M, SETTINGS, LINE, COLUMN), looking up and
+     *  recording the effects of setting lines in CACHE, and return the
+     *  keystream of M cached with them, or null. */
+    static Keystream setUp(Machine M, SettingCache cache, String settings,
+                           long line, int column) {
+        Alphabet alphabet = M.alphabet();
+        String key = SettingCache.normalize(settings);
+        SettingCache.Setting cached = cache.get(key);
+        if (cached != null) {
+            cached.applyTo(M);
+            return cached.keystream(M);
+        }
+        Tokenizer tokens = new Tokenizer(settings, line, column);
+        if (!tokens.next("'*'").equals("*")) {
+            throw tokens.error("setting line must start with '*'");
         }
         String[] rotorNames = new String[M.numRotors()];
         for (int i = 0; i < M.numRotors(); i++) {
-            rotorNames[i] = newScan.next();
+            rotorNames[i] = tokens.next("rotor name");
         }
-
-        M.insertRotors(rotorNames);
-
-        String[] set = settings.split("\\s");
-        if (set.length < rotorNames.length + 2) {
-            throw new EnigmaException("cant be true");
+        try {
+            M.insertRotors(rotorNames);
+        } catch (EnigmaException excp) {
+            throw tokens.error("%s", excp.getMessage());
         }
-
-        M.setRotors(newScan.next().trim());
-
         for (int i = 1; i < M.numRotors(); i++) {
             if (M.getRotor(i) instanceof Reflector) {
-                throw new EnigmaException(("Reflector cannot be !1 pos"));
+                throw tokens.error("reflector must be in the first slot");
             }
         }
 
-        String permutationCycle = "";
-        while (newScan.hasNext("\\(..\\)")) {
-            permutationCycle += newScan.next();
+        String setting = tokens.next("rotor settings");
+        if (setting.length() != M.numRotors() - 1) {
+            throw tokens.error("setting must have %d characters",
+                               M.numRotors() - 1);
+        }
+        try {
+            M.setRotors(setting);
+        } catch (EnigmaException excp) {
+            throw tokens.error("%s", excp.getMessage());
         }
-        M.setPlugboard(new Permutation(permutationCycle, _alphabet));
 
+        StringBuilder plugboard = new StringBuilder();
+        while (tokens.hasNext()) {
+            String cycle = tokens.nextCycle(alphabet);
+            if (cycle.length() != 2) {
+                throw tokens.error("plugboard cycles must be pairs");
+            }
+            plugboard.append('(').append(cycle).append(')');
+        }
+        Permutation perm;
+        try {
+            perm = new Permutation(plugboard.toString(), alphabet);
+        } catch (EnigmaException excp) {
+            throw tokens.error("%s", excp.getMessage());
+        }
+        M.setPlugboard(perm);
+        cache.put(key, new SettingCache.Setting(rotorNames, setting, perm));
+        return null;
+    }
 
+    /** Return the cache of setting lines used by setUp. */
+    SettingCache settingCache() {
+        return _settingCache;
     }
 
     /** Return true iff verbose option specified. */
@@ -260,37 +664,66 @@ public final class Main {
         return _verbose;
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        String out = "";
-        out  = out + msg.charAt(0);
-        msg = msg.replaceAll("\\s", "");
-        for (int i = 1; i < msg.length(); i++) {
-            if (i % 5 == 0) {
-                out = out + " " + msg.charAt(i);
-            } else {
-                out = out + msg.charAt(i);
-            }
-        }
-        _output.println(out);
-    }
-
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
     /** Source of input messages. */
-    private Scanner _input;
+    private Reader _input;
+
+    /** Source of machine configuration, unless it is a binary catalog. */
+    private Tokenizer _config;
 
-    /** Source of machine configuration. */
-    private Scanner _config;
+    /** Name of the configuration file if it is a binary catalog, or
+     *  null. */
+    private Path _catalogPath;
 
     /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    private Writer _output;
+
+    /** Name of the input file, if given with --mmap. */
+    private Path _inputPath;
+
+    /** Name of the output file, or null for the standard output. */
+    private Path _outputPath;
 
     /** True if --verbose specified. */
     private static boolean _verbose;
 
+    /** True if --compiled specified. */
+    private static boolean _compiled;
+
+    /** True if --mmap specified. */
+    private static boolean _mmap;
+
+    /** File named by --trace, or null. */
+    private static Path _tracePath;
+
+    /** Sampling rate given by --trace-sample. */
+    private static int _traceSample = 1;
+
+    /** Metrics collected if --metrics specified, or null. */
+    private static Metrics _metrics;
+
+    /** Default value of --metrics-interval, in seconds. */
+    static final long METRICS_INTERVAL = 10;
+
+    /** Seconds between printings of _metrics. */
+    private static long _metricsInterval = METRICS_INTERVAL;
+
+    /** JMX name under which _metrics is published. */
+    static final String METRICS_NAME = "enigma:type=Metrics";
+
+    /** Approximate memory, in bytes, allowed for the state cache used
+     *  with --compiled. */
+    private static final int STATE_CACHE_BYTES = 64 << 20;
+
+    /** Number of distinct setting lines whose effects are cached. */
+    static final int SETTING_CACHE_SIZE = 1024;
+
+    /** Recently seen setting lines. */
+    private final SettingCache _settingCache =
+        new SettingCache(SETTING_CACHE_SIZE);
+
     /** all rotors. */
     private ArrayList<Rotor> allRotors = new ArrayList<Rotor>();
 }
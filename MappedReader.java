@@ -0,0 +1,61 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** A Reader of a file whose bytes each stand for one character (as for
+ *  text in ASCII), which maps the file into memory a window at a time
+ *  instead of copying it through a buffer.  Files larger than the heap
+ *  may be read this way.
+ *  @author Agam Gupta
+ */
+class MappedReader extends Reader {
+
+    /** A reader of the file named by PATH. */
+    MappedReader(Path path) throws IOException {
+        _channel = FileChannel.open(path, StandardOpenOption.READ);
+        _size = _channel.size();
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (_window == null || !_window.hasRemaining()) {
+            if (_position == _size) {
+                return -1;
+            }
+            long length = Math.min(WINDOW, _size - _position);
+            _window = _channel.map(FileChannel.MapMode.READ_ONLY,
+                                   _position, length);
+            _position += length;
+        }
+        int n = Math.min(Math.min(len, _window.remaining()), _bytes.length);
+        _window.get(_bytes, 0, n);
+        for (int i = 0; i < n; i += 1) {
+            cbuf[off + i] = (char) (_bytes[i] & 0xff);
+        }
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _channel.close();
+    }
+
+    /** Size in bytes of the regions of the file mapped at once. */
+    static final long WINDOW = 1L << 26;
+
+    /** The file being read. */
+    private final FileChannel _channel;
+    /** Size of the file. */
+    private final long _size;
+    /** Position in the file of the end of _window. */
+    private long _position;
+    /** Bytes being transferred to or from _window. */
+    private final byte[] _bytes = new byte[1 << 16];
+    /** The region of the file being read, or null. */
+    private MappedByteBuffer _window;
+}
@@ -0,0 +1,78 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.*;
+
+/** A Writer that stores each character as one byte (as for text in
+ *  ASCII) in a file mapped into memory a window at a time, extending the
+ *  file as needed.  Closing the writer cuts the file down to the
+ *  characters actually written.
+ *  @author Agam Gupta
+ */
+class MappedWriter extends Writer {
+
+    /** A writer replacing the contents of the file named by PATH. */
+    MappedWriter(Path path) throws IOException {
+        _channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE,
+                                    StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        while (len > 0) {
+            if (_window == null || !_window.hasRemaining()) {
+                _window = _channel.map(FileChannel.MapMode.READ_WRITE,
+                                       _written, WINDOW);
+            }
+            int n = Math.min(Math.min(len, _window.remaining()),
+                             _bytes.length);
+            char bits = 0;
+            for (int i = 0; i < n; i += 1) {
+                char ch = cbuf[off + i];
+                bits |= ch;
+                _bytes[i] = (byte) ch;
+            }
+            if (bits > 0xff) {
+                throw error("character does not fit in a byte");
+            }
+            _window.put(_bytes, 0, n);
+            _written += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Does nothing: the mapped file is updated as it is written. */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (_channel.isOpen()) {
+            _window = null;
+            _channel.truncate(_written);
+            _channel.close();
+        }
+    }
+
+    /** Size in bytes of the regions of the file mapped at once. */
+    static final long WINDOW = 1L << 26;
+
+    /** The file being written. */
+    private final FileChannel _channel;
+    /** Number of characters written. */
+    private long _written;
+    /** Bytes being transferred to or from _window. */
+    private final byte[] _bytes = new byte[1 << 16];
+    /** The region of the file being written, or null. */
+    private MappedByteBuffer _window;
+}
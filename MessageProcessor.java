@@ -0,0 +1,282 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import static enigma.EnigmaException.*;
+
+/** Streams an input of settings and messages through a machine, reading
+ *  and writing in large blocks.  Message lines are converted as they
+ *  arrive, so memory use does not depend on the length of the input or
+ *  of its lines; only setting lines are collected whole.  The format and
+ *  the output are those of Main: the first line is a setting line; a
+ *  line beginning (after leading whitespace) with '*' is a setting line;
+ *  a blank line is copied as an empty line; any other line is a message,
+ *  printed in groups of five characters.  Blank lines at the end of the
+ *  input are dropped.  When a setting line comes with a Keystream, the
+ *  messages that follow it are converted from the keystream for as many
+ *  positions as it covers, unless there is a trace to record.
+ *  @author Agam Gupta
+ */
+class MessageProcessor {
+
+    /** A processor reading from INPUT and writing to OUTPUT in groups
+     *  of five. */
+    MessageProcessor(Reader input, Writer output) {
+        this(input, new GroupedOutputWriter(output));
+    }
+
+    /** A processor reading from INPUT and writing to OUTPUT. */
+    MessageProcessor(Reader input, GroupedOutputWriter output) {
+        _input = input;
+        _output = output;
+    }
+
+    /** Receives the setting lines of the input. */
+    interface Settings {
+        /** Apply SETTING, which starts at line LINE, column COLUMN of the
+         *  input, and return the keystream of the machine from the new
+         *  setting, or null if there is none. */
+        Keystream setUp(String setting, long line, int column);
+    }
+
+    /** Count my message lines, their latencies, and my setting lines in
+     *  METRICS, or in nothing if METRICS is null. */
+    void setMetrics(Metrics metrics) {
+        _metrics = metrics;
+    }
+
+    /** Tell TRACE where each message line starts and each line ends, or
+     *  tell nothing if TRACE is null. */
+    void setTrace(Trace trace) {
+        _trace = trace;
+    }
+
+    /** Convert all of my input with MACH, passing each setting line to
+     *  SETTINGS, which should reconfigure MACH accordingly.  The output is
+     *  flushed, also when an error occurs, in which case it ends with
+     *  the last complete line, followed by whatever part of the failing
+     *  line had already been written out.  Since lines are not buffered
+     *  whole, that part is empty only if the line's output so far fits
+     *  in one output block (GroupedOutputWriter.BLOCK characters, less
+     *  what precedes it in the block). */
+    void process(Machine mach, Settings settings) throws IOException {
+        _machine = mach;
+        _settings = settings;
+        _mode = START;
+        _stream = null;
+        _lines = 0;
+        _lineNumber = 1;
+        _column = 1;
+        try {
+            int n;
+            while ((n = _input.read(_in)) >= 0) {
+                scan(n);
+            }
+            if (_mode != START) {
+                endLine();
+            }
+            if (_lines == 0) {
+                throw error("nothing present in input file");
+            }
+            _output.flush();
+        } catch (EnigmaException excp) {
+            _output.flushComplete();
+            throw excp;
+        }
+    }
+
+    /** Process the first N characters of _in. */
+    private void scan(int n) throws IOException {
+        int i = 0;
+        if (_skipNewline && n > 0 && _in[0] == '\n') {
+            i = 1;
+        }
+        _skipNewline = false;
+        while (i < n) {
+            char ch = _in[i];
+            if (ch == '\n' || ch == '\r') {
+                endLine();
+                i += 1;
+                if (ch == '\r') {
+                    if (i == n) {
+                        _skipNewline = true;
+                    } else if (_in[i] == '\n') {
+                        i += 1;
+                    }
+                }
+            } else if (_mode == START) {
+                if (ch > ' ') {
+                    startLine(ch == '*' || _lines == 0 ? SETTING : MESSAGE);
+                } else {
+                    _column += 1;
+                    i += 1;
+                }
+            } else if (_mode == SETTING) {
+                _setting.append(ch);
+                i += 1;
+            } else {
+                i = message(i, n);
+            }
+        }
+    }
+
+    /** Begin a new non-blank line whose kind is MODE. */
+    private void startLine(int mode) throws IOException {
+        if (_lines == 0 && _blanks > 0) {
+            throw error("input does not start with a setting line");
+        }
+        if (_blanks > 0) {
+            for (; _blanks > 0; _blanks -= 1) {
+                _output.endLine();
+            }
+            if (Main.verbose()) {
+                _output.flush();
+            }
+        }
+        _mode = mode;
+        _control = 0;
+        _lines += 1;
+        if (_metrics != null && mode == MESSAGE) {
+            _start = System.nanoTime();
+        }
+        if (_trace != null && mode == MESSAGE) {
+            _trace.startMessage();
+        }
+    }
+
+    /** Convert the part of the message line in _in that starts at I and
+     *  ends before the first line terminator or N.  Return the index of
+     *  the first character not processed. */
+    private int message(int i, int n) throws IOException {
+        int end = i;
+        while (end < n && _in[end] >= ' ') {
+            end += 1;
+        }
+        if (end > i) {
+            if (_control != 0) {
+                for (int k = i; k < end; k += 1) {
+                    if (_in[k] != ' ') {
+                        throw error("character '%c' not in alphabet",
+                                    _control);
+                    }
+                }
+            } else if (_stream != null
+                       && _position + end - i <= _stream.limit()) {
+                int count = _stream.convert(_position, _in, i, end - i,
+                                            _converted, 0);
+                _position += count;
+                if (_metrics != null) {
+                    _metrics.converted(count);
+                }
+                _output.write(_converted, 0, count);
+            } else {
+                if (_stream != null) {
+                    _machine.seek(_position);
+                    _stream = null;
+                }
+                _output.write(_converted, 0,
+                              _machine.convert(_in, i, end - i,
+                                               _converted, 0));
+            }
+        }
+        if (end < n && _in[end] != '\n' && _in[end] != '\r') {
+            if (_control == 0) {
+                _control = _in[end];
+            }
+            end += 1;
+        }
+        return end;
+    }
+
+    /** Finish the current line. */
+    private void endLine() throws IOException {
+        switch (_mode) {
+        case START:
+            _blanks += 1;
+            break;
+        case SETTING:
+            String line = _setting.toString();
+            _setting.setLength(0);
+            _stream = _settings.setUp(line, _lineNumber, _column);
+            _position = 0;
+            if (_trace != null) {
+                _stream = null;
+            }
+            if (_metrics != null) {
+                _metrics.setUp();
+            }
+            break;
+        default:
+            _output.endLine();
+            if (_metrics != null) {
+                _metrics.message(System.nanoTime() - _start);
+            }
+            break;
+        }
+        _mode = START;
+        _lineNumber += 1;
+        _column = 1;
+        if (_trace != null) {
+            _trace.endLine();
+        }
+        if (Main.verbose()) {
+            _output.flush();
+        }
+    }
+
+    /** Size of the input blocks. */
+    static final int BLOCK = 1 << 16;
+
+    /** Line modes: at the start of a line, before any non-blank
+     *  character; in a setting line; in a message line. */
+    private static final int START = 0, SETTING = 1, MESSAGE = 2;
+
+    /** Source of settings and messages. */
+    private final Reader _input;
+    /** Destination of converted messages. */
+    private final GroupedOutputWriter _output;
+    /** Block of input being processed. */
+    private final char[] _in = new char[BLOCK];
+    /** Converted characters of the current input block. */
+    private final char[] _converted = new char[BLOCK];
+    /** The setting line being collected. */
+    private final StringBuilder _setting = new StringBuilder();
+    /** Where I count my work, or null. */
+    private Metrics _metrics;
+    /** The trace of the machine's keystrokes, or null. */
+    private Trace _trace;
+    /** Value of System.nanoTime() when the current message line started,
+     *  if _metrics is not null. */
+    private long _start;
+    /** The machine converting messages. */
+    private Machine _machine;
+    /** Receives setting lines. */
+    private Settings _settings;
+    /** The keystream of _machine from the last setting line, while
+     *  messages are converted from it, or null. */
+    private Keystream _stream;
+    /** The number of characters converted since the last setting
+     *  line, while _stream is not null. */
+    private long _position;
+    /** The mode of the current line. */
+    private int _mode;
+    /** The number of the current line of the input. */
+    private long _lineNumber;
+    /** The column of the first non-blank character of the current line,
+     *  once it is found. */
+    private int _column;
+    /** Number of non-blank lines started so far. */
+    private int _lines;
+    /** Number of blank lines not yet written, which are dropped if no
+     *  other line follows them. */
+    private int _blanks;
+    /** The first control character (other than a line terminator) in the
+     *  current message line, or 0.  It is an error unless only blanks
+     *  follow it. */
+    private char _control;
+    /** True if the last input block ended in '\r', so that a '\n'
+     *  starting the next one ends no line. */
+    private boolean _skipNewline;
+}
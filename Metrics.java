@@ -0,0 +1,277 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import static enigma.EnigmaException.*;
+
+/** Counters and a latency histogram describing the work done by
+ *  machines and message processors, which may be updated from any
+ *  number of threads.  Machines and processors are given a Metrics
+ *  only when metrics are wanted (see Main's --metrics option); with
+ *  none, they do no more than test a field for null once per block of
+ *  input or per line, and once per step of a rotor other than the fast
+ *  rotor (whose steps are counted a block at a time).  The JMH
+ *  benchmarks MachineBenchmark and MessageBenchmark (see jmh/) measure
+ *  the cost with and without metrics, though so far any difference has
+ *  been smaller than their run-to-run noise.
+ *  @author Agam Gupta
+ */
+class Metrics implements MetricsMXBean, SettingCache.Listener {
+
+    /** Note that a machine converted N characters. */
+    void converted(long n) {
+        _characters.add(n);
+    }
+
+    /** Note that a rotor other than the fast rotor stepped, which was a
+     *  double step (the rotor moving because of its own notch) iff
+     *  DOUBLESTEP. */
+    void stepped(boolean doubleStep) {
+        _steps.increment();
+        if (doubleStep) {
+            _doubleSteps.increment();
+        }
+    }
+
+    /** Note that a fast rotor stepped N times. */
+    void fastStepped(long n) {
+        _steps.add(n);
+    }
+
+    /** Note a reconfiguration of a machine by a setting line. */
+    void setUp() {
+        _settings.increment();
+    }
+
+    /** Note a lookup of a setting line in a SettingCache, which found
+     *  it iff HIT. */
+    @Override
+    public void lookedUp(boolean hit) {
+        if (hit) {
+            _cacheHits.increment();
+        } else {
+            _cacheMisses.increment();
+        }
+    }
+
+    /** Note the processing of a message line, which took NANOS
+     *  nanoseconds. */
+    void message(long nanos) {
+        _messages.increment();
+        _latency.record(nanos);
+    }
+
+    @Override
+    public long getCharacters() {
+        return _characters.sum();
+    }
+
+    @Override
+    public long getMessages() {
+        return _messages.sum();
+    }
+
+    @Override
+    public long getSettings() {
+        return _settings.sum();
+    }
+
+    @Override
+    public long getSteps() {
+        return _steps.sum();
+    }
+
+    @Override
+    public long getDoubleSteps() {
+        return _doubleSteps.sum();
+    }
+
+    @Override
+    public long getSettingCacheHits() {
+        return _cacheHits.sum();
+    }
+
+    @Override
+    public long getSettingCacheMisses() {
+        return _cacheMisses.sum();
+    }
+
+    @Override
+    public long getLatencyMedian() {
+        return _latency.percentile(0.5);
+    }
+
+    @Override
+    public long getLatency99() {
+        return _latency.percentile(0.99);
+    }
+
+    @Override
+    public long getLatencyMax() {
+        return _latency.max();
+    }
+
+    /** Return my latency histogram. */
+    Histogram latency() {
+        return _latency;
+    }
+
+    /** Register me with the platform MBean server under NAME. */
+    void register(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(this, new ObjectName(name));
+        } catch (JMException excp) {
+            throw error("could not register metrics: %s",
+                        excp.getMessage());
+        }
+    }
+
+    /** Print a summary of me on OUT every PERIOD seconds from a daemon
+     *  thread until stopDumping is called. */
+    void startDumping(PrintStream out, long period) {
+        if (period <= 0) {
+            throw error("metrics interval must be positive");
+        }
+        stopDumping();
+        _dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "enigma-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _dumper.scheduleAtFixedRate(() -> out.println(this), period, period,
+                                    TimeUnit.SECONDS);
+    }
+
+    /** Stop any periodic printing started by startDumping. */
+    void stopDumping() {
+        if (_dumper != null) {
+            _dumper.shutdownNow();
+            _dumper = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("metrics: %d characters, %d messages, "
+                             + "%d settings, %d steps (%d double), "
+                             + "setting cache %d hits, %d misses; "
+                             + "message latency median %d ns, "
+                             + "99%% %d ns, max %d ns",
+                             getCharacters(), getMessages(), getSettings(),
+                             getSteps(), getDoubleSteps(),
+                             getSettingCacheHits(), getSettingCacheMisses(),
+                             getLatencyMedian(), getLatency99(),
+                             getLatencyMax());
+    }
+
+    /** A histogram of non-negative long values, such as latencies in
+     *  nanoseconds, with buckets whose widths grow with their values so
+     *  that any value is reported within about 3% (as in HdrHistogram).
+     *  Values below SUB_BUCKETS have buckets of their own; above that,
+     *  each power of two is divided into SUB_BUCKETS equal buckets. */
+    static final class Histogram {
+
+        /** Record one occurrence of VALUE >= 0. */
+        void record(long value) {
+            if (value < 0) {
+                throw error("negative value in histogram");
+            }
+            _counts.incrementAndGet(index(value));
+            _total.increment();
+            _max.accumulateAndGet(value, Math::max);
+        }
+
+        /** Return the number of values recorded. */
+        long count() {
+            return _total.sum();
+        }
+
+        /** Return the largest value recorded, or 0 if none. */
+        long max() {
+            return _max.get();
+        }
+
+        /** Return the smallest value V such that a fraction of at least Q
+         *  (0 < Q <= 1) of the values recorded are equivalent to values
+         *  <= V, or 0 if none were recorded.  The result is the largest
+         *  value in the bucket found, but no more than max(). */
+        long percentile(double q) {
+            long total = count();
+            if (total == 0) {
+                return 0;
+            }
+            long wanted = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int i = 0; i < _counts.length(); i += 1) {
+                seen += _counts.get(i);
+                if (seen >= wanted) {
+                    return Math.min(max(), highest(i));
+                }
+            }
+            return max();
+        }
+
+        /** Return the index of the bucket holding VALUE. */
+        static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /** Return the largest value in bucket INDEX. */
+        static long highest(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exp = index / SUB_BUCKETS + SUB_BITS - 1;
+            long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS)
+                << (exp - SUB_BITS);
+            return lowest + (1L << (exp - SUB_BITS)) - 1;
+        }
+
+        /** Log base 2 of SUB_BUCKETS. */
+        static final int SUB_BITS = 5;
+        /** Number of buckets for each power of two. */
+        static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        /** Number of values recorded in each bucket. */
+        private final AtomicLongArray _counts =
+            new AtomicLongArray(index(Long.MAX_VALUE) + 1);
+        /** Number of values recorded. */
+        private final LongAdder _total = new LongAdder();
+        /** The largest value recorded. */
+        private final AtomicLong _max = new AtomicLong();
+    }
+
+    /** Number of characters converted. */
+    private final LongAdder _characters = new LongAdder();
+    /** Number of message lines processed. */
+    private final LongAdder _messages = new LongAdder();
+    /** Number of setting lines applied. */
+    private final LongAdder _settings = new LongAdder();
+    /** Number of steps of rotors. */
+    private final LongAdder _steps = new LongAdder();
+    /** Number of those steps that were double steps. */
+    private final LongAdder _doubleSteps = new LongAdder();
+    /** Number of setting lines found in a SettingCache. */
+    private final LongAdder _cacheHits = new LongAdder();
+    /** Number of setting lines not found in a SettingCache. */
+    private final LongAdder _cacheMisses = new LongAdder();
+    /** Time to process each message line, in nanoseconds. */
+    private final Histogram _latency = new Histogram();
+    /** Prints me periodically, or null. */
+    private ScheduledExecutorService _dumper;
+}
@@ -0,0 +1,40 @@
+package enigma;
+
+/** The view of Metrics offered through JMX.  Latencies are those of
+ *  message lines, in nanoseconds.
+ *  @author Agam Gupta
+ */
+public interface MetricsMXBean {
+
+    /** Return the number of characters converted. */
+    long getCharacters();
+
+    /** Return the number of message lines processed. */
+    long getMessages();
+
+    /** Return the number of setting lines applied. */
+    long getSettings();
+
+    /** Return the number of steps of rotors, the fast rotor included.
+     *  Characters converted from a Keystream step no rotors. */
+    long getSteps();
+
+    /** Return the number of those steps that were double steps. */
+    long getDoubleSteps();
+
+    /** Return the number of setting lines found in a cache of settings
+     *  already parsed. */
+    long getSettingCacheHits();
+
+    /** Return the number of setting lines that had to be parsed. */
+    long getSettingCacheMisses();
+
+    /** Return the median message latency. */
+    long getLatencyMedian();
+
+    /** Return the 99th percentile of message latency. */
+    long getLatency99();
+
+    /** Return the largest message latency. */
+    long getLatencyMax();
+}
@@ -0,0 +1,131 @@
+package enigma;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Metrics class.
+ *  @author Agam Gupta
+ */
+public class MetricsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testEmptyHistogram() {
+        Metrics.Histogram hist = new Metrics.Histogram();
+        assertEquals(0, hist.count());
+        assertEquals(0, hist.max());
+        assertEquals(0, hist.percentile(0.5));
+    }
+
+    @Test
+    public void testSmallValues() {
+        Metrics.Histogram hist = new Metrics.Histogram();
+        for (long v = 1; v <= 100; v += 1) {
+            hist.record(v);
+        }
+        assertEquals(100, hist.count());
+        assertEquals(100, hist.max());
+        assertEquals(1, hist.percentile(0.01));
+        assertEquals(50, hist.percentile(0.5));
+        assertEquals(99, hist.percentile(0.99));
+        assertEquals(100, hist.percentile(1.0));
+    }
+
+    @Test
+    public void testPrecision() {
+        for (long v = 1; v > 0 && v < Long.MAX_VALUE / 3; v = v * 3 + 1) {
+            Metrics.Histogram hist = new Metrics.Histogram();
+            hist.record(v);
+            hist.record(2 * v);
+            long median = hist.percentile(0.5);
+            assertTrue(v + " reported as " + median,
+                       median >= v && median - v <= v / 32);
+            assertEquals(2 * v, hist.percentile(1.0));
+        }
+    }
+
+    @Test
+    public void testBuckets() {
+        for (int i = 0; i <= Metrics.Histogram.index(Long.MAX_VALUE); i += 1) {
+            long high = Metrics.Histogram.highest(i);
+            assertEquals(i, Metrics.Histogram.index(high));
+            if (i > 0) {
+                assertEquals(i,
+                    Metrics.Histogram.index(
+                        Metrics.Histogram.highest(i - 1) + 1));
+            }
+        }
+    }
+
+    @Test
+    public void testCounters() {
+        Metrics metrics = new Metrics();
+        metrics.converted(10);
+        metrics.stepped(false);
+        metrics.stepped(true);
+        metrics.fastStepped(5);
+        metrics.setUp();
+        metrics.message(1000);
+        metrics.lookedUp(true);
+        metrics.lookedUp(false);
+        metrics.lookedUp(false);
+        assertEquals(10, metrics.getCharacters());
+        assertEquals(7, metrics.getSteps());
+        assertEquals(1, metrics.getDoubleSteps());
+        assertEquals(1, metrics.getSettings());
+        assertEquals(1, metrics.getMessages());
+        assertEquals(1000, metrics.getLatencyMax());
+        assertEquals(1, metrics.getSettingCacheHits());
+        assertEquals(2, metrics.getSettingCacheMisses());
+        assertTrue(metrics.toString().startsWith("metrics: 10 characters"));
+    }
+
+    @Test
+    public void testSettingCache() {
+        Metrics metrics = new Metrics();
+        SettingCache cache = new SettingCache(1);
+        cache.setListener(metrics);
+        Machine mach = MachineTest.randomMachine(new Random(1));
+        StringBuilder line = new StringBuilder("*");
+        for (int i = 0; i < mach.numRotors(); i += 1) {
+            line.append(" R").append(i);
+        }
+        line.append(' ');
+        for (int i = 1; i < mach.numRotors(); i += 1) {
+            line.append(mach.alphabet().toChar(0));
+        }
+        Main.setUp(mach, cache, line.toString(), 1, 1);
+        Main.setUp(mach, cache, line.toString(), 2, 1);
+        assertEquals(1, metrics.getSettingCacheHits());
+        assertEquals(1, metrics.getSettingCacheMisses());
+    }
+
+    @Test
+    public void testConvertParallel() {
+        for (long seed = 0; seed < 20; seed += 1) {
+            Random random = new Random(seed);
+            Machine sequential = MachineTest.randomMachine(random);
+            Machine parallel = sequential.copy();
+            Metrics expected = new Metrics(), actual = new Metrics();
+            sequential.setMetrics(expected);
+            parallel.setMetrics(actual);
+            char[] text = MachineTest.randomText(sequential.alphabet(),
+                                                 5000, random).toCharArray();
+            char[] out = new char[text.length];
+            sequential.convert(text, 0, text.length, out, 0);
+            parallel.convertParallel(text, 0, text.length, out, 0, 97);
+            assertEquals("seed " + seed, expected.getCharacters(),
+                         actual.getCharacters());
+            assertEquals("seed " + seed, expected.getSteps(),
+                         actual.getSteps());
+            assertEquals("seed " + seed, expected.getDoubleSteps(),
+                         actual.getDoubleSteps());
+        }
+    }
+}
@@ -16,6 +16,17 @@ class MovingRotor extends Rotor {
         notche = notches;
     }
 
+    /** A copy of OTHER that moves independently of it. */
+    MovingRotor(MovingRotor other) {
+        super(other);
+        notche = other.notche;
+    }
+
+    @Override
+    MovingRotor copy() {
+        return new MovingRotor(this);
+    }
+
 
 
     @Override
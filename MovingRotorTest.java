@@ -95,4 +95,24 @@ public class MovingRotorTest {
                 rotor.convertBackward(alpha.indexOf('S')));
     }
 
+    @Test
+    public void checkTablesMatchArithmetic() {
+        setRotor("I", NAVALA, "");
+        Rotor plain = rotor.withTableLimit(0);
+        assertEquals(0, plain.tableLimit());
+        assertEquals(Rotor.TABLE_LIMIT, rotor.tableLimit());
+        for (int s = 0; s < 26; s += 1) {
+            plain.set(s);
+            rotor.set(s);
+            for (int p = 0; p < 26; p += 1) {
+                assertEquals(msg("tables", "forward %d at %d", p, s),
+                             plain.convertForward(p),
+                             rotor.convertForward(p));
+                assertEquals(msg("tables", "backward %d at %d", p, s),
+                             plain.convertBackward(p),
+                             rotor.convertBackward(p));
+            }
+        }
+    }
+
 }
@@ -0,0 +1,573 @@
+package enigma;
+
+import java.util.HashMap;
+import java.util.List;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import static enigma.EnigmaException.*;
+
+/** A set of independent Enigma machines built to one spec, run in
+ *  lockstep lanes, for converting many short messages, each under its
+ *  own setting line, without a Machine per message.  Each lane has its
+ *  own rotor order, settings and plugboard, taken from a Machine with
+ *  setLane, and converts exactly as that machine would.
+ *
+ *  The lanes' state is kept as a structure of arrays: the setting of
+ *  slot I of lane L is at I * lanes() + L in one int array, and so on.
+ *  The conversion tables of every rotor in the catalog are copied into
+ *  one flat array, and a lane finds the row for each of its slots by an
+ *  offset into it.  A keystroke passes each lane's character through
+ *  one slot at a time, for all lanes at once, so the lookups for
+ *  different lanes are independent of each other and can overlap.
+ *  Alphabets too large for conversion tables (see Rotor.tableLimit) use
+ *  flat arrays of the rotors' wirings instead.
+ *
+ *  When the Vector API is enabled (see Vectors and setVectors) and the
+ *  rotors have tables, a keystroke instead handles a vector's width of
+ *  lanes at a time (see VectorLanes), with the same results.  A
+ *  MultiMachine may be used by one thread at a time.
+ *
+ *  It pays only with many lanes: in jmh/MultiMachineBenchmark, on JDK
+ *  17, the scalar code took about a fifth less time per character than
+ *  a Machine per message with 64 lanes, about as long with 8, and twice
+ *  as long with one.  The vector code was slower still (see Vectors).
+ *  @author Agam Gupta
+ */
+class MultiMachine {
+
+    /** A set of LANES > 0 machines built to SPEC, none of them set up
+     *  yet. */
+    MultiMachine(MachineSpec spec, int lanes) {
+        if (lanes < 1) {
+            throw error("a multi-machine needs at least one lane");
+        }
+        List<Rotor> catalog = spec.rotors();
+        int size = spec.alphabet().size(), count = catalog.size();
+        _spec = spec;
+        _size = size;
+        _slots = spec.numRotors();
+        _lanes = lanes;
+        _index = new HashMap<>(2 * count);
+        _moving = new boolean[count];
+        _notches = new boolean[(count + 1) * size];
+        _wirings = new int[count * size];
+        _inverses = new int[count * size];
+        boolean tables = (long) count * size * size <= Integer.MAX_VALUE;
+        Rotor[] copies = new Rotor[count];
+        for (int r = 0; r < count; r += 1) {
+            Rotor rotor = catalog.get(r);
+            copies[r] = rotor.copy();
+            _index.put(rotor.name(), r);
+            _moving[r] = rotor.rotates();
+            System.arraycopy(copies[r].notchTable(), 0, _notches, r * size,
+                             size);
+            System.arraycopy(rotor.permutation().forwardTable(), 0,
+                             _wirings, r * size, size);
+            System.arraycopy(rotor.permutation().inverseTable(), 0,
+                             _inverses, r * size, size);
+            tables &= copies[r].forwardTable() != null;
+        }
+        if (tables) {
+            int square = size * size;
+            _forward = new int[count * square];
+            _backward = new int[count * square];
+            for (int r = 0; r < count; r += 1) {
+                System.arraycopy(copies[r].forwardTable(), 0, _forward,
+                                 r * square, square);
+                System.arraycopy(copies[r].backwardTable(), 0, _backward,
+                                 r * square, square);
+            }
+        } else {
+            _forward = _backward = null;
+        }
+        _ready = new boolean[lanes];
+        _column = new int[lanes];
+        _settings = new int[lanes * _slots];
+        _offsets = new int[lanes * _slots];
+        _notchRows = new int[lanes * _slots];
+        _rotates = new boolean[lanes * _slots];
+        _notched = new int[lanes];
+        _plugs = new int[lanes * size];
+    }
+
+    /** Return the spec to which my machines are built. */
+    MachineSpec spec() {
+        return _spec;
+    }
+
+    /** Return my number of lanes. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Convert with the Vector API, when it is available, iff ON.
+     *  Initially, as Vectors.enabled() says. */
+    void setVectors(boolean on) {
+        _vectors = on && Vectors.AVAILABLE;
+    }
+
+    /** Set up LANE to convert as MACHINE would from its current state:
+     *  with its rotors, their settings, and its plugboard (none if it has
+     *  none).  MACHINE must be built to my spec and have its rotors
+     *  inserted, and is not changed. */
+    void setLane(int lane, Machine machine) {
+        if (lane < 0 || lane >= _lanes) {
+            throw error("no lane %d", lane);
+        } else if (machine.spec() != _spec) {
+            throw error("machine built to another spec");
+        } else if (!machine.hasRotors()) {
+            throw error("machine has no rotors inserted");
+        }
+        int size = _size, lanes = _lanes;
+        _notched[lane] = 0;
+        for (int i = 0, k = lane; i < _slots; i += 1, k += lanes) {
+            Rotor rotor = machine.getRotor(i);
+            int r = _index.get(rotor.name());
+            _settings[k] = rotor.setting();
+            _offsets[k] = _forward == null ? r * size
+                : (r * size + rotor.setting()) * size;
+            _rotates[k] = _moving[r];
+            boolean left = i > 0 && _rotates[k - lanes];
+            _notchRows[k] = (left ? r : _index.size()) * size;
+            if (i > 0 && _notches[_notchRows[k] + rotor.setting()]) {
+                _notched[lane] += 1;
+            }
+        }
+        Permutation plugboard = machine.plugboard();
+        for (int c = 0; c < size; c += 1) {
+            _plugs[lane * size + c] =
+                plugboard == null ? c : plugboard.permute(c);
+        }
+        _ready[lane] = true;
+        if (_vectorLanes != null) {
+            _vectorLanes.setLane(lane);
+        }
+    }
+
+    /** Return the setting of the rotor in SLOT of LANE, as an index in
+     *  my alphabet. */
+    int setting(int lane, int slot) {
+        return _settings[slot * _lanes + lane];
+    }
+
+    /** Perform one keystroke on every lane L for which IN[L] is not
+     *  negative, converting IN[L] (an index in my alphabet) after first
+     *  advancing the lane's rotors, and storing the result in OUT[L].
+     *  Lanes with negative IN[L] are left as they are, and OUT[L] is set
+     *  to -1.  IN and OUT may be the same array. */
+    void convert(int[] in, int[] out) {
+        if (in.length < _lanes || out.length < _lanes) {
+            throw error("one character needed for each lane");
+        }
+        for (int lane = 0; lane < _lanes; lane += 1) {
+            if (in[lane] >= _size) {
+                throw error("character index out of range");
+            } else if (in[lane] >= 0 && !_ready[lane]) {
+                throw error("lane %d not set up", lane);
+            }
+        }
+        keystrokes(in, out);
+    }
+
+    /** Return the conversions of MESSAGES, converting MESSAGES[L] (with
+     *  blanks skipped) on lane L, in lockstep with the other lanes, and
+     *  updating the lanes' rotors accordingly.  There must be one message
+     *  for each lane; a null message leaves its lane alone and gives a
+     *  null result. */
+    String[] convert(String[] messages) {
+        int lanes = _lanes;
+        if (messages.length != lanes) {
+            throw error("%d messages given for %d lanes", messages.length,
+                        lanes);
+        }
+        Alphabet alpha = _spec.alphabet();
+        int[][] texts = new int[lanes][];
+        int longest = 0;
+        for (int lane = 0; lane < lanes; lane += 1) {
+            if (messages[lane] != null) {
+                if (!_ready[lane]) {
+                    throw error("lane %d not set up", lane);
+                }
+                texts[lane] = alpha.indices(messages[lane], "message");
+                longest = Math.max(longest, texts[lane].length);
+            }
+        }
+        int[] column = new int[lanes];
+        for (int p = 0; p < longest; p += 1) {
+            for (int lane = 0; lane < lanes; lane += 1) {
+                int[] text = texts[lane];
+                column[lane] = text != null && p < text.length ? text[p] : -1;
+            }
+            keystrokes(column, column);
+            for (int lane = 0; lane < lanes; lane += 1) {
+                if (column[lane] >= 0) {
+                    texts[lane][p] = column[lane];
+                }
+            }
+        }
+        String[] result = new String[lanes];
+        for (int lane = 0; lane < lanes; lane += 1) {
+            int[] text = texts[lane];
+            if (text != null) {
+                char[] chars = new char[text.length];
+                for (int p = 0; p < text.length; p += 1) {
+                    chars[p] = alpha.toChar(text[p]);
+                }
+                result[lane] = new String(chars);
+            }
+        }
+        return result;
+    }
+
+    /** Perform convert(IN, OUT), whose arguments have been checked.  The
+     *  rotors of each lane are advanced first; then each character passes
+     *  through the slots one slot at a time across all lanes, so that the
+     *  lookups for different lanes do not wait on one another. */
+    private void keystrokes(int[] in, int[] out) {
+        if (_vectors && _forward != null) {
+            if (_vectorLanes == null) {
+                _vectorLanes = new VectorLanes();
+            }
+            _vectorLanes.keystrokes(in, out);
+            return;
+        }
+        int size = _size, lanes = _lanes, slots = _slots;
+        int[] column = _column, plugs = _plugs, offsets = _offsets;
+        int fast = (slots - 1) * lanes;
+        for (int lane = 0; lane < lanes; lane += 1) {
+            int c = in[lane];
+            if (c < 0) {
+                column[lane] = 0;
+                continue;
+            }
+            if (_notched[lane] != 0) {
+                advance(lane);
+            } else if (_rotates[fast + lane]) {
+                step(fast + lane);
+                if (_notches[_notchRows[fast + lane]
+                             + _settings[fast + lane]]) {
+                    _notched[lane] = 1;
+                }
+            }
+            column[lane] = plugs[lane * size + c];
+        }
+        int[] forward = _forward, backward = _backward;
+        if (forward != null) {
+            for (int k = fast; k >= 0; k -= lanes) {
+                for (int lane = 0; lane < lanes; lane += 1) {
+                    column[lane] = forward[offsets[k + lane] + column[lane]];
+                }
+            }
+            for (int k = lanes; k <= fast; k += lanes) {
+                for (int lane = 0; lane < lanes; lane += 1) {
+                    column[lane] = backward[offsets[k + lane] + column[lane]];
+                }
+            }
+        } else {
+            int[] settings = _settings;
+            for (int k = fast; k >= 0; k -= lanes) {
+                for (int lane = 0; lane < lanes; lane += 1) {
+                    column[lane] = convertSlot(_wirings, offsets[k + lane],
+                                               settings[k + lane],
+                                               column[lane]);
+                }
+            }
+            for (int k = lanes; k <= fast; k += lanes) {
+                for (int lane = 0; lane < lanes; lane += 1) {
+                    column[lane] = convertSlot(_inverses, offsets[k + lane],
+                                               settings[k + lane],
+                                               column[lane]);
+                }
+            }
+        }
+        for (int lane = 0; lane < lanes; lane += 1) {
+            out[lane] = in[lane] < 0 ? -1
+                : plugs[lane * size + column[lane]];
+        }
+    }
+
+    /** Advance the rotors of LANE as Machine.advanceRotors does, and
+     *  recount those at a notch. */
+    private void advance(int lane) {
+        int lanes = _lanes, last = (_slots - 1) * lanes + lane;
+        int[] settings = _settings, rows = _notchRows;
+        boolean[] notches = _notches, rotates = _rotates;
+        boolean rightAtNotch = notches[rows[last] + settings[last]];
+        if (rotates[last]) {
+            step(last);
+        }
+        for (int k = last - lanes; k > lane; k -= lanes) {
+            boolean atNotch = notches[rows[k] + settings[k]];
+            if (rotates[k]
+                && (rightAtNotch || (atNotch && rotates[k - lanes]))) {
+                step(k);
+            }
+            rightAtNotch = atNotch;
+        }
+        int notched = 0;
+        for (int k = lane + lanes; k <= last; k += lanes) {
+            if (notches[rows[k] + settings[k]]) {
+                notched += 1;
+            }
+        }
+        _notched[lane] = notched;
+    }
+
+    /** Advance the rotor at K in my lanes' state by one position. */
+    private void step(int k) {
+        int size = _size;
+        if (_settings[k] + 1 == size) {
+            _settings[k] = 0;
+            if (_forward != null) {
+                _offsets[k] -= (size - 1) * size;
+            }
+        } else {
+            _settings[k] += 1;
+            if (_forward != null) {
+                _offsets[k] += size;
+            }
+        }
+    }
+
+    /** Return the result of passing C through the rotor whose wiring (or
+     *  inverse wiring) starts at OFF in WIRINGS, at setting SETTING. */
+    private int convertSlot(int[] wirings, int off, int setting, int c) {
+        int size = _size;
+        c += setting;
+        if (c >= size) {
+            c -= size;
+        }
+        c = wirings[off + c] - setting;
+        return c < 0 ? c + size : c;
+    }
+
+    /** Performs keystrokes with the Vector API on WIDTH consecutive
+     *  lanes at once, on my lanes' state.  The settings, offsets and
+     *  notch rows of a slot are already laid out across lanes, so each
+     *  is one vector load.  Each lane steps as in keystrokes, under bit
+     *  masks of the lanes that take each step, computed from gathers of
+     *  the notch tables, and each table lookup of the conversion is a
+     *  gather.  The last group of lanes is partial when the number of
+     *  lanes is not a multiple of WIDTH, and its loads and stores are
+     *  masked.  Used only when the rotors have tables.  Loaded only if
+     *  vectors are on (see setVectors). */
+    private final class VectorLanes {
+
+        /** Vector lanes for my lanes as currently set up. */
+        VectorLanes() {
+            _groups = (_lanes + WIDTH - 1) / WIDTH;
+            _moves = new long[_slots * _groups];
+            _notchInts = new int[_notches.length];
+            for (int k = 0; k < _notches.length; k += 1) {
+                _notchInts[k] = _notches[k] ? 1 : 0;
+            }
+            _index = new int[WIDTH];
+            for (int lane = 0; lane < _lanes; lane += 1) {
+                setLane(lane);
+            }
+        }
+
+        /** Record which rotors of LANE rotate, after it is set up. */
+        void setLane(int lane) {
+            long bit = 1L << (lane % WIDTH);
+            for (int i = 0; i < _slots; i += 1) {
+                int k = i * _groups + lane / WIDTH;
+                _moves[k] = _rotates[i * _lanes + lane] ? _moves[k] | bit
+                    : _moves[k] & ~bit;
+            }
+        }
+
+        /** Perform keystrokes(IN, OUT), a group of WIDTH lanes at a
+         *  time. */
+        void keystrokes(int[] in, int[] out) {
+            for (int g = 0; g < _lanes; g += WIDTH) {
+                keystrokes(g, in, out);
+            }
+        }
+
+        /** Perform keystrokes(IN, OUT) on lanes FIRST through FIRST +
+         *  WIDTH - 1, ignoring those past my last lane. */
+        private void keystrokes(int first, int[] in, int[] out) {
+            int size = _size, lanes = _lanes, fast = (_slots - 1) * lanes;
+            VectorMask<Integer> range = SPECIES.indexInRange(first, lanes);
+            IntVector chars = IntVector.fromArray(SPECIES, in, first, range);
+            VectorMask<Integer> typed =
+                chars.compare(VectorOperators.GE, 0).and(range);
+            long active = typed.toLong();
+            IntVector notched =
+                IntVector.fromArray(SPECIES, _notched, first, range);
+            long full =
+                active & notched.compare(VectorOperators.NE, 0).toLong();
+            long fastOnly = active & ~full & moves(_slots - 1, first);
+            if (fastOnly != 0) {
+                increment(fast + first, fastOnly, range);
+                long now = atNotch(fast + first, range) & fastOnly;
+                notched = notched.blend(1, VectorMask.fromLong(SPECIES, now));
+            }
+            if (full != 0) {
+                notched = notched.blend(advance(first, full, range),
+                                        VectorMask.fromLong(SPECIES, full));
+            }
+            notched.intoArray(_notched, first, range);
+            IntVector bases = IntVector.zero(SPECIES).addIndex(1).add(first)
+                .mul(size).blend(0, range.not());
+            VectorMask<Integer> idle = typed.not();
+            IntVector c = gather(_plugs, bases.add(chars.blend(0, idle)));
+            for (int k = fast + first; k >= first; k -= lanes) {
+                c = gather(_forward, offsets(k, range).add(c));
+            }
+            for (int k = lanes + first; k <= fast + first; k += lanes) {
+                c = gather(_backward, offsets(k, range).add(c));
+            }
+            gather(_plugs, bases.add(c)).blend(-1, idle)
+                .intoArray(out, first, range);
+        }
+
+        /** Advance the rotors of the lanes in the bit mask LANES among
+         *  those from FIRST, in RANGE, as Machine.advanceRotors does.
+         *  Return the number of slots other than the reflector's now at
+         *  a notch in each lane. */
+        private IntVector advance(int first, long lanes,
+                                  VectorMask<Integer> range) {
+            int last = _slots - 1, fast = last * _lanes + first;
+            long right = atNotch(fast, range);
+            increment(fast, lanes & moves(last, first), range);
+            for (int i = last - 1, k = fast - _lanes; i > 0;
+                 i -= 1, k -= _lanes) {
+                long here = atNotch(k, range);
+                long move = lanes & moves(i, first)
+                    & (right | here & moves(i - 1, first));
+                if (move != 0) {
+                    increment(k, move, range);
+                }
+                right = here;
+            }
+            IntVector count = IntVector.zero(SPECIES);
+            for (int k = first + _lanes; k <= fast; k += _lanes) {
+                count = count.add(notchInts(k, range));
+            }
+            return count;
+        }
+
+        /** Return the lanes from FIRST whose rotor in SLOT rotates, as a
+         *  bit mask. */
+        private long moves(int slot, int first) {
+            return _moves[slot * _groups + first / WIDTH];
+        }
+
+        /** Return the lanes in RANGE whose rotor at K in my lanes' state
+         *  is at a notch, as a bit mask. */
+        private long atNotch(int k, VectorMask<Integer> range) {
+            return notchInts(k, range).compare(VectorOperators.NE, 0)
+                .toLong();
+        }
+
+        /** Return 1 in each lane in RANGE whose rotor at K in my lanes'
+         *  state is at a notch, and 0 in the others. */
+        private IntVector notchInts(int k, VectorMask<Integer> range) {
+            IntVector rows = IntVector.fromArray(SPECIES, _notchRows, k,
+                                                 range);
+            return gather(_notchInts,
+                          rows.add(IntVector.fromArray(SPECIES, _settings,
+                                                       k, range)))
+                .blend(0, range.not());
+        }
+
+        /** Advance the rotor at K in my lanes' state by one position in
+         *  the lanes in the bit mask LANES, all in RANGE. */
+        private void increment(int k, long lanes,
+                               VectorMask<Integer> range) {
+            int size = _size;
+            VectorMask<Integer> step = VectorMask.fromLong(SPECIES, lanes);
+            IntVector next = IntVector.fromArray(SPECIES, _settings, k, range)
+                .add(1, step);
+            VectorMask<Integer> wrap =
+                next.compare(VectorOperators.EQ, size);
+            next.blend(0, wrap).intoArray(_settings, k, range);
+            offsets(k, range).add(size, step).sub(size * size, wrap)
+                .intoArray(_offsets, k, range);
+        }
+
+        /** Return the offsets at K in my lanes' state, for the lanes in
+         *  RANGE, and 0 for the others. */
+        private IntVector offsets(int k, VectorMask<Integer> range) {
+            return IntVector.fromArray(SPECIES, _offsets, k, range);
+        }
+
+        /** Return the entries of TABLE at INDEX. */
+        private IntVector gather(int[] table, IntVector index) {
+            index.intoArray(_index, 0);
+            return IntVector.fromArray(SPECIES, table, 0, _index, 0);
+        }
+
+        /** The shape of my vectors. */
+        static final VectorSpecies<Integer> SPECIES =
+            IntVector.SPECIES_PREFERRED;
+        /** Number of lanes handled at once. */
+        static final int WIDTH = SPECIES.length();
+
+        /** Number of groups of WIDTH lanes, the last perhaps partial. */
+        private final int _groups;
+        /** For each slot and group, in that order, the lanes of the
+         *  group whose rotor in the slot rotates, as a bit mask. */
+        private final long[] _moves;
+        /** 1 at each notch in _notches, and 0 elsewhere. */
+        private final int[] _notchInts;
+        /** Indices of the current gather. */
+        private final int[] _index;
+    }
+
+    /** The spec to which my machines are built. */
+    private final MachineSpec _spec;
+    /** Size of the alphabet. */
+    private final int _size;
+    /** Number of rotor slots of each lane. */
+    private final int _slots;
+    /** Number of lanes. */
+    private final int _lanes;
+    /** Position in the catalog of each rotor, by name. */
+    private final HashMap<String, Integer> _index;
+    /** True for each rotor in the catalog that rotates. */
+    private final boolean[] _moving;
+    /** Notch table of each rotor in the catalog, at its position times
+     *  the alphabet size, followed by a table with no notches. */
+    private final boolean[] _notches;
+    /** Forward conversion tables of the rotors in the catalog, each
+     *  taking size * size entries, or null if there are none. */
+    private final int[] _forward;
+    /** Backward conversion tables, laid out as _forward, or null. */
+    private final int[] _backward;
+    /** Wirings of the rotors in the catalog, each taking size entries. */
+    private final int[] _wirings;
+    /** Inverse wirings, laid out as _wirings. */
+    private final int[] _inverses;
+    /** True for each lane that has been set up. */
+    private final boolean[] _ready;
+    /** Setting of the rotor in each slot of each lane. */
+    private final int[] _settings;
+    /** Start of the row for each slot of each lane in the conversion
+     *  tables, or of its rotor's wiring if there are no tables. */
+    private final int[] _offsets;
+    /** Start in _notches of the notch table used for each slot of each
+     *  lane: the table with no notches if the rotor to the slot's left
+     *  cannot move, as in Machine. */
+    private final int[] _notchRows;
+    /** True for each slot of each lane whose rotor rotates. */
+    private final boolean[] _rotates;
+    /** Number of slots other than the reflector's at a notch in each
+     *  lane.  When zero, only the lane's fast rotor can move. */
+    private final int[] _notched;
+    /** Image of each character under each lane's plugboard, at the lane
+     *  times the alphabet size. */
+    private final int[] _plugs;
+    /** The character in each lane during a keystroke. */
+    private final int[] _column;
+    /** True iff keystrokes may be performed by VectorLanes. */
+    private boolean _vectors = Vectors.enabled();
+    /** Performs my keystrokes with the Vector API, or null if it has not
+     *  been needed. */
+    private VectorLanes _vectorLanes;
+}
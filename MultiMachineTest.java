@@ -0,0 +1,228 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the MultiMachine class, which
+ *  compare its results with those of Machine.
+ *  @author Agam Gupta
+ */
+public class MultiMachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Return a spec with 4 slots and 3 pawls, reflectors B and C, and
+     *  rotors I through V. */
+    private static MachineSpec navalSpec() {
+        Alphabet az = new Alphabet(TestUtils.UPPER_STRING);
+        String[] notches = { "Q", "E", "V", "J", "Z" };
+        List<Rotor> rotors = new ArrayList<>();
+        for (String name : new String[] { "B", "C" }) {
+            rotors.add(new Reflector(name,
+                new Permutation(TestUtils.NAVALA.get(name), az)));
+        }
+        for (int k = 0; k < notches.length; k += 1) {
+            String name = new String[] { "I", "II", "III", "IV", "V" }[k];
+            rotors.add(new MovingRotor(name,
+                new Permutation(TestUtils.NAVALA.get(name), az),
+                notches[k]));
+        }
+        return new MachineSpec(az, 4, 3, rotors);
+    }
+
+    /** Set MACH to random rotor settings and a random plugboard, drawing
+     *  on RANDOM. */
+    private static void randomize(Machine mach, Random random) {
+        Alphabet alpha = mach.alphabet();
+        StringBuilder setting = new StringBuilder();
+        for (int i = 1; i < mach.numRotors(); i += 1) {
+            setting.append(mach.getRotor(i).reflecting() ? alpha.toChar(0)
+                           : alpha.toChar(random.nextInt(alpha.size())));
+        }
+        mach.setRotors(setting.toString());
+        mach.setPlugboard(
+            new Permutation(MachineTest.randomCycles(alpha, true, random),
+                            alpha));
+    }
+
+    /** Assert that the lanes of a MultiMachine, each set up from one of
+     *  MACHINES, convert MESSAGES as the machines do, with the Vector
+     *  API iff VECTORS. */
+    private static void assertConverts(Machine[] machines,
+                                       String[] messages, boolean vectors) {
+        MultiMachine multi =
+            new MultiMachine(machines[0].spec(), machines.length);
+        multi.setVectors(vectors);
+        for (int lane = 0; lane < machines.length; lane += 1) {
+            multi.setLane(lane, machines[lane]);
+        }
+        String[] results = multi.convert(messages);
+        for (int lane = 0; lane < machines.length; lane += 1) {
+            if (messages[lane] == null) {
+                assertNull(results[lane]);
+                continue;
+            }
+            assertEquals("lane " + lane,
+                         machines[lane].convert(messages[lane]),
+                         results[lane]);
+            for (int i = 0; i < machines[lane].numRotors(); i += 1) {
+                assertEquals("setting of lane " + lane + ", slot " + i,
+                             machines[lane].getRotor(i).setting(),
+                             multi.setting(lane, i));
+            }
+        }
+    }
+
+    /** Assert that up to LANES lanes set up from copies of FIRST, each
+     *  with its own settings and plugboard drawn from RANDOM, convert as
+     *  the machines do, with the Vector API iff VECTORS. */
+    private static void assertMatches(Machine first, Random random,
+                                      int lanes, boolean vectors) {
+        Machine[] machines = new Machine[1 + random.nextInt(lanes)];
+        String[] messages = new String[machines.length];
+        for (int lane = 0; lane < machines.length; lane += 1) {
+            machines[lane] = first.copy();
+            randomize(machines[lane], random);
+            messages[lane] = random.nextInt(6) == 0 ? null
+                : MachineTest.randomText(first.alphabet(),
+                                         random.nextInt(800), random);
+        }
+        assertConverts(machines, messages, vectors);
+    }
+
+    @Test
+    public void testMatchesMachine() {
+        TestUtils.forRandomMachines(100, true, (seed, mach, random) ->
+            assertMatches(mach, random, 12, false));
+    }
+
+    @Test
+    public void testWithoutTables() {
+        TestUtils.forRandomMachines(30, false, (seed, mach, random) ->
+            assertMatches(mach, random, 12, false));
+    }
+
+    /** Assert that lanes with random rotor orders from one spec convert
+     *  as their machines do, with the Vector API iff VECTORS. */
+    private static void assertRotorOrders(boolean vectors) {
+        Random random = new Random(11);
+        MachineSpec spec = navalSpec();
+        List<String[]> orders = spec.rotorOrders();
+        Machine[] machines = new Machine[16];
+        String[] messages = new String[machines.length];
+        for (int lane = 0; lane < machines.length; lane += 1) {
+            machines[lane] = spec.newMachine();
+            machines[lane].insertRotors(
+                orders.get(random.nextInt(orders.size())));
+            randomize(machines[lane], random);
+            messages[lane] =
+                MachineTest.randomText(spec.alphabet(), 2000, random);
+        }
+        assertConverts(machines, messages, vectors);
+    }
+
+    @Test
+    public void testRotorOrders() {
+        assertRotorOrders(false);
+    }
+
+    /** Assert that single keystrokes, with some lanes idle, convert as
+     *  the lanes' machines do, with the Vector API iff VECTORS. */
+    private static void assertKeystrokes(boolean vectors) {
+        Random random = new Random(5);
+        MachineSpec spec = navalSpec();
+        Machine[] machines = new Machine[3];
+        MultiMachine multi = new MultiMachine(spec, machines.length);
+        multi.setVectors(vectors);
+        for (int lane = 0; lane < machines.length; lane += 1) {
+            machines[lane] = spec.newMachine();
+            machines[lane].insertRotors(spec.rotorOrders().get(lane * 7));
+            randomize(machines[lane], random);
+            multi.setLane(lane, machines[lane]);
+        }
+        int[] keys = new int[machines.length];
+        for (int n = 0; n < 1000; n += 1) {
+            int[] expected = new int[machines.length];
+            for (int lane = 0; lane < machines.length; lane += 1) {
+                keys[lane] = lane == n % 3 ? -1 : random.nextInt(26);
+                expected[lane] = keys[lane] < 0 ? -1
+                    : machines[lane].convert(keys[lane]);
+            }
+            multi.convert(keys, keys);
+            assertArrayEquals(expected, keys);
+        }
+    }
+
+    @Test
+    public void testKeystrokes() {
+        assertKeystrokes(false);
+    }
+
+    @Test
+    public void testVectors() {
+        Assume.assumeTrue(Vectors.AVAILABLE);
+        TestUtils.forRandomMachines(60, true, (seed, mach, random) ->
+            assertMatches(mach, random, 40, true));
+        assertRotorOrders(true);
+        assertKeystrokes(true);
+    }
+
+    @Test
+    public void testBadLanes() {
+        MachineSpec spec = navalSpec();
+        MultiMachine multi = new MultiMachine(spec, 2);
+        Machine mach = spec.newMachine();
+        mach.insertRotors(new String[] { "B", "I", "II", "III" });
+        multi.setLane(0, mach);
+        try {
+            multi.convert(new String[] { "AB", "CD" });
+            fail("converted on a lane that was not set up");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            multi.convert(new String[] { "AB" });
+            fail("accepted too few messages");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            multi.convert(new String[] { "A-B", null });
+            fail("accepted a character not in the alphabet");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            multi.setLane(2, mach);
+            fail("set up a lane out of range");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            multi.setLane(1, navalSpec().newMachine());
+            fail("accepted a machine built to another spec");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            multi.setLane(1, spec.newMachine());
+            fail("accepted a machine with no rotors");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            new MultiMachine(spec, 0);
+            fail("accepted a multi-machine with no lanes");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
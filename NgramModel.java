@@ -0,0 +1,114 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Log probabilities of the bigrams and trigrams of a language over an
+ *  alphabet, estimated from a sample text, for scoring candidate
+ *  decryptions.  The tables are flat arrays indexed by alphabet indices:
+ *  bigram AB is at A * size + B, and trigram ABC at (A * size + B) *
+ *  size + C.  Trigrams are kept only for alphabets of at most
+ *  TRIGRAM_LIMIT characters.  Scoring looks only at these arrays, so it
+ *  allocates nothing.
+ *  @author Agam Gupta
+ */
+class NgramModel {
+
+    /** A model over ALPHABET estimated from TEXT.  A character of TEXT
+     *  not in ALPHABET, unless its upper-case form is, separates the
+     *  n-grams on either side of it.  Each n-gram is counted as seen
+     *  FLOOR times more than it was, so that none is impossible. */
+    NgramModel(Alphabet alphabet, CharSequence text) {
+        int size = alphabet.size();
+        if (size > BIGRAM_LIMIT) {
+            throw error("alphabet too large for an n-gram model");
+        }
+        _size = size;
+        _bigrams = new float[size * size];
+        _trigrams = size <= TRIGRAM_LIMIT ? new float[size * size * size]
+            : null;
+        int a = -1, b = -1;
+        for (int i = 0; i < text.length(); i += 1) {
+            char ch = text.charAt(i);
+            if (!alphabet.contains(ch)) {
+                ch = Character.toUpperCase(ch);
+            }
+            int c = alphabet.contains(ch) ? alphabet.toInt(ch) : -1;
+            if (c >= 0 && b >= 0) {
+                _bigrams[b * size + c] += 1;
+                if (a >= 0 && _trigrams != null) {
+                    _trigrams[(a * size + b) * size + c] += 1;
+                }
+            }
+            a = b;
+            b = c;
+        }
+        toLogs(_bigrams);
+        if (_trigrams != null) {
+            toLogs(_trigrams);
+        }
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return my bigram log probabilities. */
+    float[] bigrams() {
+        return _bigrams;
+    }
+
+    /** Return my trigram log probabilities, or null if I have none. */
+    float[] trigrams() {
+        return _trigrams;
+    }
+
+    /** Return the log probability of the first LENGTH characters of
+     *  TEXT, given as alphabet indices: the sum of the log probabilities
+     *  of its trigrams, or of its bigrams if I have no trigrams. */
+    double score(int[] text, int length) {
+        int size = _size;
+        double sum = 0;
+        if (_trigrams == null) {
+            float[] bigrams = _bigrams;
+            for (int i = 1; i < length; i += 1) {
+                sum += bigrams[text[i - 1] * size + text[i]];
+            }
+            return sum;
+        }
+        float[] trigrams = _trigrams;
+        for (int i = 2; i < length; i += 1) {
+            sum += trigrams[(text[i - 2] * size + text[i - 1]) * size
+                            + text[i]];
+        }
+        return sum;
+    }
+
+    /** Replace the counts in TABLE by the logs of their smoothed relative
+     *  frequencies. */
+    private static void toLogs(float[] table) {
+        double total = 0;
+        for (float count : table) {
+            total += count + FLOOR;
+        }
+        for (int i = 0; i < table.length; i += 1) {
+            table[i] = (float) Math.log((table[i] + FLOOR) / total);
+        }
+    }
+
+    /** Largest alphabet with a model. */
+    static final int BIGRAM_LIMIT = 1024;
+
+    /** Largest alphabet whose model has trigrams. */
+    static final int TRIGRAM_LIMIT = 64;
+
+    /** Count added to every n-gram. */
+    static final double FLOOR = 0.01;
+
+    /** Size of my alphabet. */
+    private final int _size;
+    /** Log probability of each bigram. */
+    private final float[] _bigrams;
+    /** Log probability of each trigram, or null. */
+    private final float[] _trigrams;
+}
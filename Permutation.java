@@ -1,10 +1,8 @@
 package enigma;
 
-import static enigma.EnigmaException.*;
-
+import java.util.Arrays;
 
-import java.util.HashMap;
-import java.util.Map;
+import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
  *  to the characters of an alphabet.
@@ -17,114 +15,127 @@ class Permutation {
      *  is interpreted as a permutation in cycle notation.  Characters in the
      *  alphabet that are not included in any cycle map to themselves.
      *  Whitespace is ignored. */
-    private Map<Character, Character> permutation = new HashMap<>();
-    /** inversing hashmap. */
-    private Map<Character, Character> invPermutation = new HashMap<>();
-
-
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        int j = 0;
-        int waste = 0;
-        for (int i = 0; i < cycles.length(); i++) {
-            if (cycles.charAt(i) == '(') {
-                j = i + 1;
-            } else if (i < cycles.length() - 1 && cycles.charAt(i + 1) == ')') {
-
-                permutation.put(cycles.charAt(i), cycles.charAt(j));
-
-            } else if (_alphabet.contains(cycles.charAt(i))) {
-                permutation.put(cycles.charAt(i), cycles.charAt(i + 1));
-            }
-
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        for (int k = 0; k < size(); k++) {
+            _forward[k] = _inverse[k] = -1;
         }
-        for (int k = 0; k < _alphabet.size(); k++) {
-            if (cycles.indexOf(_alphabet.toChar(k)) > -1) {
-                waste++;
-            }   else {
-                permutation.put(_alphabet.toChar
-                    (k), _alphabet.toChar(k));
-                count++;
+        int start = -1;
+        for (int i = 0; i < cycles.length(); i++) {
+            char c = cycles.charAt(i);
+            if (c == '(') {
+                if (start >= 0) {
+                    throw error("nested '(' in cycles %s", cycles);
+                }
+                start = i + 1;
+            } else if (c == ')') {
+                if (start < 0) {
+                    throw error("unmatched ')' in cycles %s", cycles);
+                }
+                addCycle(cycles.substring(start, i));
+                start = -1;
+            } else if (start < 0 && !Character.isWhitespace(c)) {
+                throw error("character '%c' outside of a cycle", c);
             }
         }
-
-        String inverseCycles = "";
-        for (int i = cycles.length() - 1; i > -1; i--) {
-            inverseCycles = inverseCycles + cycles.charAt(i);
+        if (start >= 0) {
+            throw error("unterminated cycle in %s", cycles);
         }
-
-
-        int l = 0;
-        for (int i = 0; i < inverseCycles.length(); i++) {
-
-            if (inverseCycles.charAt(i) == ')') {
-                l = i + 1;
-            } else if (i < inverseCycles.length() - 1
-                    && inverseCycles.charAt(i + 1) == '(') {
-
-                invPermutation.put(inverseCycles.charAt(i),
-                        inverseCycles.charAt(l));
-            } else if (_alphabet.contains(inverseCycles.charAt(i))) {
-                invPermutation.put(inverseCycles.charAt(i),
-                        inverseCycles.charAt(i + 1));
+        for (int k = 0; k < size(); k++) {
+            if (_forward[k] < 0) {
+                _forward[k] = _inverse[k] = k;
             }
         }
+    }
 
-
-        for (int k = 0; k < _alphabet.size(); k++) {
-            if (inverseCycles.indexOf(_alphabet.toChar(k)) > -1) {
-                waste++;
-            }   else {
-                invPermutation.put(
-                    _alphabet.toChar(k), _alphabet.toChar(k));
+    /** Set this Permutation to the one taking each index K of ALPHABET to
+     *  FORWARD[K], which must be a permutation of those indices. */
+    Permutation(int[] forward, Alphabet alphabet) {
+        if (forward.length != alphabet.size()) {
+            throw error("permutation table has the wrong size");
+        }
+        _alphabet = alphabet;
+        _forward = forward.clone();
+        _inverse = new int[forward.length];
+        Arrays.fill(_inverse, -1);
+        for (int k = 0; k < forward.length; k++) {
+            int v = forward[k];
+            if (v < 0 || v >= forward.length || _inverse[v] >= 0) {
+                throw error("permutation table is not a permutation");
             }
+            _inverse[v] = k;
         }
     }
 
     /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
      *  c0c1...cm. */
     private void addCycle(String cycle) {
-
+        cycle = cycle.strip();
+        for (int i = 0; i < cycle.length(); i++) {
+            int from = _alphabet.toInt(cycle.charAt(i));
+            int to = _alphabet.toInt(cycle.charAt((i + 1) % cycle.length()));
+            if (_forward[from] >= 0) {
+                throw error("character '%c' appears in more than one place",
+                            cycle.charAt(i));
+            }
+            _forward[from] = to;
+            _inverse[to] = from;
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
     final int wrap(int p) {
-        int r = p % size();
+        int n = size();
+        if (p >= 0 && p < n) {
+            return p;
+        }
+        int r = p % n;
         if (r < 0) {
-            r += size();
+            r += n;
         }
         return r;
     }
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        return _alphabet.toInt(permutation.
-                get(_alphabet.toChar(p % size())));
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        return _alphabet.toInt(invPermutation.
-                get(_alphabet.toChar(c % size())));
+        return _inverse[wrap(c)];
+    }
+
+    /** Return the image of each index under this permutation, as a table
+     *  that must not be modified. */
+    int[] forwardTable() {
+        return _forward;
+    }
+
+    /** Return the image of each index under the inverse of this
+     *  permutation, as a table that must not be modified. */
+    int[] inverseTable() {
+        return _inverse;
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        return permutation.get(p);
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        return invPermutation.get(c);
-
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -135,14 +146,33 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        if (count > 0) {
-            return false;
+        for (int k = 0; k < size(); k++) {
+            if (_forward[k] == k) {
+                return false;
+            }
         }
         return true;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Permutation)) {
+            return false;
+        }
+        Permutation other = (Permutation) obj;
+        return _alphabet == other._alphabet
+            && Arrays.equals(_forward, other._forward);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(_forward);
+    }
+
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
-    /** counting for derangement. */
-    private int count = 0;
+    /** Image of each index under this permutation. */
+    private final int[] _forward;
+    /** Image of each index under the inverse of this permutation. */
+    private final int[] _inverse;
 }
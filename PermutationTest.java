@@ -5,6 +5,11 @@ import org.junit.Rule;
 import org.junit.rules.Timeout;
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import static enigma.TestUtils.*;
 
 /** The suite of all JUnit tests for the Permutation class.
@@ -45,6 +50,58 @@ public class PermutationTest {
         }
     }
 
+    /** Return a string of N distinct characters usable in an alphabet,
+     *  starting at START. */
+    private static String symbols(char start, int n) {
+        StringBuilder result = new StringBuilder();
+        for (char c = start; result.length() < n; c += 1) {
+            if (c != '(' && c != ')' && c != '*'
+                && !Character.isWhitespace(c)) {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Check that perm is a random permutation of the N characters of
+     *  an alphabet starting at START, in cycle notation, and that its
+     *  forward and inverse tables agree on every index. */
+    private void checkRandomPerm(char start, int n, long seed) {
+        Random random = new Random(seed);
+        String chars = symbols(start, n);
+        Alphabet alphabet = new Alphabet(chars);
+        List<Character> shuffled = new ArrayList<>();
+        for (char c : chars.toCharArray()) {
+            shuffled.add(c);
+        }
+        Collections.shuffle(shuffled, random);
+        int[] expected = new int[n];
+        StringBuilder cycles = new StringBuilder();
+        for (int i = 0; i < n; ) {
+            int len = Math.min(n - i, 1 + random.nextInt(40));
+            cycles.append('(');
+            for (int j = 0; j < len; j += 1) {
+                cycles.append(shuffled.get(i + j));
+                expected[alphabet.toInt(shuffled.get(i + j))] =
+                    alphabet.toInt(shuffled.get(i + (j + 1) % len));
+            }
+            cycles.append(") ");
+            i += len;
+        }
+        perm = new Permutation(cycles.toString(), alphabet);
+        assertEquals(n, perm.size());
+        for (int k = 0; k < n; k += 1) {
+            String testId = "random " + n + " at " + k;
+            assertEquals(testId, expected[k], perm.permute(k));
+            assertEquals(testId, k, perm.invert(perm.permute(k)));
+            assertEquals(testId, k, perm.permute(perm.invert(k)));
+            assertEquals(testId, chars.charAt(expected[k]),
+                         perm.permute(chars.charAt(k)));
+            assertEquals(testId, chars.charAt(k),
+                         perm.invert(chars.charAt(expected[k])));
+        }
+    }
+
     /* ***** TESTS ***** */
     @Test
     public void check() {
@@ -82,4 +139,21 @@ public class PermutationTest {
         checkPerm("identity", UPPER_STRING, UPPER_STRING);
     }
 
+    @Test
+    public void checkLargeRandomPerms() {
+        checkRandomPerm('A', 1000, 1);
+        checkRandomPerm('A', 4000, 2);
+        checkRandomPerm('\u4e00', 20000, 3);
+    }
+
+    @Test
+    public void checkWrapAndDerangement() {
+        perm = new Permutation("(AB) (CD)", new Alphabet("ABCD"));
+        assertEquals(1, perm.permute(-4));
+        assertEquals(3, perm.invert(6));
+        assertTrue(perm.derangement());
+        perm = new Permutation("(AB) (C)", new Alphabet("ABCD"));
+        assertFalse(perm.derangement());
+    }
+
 }
@@ -13,6 +13,16 @@ class Reflector extends FixedRotor {
         super(name, perm);
     }
 
+    /** A copy of OTHER. */
+    Reflector(Reflector other) {
+        super(other);
+    }
+
+    @Override
+    Reflector copy() {
+        return new Reflector(this);
+    }
+
     boolean reflecting() {
         return true;
     }
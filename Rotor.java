@@ -14,6 +14,39 @@ class Rotor {
         _setting = 0;
     }
 
+    /** A rotor with the same name, permutation, notches and setting as
+     *  OTHER, sharing its precomputed tables but moving independently.
+     *  Several threads may copy the same rotor at once. */
+    Rotor(Rotor other) {
+        synchronized (other) {
+            other.compiled();
+            other.notchTable();
+            _name = other._name;
+            _permutation = other._permutation;
+            _setting = other._setting;
+            _offset = other._offset;
+            _forwardTable = other._forwardTable;
+            _backwardTable = other._backwardTable;
+            _notchTable = other._notchTable;
+            _tableLimit = other._tableLimit;
+        }
+    }
+
+    /** Return a copy of me (see Rotor(Rotor)). */
+    Rotor copy() {
+        return new Rotor(this);
+    }
+
+    /** Return a copy of me (see copy()) whose tableLimit() is LIMIT. */
+    final Rotor withTableLimit(int limit) {
+        Rotor rotor = copy();
+        rotor._tableLimit = limit;
+        if (size() > limit) {
+            rotor._forwardTable = rotor._backwardTable = null;
+        }
+        return rotor;
+    }
+
     /** Return my name. */
     String name() {
         return _name;
@@ -52,22 +85,24 @@ class Rotor {
     /** Set setting() to POSN.  */
     void set(int posn) {
         _setting = _permutation.wrap(posn);
+        _offset = _setting * size();
     }
 
     /** Set setting() to character CPOSN. */
     void set(char cposn) {
         _setting = alphabet().toInt(cposn);
+        _offset = _setting * size();
     }
 
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
+        if (compiled()) {
+            return _forwardTable[_offset + p];
+        }
         int result = 0;
         result = _permutation.wrap(p + _setting);
         result = _permutation.permute(result);
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(result));
-        }
         result = _permutation.wrap(result - _setting);
         return result;
     }
@@ -75,16 +110,63 @@ class Rotor {
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
+        if (compiled()) {
+            return _backwardTable[_offset + e];
+        }
         int result = 0;
         result = _permutation.wrap(e + _setting);
         result = _permutation.invert(result);
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(result));
-        }
         result = _permutation.wrap(result - _setting);
         return result;
     }
 
+    /** Return my conversions in the forward direction as a table indexed
+     *  by setting * size() + input, or null if my alphabet is larger than
+     *  tableLimit().  The result must not be modified. */
+    final int[] forwardTable() {
+        return compiled() ? _forwardTable : null;
+    }
+
+    /** Return my conversions in the backward direction, laid out as for
+     *  forwardTable(), or null. */
+    final int[] backwardTable() {
+        return compiled() ? _backwardTable : null;
+    }
+
+    /** Return true iff my conversions are available as tables indexed
+     *  by setting and input, building the tables on first use.  Rotors
+     *  whose alphabets are larger than tableLimit() are never compiled
+     *  and use the modular arithmetic in convertForward and
+     *  convertBackward instead. */
+    private boolean compiled() {
+        if (_forwardTable == null) {
+            int n = size();
+            if (n > _tableLimit) {
+                return false;
+            }
+            int[] forward = new int[n * n];
+            int[] backward = new int[n * n];
+            for (int s = 0; s < n; s += 1) {
+                for (int p = 0; p < n; p += 1) {
+                    forward[s * n + p] =
+                        _permutation.wrap(_permutation.permute(p + s) - s);
+                    backward[s * n + p] =
+                        _permutation.wrap(_permutation.invert(p + s) - s);
+                }
+            }
+            _backwardTable = backward;
+            _forwardTable = forward;
+        }
+        return true;
+    }
+
+    /** Return the largest alphabet size for which I precompute my
+     *  conversion tables: TABLE_LIMIT, unless I was made by
+     *  withTableLimit. */
+    final int tableLimit() {
+        return _tableLimit;
+    }
+
     /** Returns the positions of the notches, as a string giving the letters
      *  on the ring at which they occur. */
     String notches() {
@@ -94,10 +176,21 @@ class Rotor {
     /** Returns true iff I am positioned to allow the rotor to my left
      *  to advance. */
     boolean atNotch() {
-        if (notches().indexOf(alphabet().toChar(_setting)) > -1) {
-            return true;
+        return notchTable()[_setting];
+    }
+
+    /** Returns a table whose K-th entry is true iff setting K is one of my
+     *  notches.  The result must not be modified. */
+    final boolean[] notchTable() {
+        if (_notchTable == null) {
+            boolean[] table = new boolean[size()];
+            String notches = notches();
+            for (int i = 0; i < notches.length(); i += 1) {
+                table[alphabet().toInt(notches.charAt(i))] = true;
+            }
+            _notchTable = table;
         }
-        return false;
+        return _notchTable;
     }
 
     /** Advance me one position, if possible. By default, does nothing. */
@@ -118,6 +211,31 @@ class Rotor {
     /** seting of rotors. */
     private int _setting = 0;
 
+    /** Start of the row for my current setting in my conversion tables,
+     *  equal to setting() * size(). */
+    private int _offset = 0;
+
+    /** My conversions in the forward direction, indexed by
+     *  setting() * size() + input, or null if not yet compiled. */
+    private int[] _forwardTable;
+
+    /** My conversions in the backward direction, laid out as for
+     *  _forwardTable. */
+    private int[] _backwardTable;
+
+    /** Cached result of notchTable(), or null. */
+    private boolean[] _notchTable;
+
+    /** Largest alphabet size for which I build conversion tables. */
+    private int _tableLimit = TABLE_LIMIT;
+
+    /** Largest alphabet size for which rotors build conversion tables
+     *  unless told otherwise (see withTableLimit).  Each rotor's tables
+     *  take 8 * size() * size() bytes.  The value of the
+     *  enigma.rotorTableLimit system property, or 128. */
+    static final int TABLE_LIMIT =
+        Integer.getInteger("enigma.rotorTableLimit", 128);
+
 
 
 }
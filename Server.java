@@ -0,0 +1,291 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static enigma.EnigmaException.*;
+
+/** A long-running server that converts messages for local clients, so
+ *  that they pay for starting a JVM and reading a configuration only
+ *  once.  It listens on a loopback TCP port or a Unix-domain socket.
+ *
+ *  A request is two lines: a setting line, as in Main's input, and a
+ *  message.  The reply is one line: '+' followed by the conversion of
+ *  the message (without blanks or grouping) by a machine set up
+ *  according to the setting line, or '-' followed by a description of
+ *  what was wrong with the request.  Each request stands alone.  A
+ *  client may send any number of requests without waiting for replies
+ *  (pipelining); they are answered in order, and replies are flushed
+ *  only when no further request has already arrived.  Lines are in
+ *  UTF-8 and end with a newline.  A line of more than MAX_LINE
+ *  characters is answered with '-', after which nothing more is sent
+ *  on that connection, since what follows cannot be matched up with
+ *  requests.
+ *
+ *  All connections share the server's spec, which is immutable; each
+ *  connection is handled by a task of its own with its own machine and
+ *  cache of setting lines.
+ *  @author Agam Gupta
+ */
+class Server implements Closeable {
+
+    /** The greatest number of characters in a line of a request. */
+    static final int MAX_LINE = 1 << 20;
+
+    /** A server converting with machines built to SPEC. */
+    Server(MachineSpec spec) {
+        _spec = spec;
+    }
+
+    /** Count the requests I handle, their latencies, the characters I
+     *  convert, and the lookups in my caches of settings in METRICS, or
+     *  in nothing if METRICS is null. */
+    void setMetrics(Metrics metrics) {
+        _metrics = metrics;
+    }
+
+    /** Start listening at ADDRESS, which is either a port number, for a
+     *  TCP port on the loopback interface (0 for any free port), or the
+     *  path of a Unix-domain socket to create.  Return the address
+     *  actually bound. */
+    SocketAddress bind(String address) throws IOException {
+        if (_channel != null) {
+            throw error("server is already bound");
+        }
+        if (address.matches("\\d+")) {
+            if (address.length() > 5 || Integer.parseInt(address) > 0xffff) {
+                throw error("no port %s", address);
+            }
+            _channel = ServerSocketChannel.open();
+            _channel.bind(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), Integer.parseInt(address)));
+        } else {
+            _channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            _channel.bind(UnixDomainSocketAddress.of(address));
+            _socketPath = Path.of(address);
+        }
+        return _channel.getLocalAddress();
+    }
+
+    /** Accept connections until I am closed, handling each as a task
+     *  run by CONNECTIONS, which is shut down when I return. */
+    void serve(ExecutorService connections) throws IOException {
+        if (_channel == null) {
+            throw error("server is not bound");
+        }
+        try {
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = _channel.accept();
+                } catch (ClosedChannelException excp) {
+                    return;
+                }
+                _clients.add(client);
+                if (!_channel.isOpen()) {
+                    _clients.remove(client);
+                    client.close();
+                    return;
+                }
+                connections.execute(() -> handle(client));
+            }
+        } finally {
+            connections.shutdown();
+        }
+    }
+
+    /** Stop accepting connections and close those that are open, and
+     *  remove my Unix-domain socket, if I have one.  I may be closed
+     *  more than once, from any thread. */
+    @Override
+    public void close() throws IOException {
+        if (_channel != null) {
+            _channel.close();
+        }
+        for (SocketChannel client : _clients) {
+            client.close();
+        }
+        if (_socketPath != null) {
+            Files.deleteIfExists(_socketPath);
+        }
+    }
+
+    /** Answer the requests arriving on CLIENT until it closes its side of
+     *  the connection, and then close CLIENT. */
+    private void handle(SocketChannel client) {
+        Machine mach = _spec.newMachine();
+        mach.setMetrics(_metrics);
+        SettingCache settings = new SettingCache(Main.SETTING_CACHE_SIZE);
+        settings.setListener(_metrics);
+        try (client;
+             Writer out = new BufferedWriter(new OutputStreamWriter(
+                 Channels.newOutputStream(client), UTF_8))) {
+            LineReader in = new LineReader(new InputStreamReader(
+                Channels.newInputStream(client), UTF_8));
+            for (long line = 1; true; line += 2) {
+                String setting, message;
+                try {
+                    setting = in.readLine();
+                    message = setting == null ? null : in.readLine();
+                } catch (EnigmaException excp) {
+                    out.write("-" + excp.getMessage() + "\n");
+                    out.flush();
+                    client.shutdownOutput();
+                    in.skipAll();
+                    break;
+                }
+                if (setting == null) {
+                    break;
+                }
+                long start = System.nanoTime();
+                out.write(reply(mach, settings, setting, message, line,
+                                _metrics));
+                out.write('\n');
+                if (_metrics != null) {
+                    _metrics.setUp();
+                    _metrics.message(System.nanoTime() - start);
+                }
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException excp) {
+            /* The client has gone; there is no one to tell. */
+        } finally {
+            _clients.remove(client);
+        }
+    }
+
+    /** Return the reply to the request made of the lines SETTING and
+     *  MESSAGE (null if missing), which starts at line LINE of its
+     *  connection, using MACH and SETTINGS, and converting MESSAGE from
+     *  the setting's keystream if it has one that is long enough.  The
+     *  characters converted from a keystream are counted in METRICS, if
+     *  it is not null. */
+    private static String reply(Machine mach, SettingCache settings,
+                                String setting, String message, long line,
+                                Metrics metrics) {
+        try {
+            if (message == null) {
+                throw error("request has no message line");
+            }
+            Keystream stream =
+                Main.setUp(mach, settings, setting, line, 1);
+            if (stream == null || message.length() > stream.limit()) {
+                return "+" + mach.convert(message);
+            }
+            char[] chars = message.toCharArray();
+            int n = stream.convert(0, chars, 0, chars.length, chars, 0);
+            if (metrics != null) {
+                metrics.converted(n);
+            }
+            return "+" + new String(chars, 0, n);
+        } catch (EnigmaException excp) {
+            return "-" + excp.getMessage().replace('\n', ' ');
+        }
+    }
+
+    /** Reads the lines of requests, as BufferedReader.readLine would,
+     *  but refuses lines of more than MAX_LINE characters rather than
+     *  buffering them without limit.  Only a newline ends a line; a
+     *  carriage return before it is dropped. */
+    private static final class LineReader {
+
+        /** A reader of the lines of IN. */
+        LineReader(Reader in) {
+            _in = in;
+        }
+
+        /** Return the next line, without its line terminator, or null if
+         *  there are no more lines.  Throws an EnigmaException if the
+         *  line is longer than MAX_LINE characters. */
+        String readLine() throws IOException {
+            StringBuilder line = null;
+            while (true) {
+                if (_pos == _end) {
+                    _pos = _end = 0;
+                    int n = _in.read(_buffer);
+                    if (n < 0) {
+                        return line == null ? null : line.toString();
+                    }
+                    _end = n;
+                }
+                int start = _pos;
+                while (_pos < _end && _buffer[_pos] != '\n') {
+                    _pos += 1;
+                }
+                if (line == null) {
+                    line = new StringBuilder(_pos - start);
+                }
+                if (line.length() + _pos - start > MAX_LINE) {
+                    throw error("request line longer than %d characters",
+                                MAX_LINE);
+                }
+                line.append(_buffer, start, _pos - start);
+                if (_pos < _end) {
+                    _pos += 1;
+                    int last = line.length() - 1;
+                    if (last >= 0 && line.charAt(last) == '\r') {
+                        line.setLength(last);
+                    }
+                    return line.toString();
+                }
+            }
+        }
+
+        /** Read and discard everything up to the end of the input. */
+        void skipAll() throws IOException {
+            _pos = _end = 0;
+            while (_in.read(_buffer) >= 0) {
+                continue;
+            }
+        }
+
+        /** Return true iff a character can be read without blocking. */
+        boolean ready() throws IOException {
+            return _pos < _end || _in.ready();
+        }
+
+        /** The source of my characters. */
+        private final Reader _in;
+        /** Characters read from _in and not yet returned. */
+        private final char[] _buffer = new char[8192];
+        /** Position of the next character in _buffer. */
+        private int _pos;
+        /** End of the characters in _buffer. */
+        private int _end;
+    }
+
+    /** The spec of my machines. */
+    private final MachineSpec _spec;
+    /** The channel on which I accept connections, or null if I am not
+     *  bound. */
+    private ServerSocketChannel _channel;
+    /** The path of my Unix-domain socket, or null. */
+    private Path _socketPath;
+    /** The connections currently open. */
+    private final Set<SocketChannel> _clients =
+        ConcurrentHashMap.newKeySet();
+    /** Where I count my work, or null. */
+    private Metrics _metrics;
+}
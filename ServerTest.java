@@ -0,0 +1,285 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Server class.
+ *  @author Agam Gupta
+ */
+public class ServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Alphabet of the machines tested. */
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    /** Return a spec with 5 slots and 3 pawls, reflector B, non-moving
+     *  rotor Beta, and rotors I through V. */
+    private static MachineSpec spec() {
+        String[] names = { "I", "II", "III", "IV", "V" };
+        String[] notches = { "Q", "E", "V", "J", "Z" };
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B",
+            new Permutation(TestUtils.NAVALA.get("B"), AZ)));
+        rotors.add(new FixedRotor("Beta",
+            new Permutation(TestUtils.NAVALA.get("Beta"), AZ)));
+        for (int k = 0; k < names.length; k += 1) {
+            rotors.add(new MovingRotor(names[k],
+                new Permutation(TestUtils.NAVALA.get(names[k]), AZ),
+                notches[k]));
+        }
+        return new MachineSpec(AZ, 5, 3, rotors);
+    }
+
+    /** Return the setting line of request K. */
+    private static String setting(int k) {
+        String[] orders = { "B Beta I II III", "B Beta V IV I",
+                            "B Beta III V II" };
+        return String.format("* %s %c%c%c%c (AQ) (%cZ)", orders[k % 3],
+                             'A' + k % 26, 'A' + k * 7 % 26,
+                             'A' + k * 11 % 26, 'A' + k * 3 % 26,
+                             'B' + k % 14);
+    }
+
+    /** Return the message of request K. */
+    private static String message(int k) {
+        return "FROM HIS SHOULDER HIAWATHA TOOK THE CAMERA OF ROSEWOOD "
+            .substring(k % 20, 20 + k % 30);
+    }
+
+    /** Return the reply to request K, as computed directly. */
+    private static String expected(int k) {
+        Machine mach = spec().newMachine();
+        Main.setUp(mach, new SettingCache(1), setting(k), 1, 1);
+        return "+" + mach.convert(message(k));
+    }
+
+    /** A server for spec() listening at ADDRESS and serving from a thread
+     *  of its own. */
+    private static final class Running implements AutoCloseable {
+
+        /** Start a server on ADDRESS. */
+        Running(String address) throws IOException {
+            _server = new Server(spec());
+            _address = _server.bind(address);
+            _serving = Executors.newSingleThreadExecutor();
+            _done = _serving.submit(() -> {
+                _server.serve(Executors.newCachedThreadPool());
+                return null;
+            });
+        }
+
+        /** Return a new connection to me. */
+        SocketChannel connect() throws IOException {
+            return SocketChannel.open(_address);
+        }
+
+        @Override
+        public void close() throws IOException, InterruptedException {
+            _server.close();
+            try {
+                _done.get();
+            } catch (ExecutionException excp) {
+                throw new AssertionError("server failed", excp.getCause());
+            } finally {
+                _serving.shutdown();
+            }
+        }
+
+        /** The server. */
+        private final Server _server;
+        /** Its address. */
+        private final SocketAddress _address;
+        /** Runs the server's accept loop. */
+        private final ExecutorService _serving;
+        /** Completes when the accept loop returns. */
+        private final Future<Void> _done;
+    }
+
+    /** Send requests FIRST through FIRST + N - 1 on CLIENT all at once,
+     *  and then check the replies. */
+    private static void assertPipelined(SocketChannel client, int first,
+                                        int n) throws IOException {
+        StringBuilder requests = new StringBuilder();
+        for (int k = first; k < first + n; k += 1) {
+            requests.append(setting(k)).append('\n')
+                .append(message(k)).append('\n');
+        }
+        OutputStream out = Channels.newOutputStream(client);
+        out.write(requests.toString().getBytes(UTF_8));
+        out.flush();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            Channels.newInputStream(client), UTF_8));
+        for (int k = first; k < first + n; k += 1) {
+            assertEquals("request " + k, expected(k), in.readLine());
+        }
+    }
+
+    @Test
+    public void testPipelined() throws Exception {
+        try (Running running = new Running("0");
+             SocketChannel client = running.connect()) {
+            assertPipelined(client, 0, 200);
+            assertPipelined(client, 200, 1);
+        }
+    }
+
+    @Test
+    public void testRecurringSettings() throws Exception {
+        try (Running running = new Running("0");
+             SocketChannel client = running.connect()) {
+            StringBuilder requests = new StringBuilder();
+            List<String> expected = new ArrayList<>();
+            for (int k = 0; k < 4 * SettingCache.KEYSTREAM_USES; k += 1) {
+                String message = k % 5 == 0 ? message(k).repeat(10)
+                    : message(k);
+                requests.append(setting(k % 2)).append('\n')
+                    .append(message).append('\n');
+                Machine mach = spec().newMachine();
+                Main.setUp(mach, new SettingCache(1), setting(k % 2), 1, 1);
+                expected.add("+" + mach.convert(message));
+            }
+            OutputStream out = Channels.newOutputStream(client);
+            out.write(requests.toString().getBytes(UTF_8));
+            client.shutdownOutput();
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(client), UTF_8));
+            for (int k = 0; k < expected.size(); k += 1) {
+                assertEquals("request " + k, expected.get(k), in.readLine());
+            }
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void testBadRequests() throws Exception {
+        try (Running running = new Running("0");
+             SocketChannel client = running.connect()) {
+            OutputStream out = Channels.newOutputStream(client);
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(client), UTF_8));
+            String requests = "* B Beta I II VI AAAA\nHELLO\n"
+                + "B Beta I II III AAAA\nHELLO\n"
+                + "* B Beta I II III AAAA\nHELLO 4\n"
+                + setting(3) + "\n" + message(3) + "\n"
+                + setting(4) + "\n";
+            out.write(requests.getBytes(UTF_8));
+            client.shutdownOutput();
+            for (int k = 0; k < 3; k += 1) {
+                assertTrue(in.readLine().startsWith("-"));
+            }
+            assertEquals(expected(3), in.readLine());
+            assertTrue(in.readLine().startsWith("-"));
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void testLongLine() throws Exception {
+        try (Running running = new Running("0");
+             SocketChannel client = running.connect()) {
+            OutputStream out = Channels.newOutputStream(client);
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(client), UTF_8));
+            char[] longest = new char[Server.MAX_LINE];
+            Arrays.fill(longest, 'A');
+            Machine mach = spec().newMachine();
+            Main.setUp(mach, new SettingCache(1), setting(0), 1, 1);
+            out.write((setting(0) + "\n" + new String(longest) + "\n")
+                      .getBytes(UTF_8));
+            assertEquals("+" + mach.convert(new String(longest)),
+                         in.readLine());
+            out.write(("A" + new String(longest) + "\n" + setting(1) + "\n"
+                       + message(1) + "\n").getBytes(UTF_8));
+            client.shutdownOutput();
+            assertTrue(in.readLine().startsWith("-"));
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void testConcurrentClients() throws Exception {
+        try (Running running = new Running("0")) {
+            ExecutorService clients = Executors.newFixedThreadPool(4);
+            List<Future<Void>> results = new ArrayList<>();
+            for (int c = 0; c < 4; c += 1) {
+                int first = c * 100;
+                results.add(clients.submit(() -> {
+                    try (SocketChannel client = running.connect()) {
+                        assertPipelined(client, first, 100);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnixSocket() throws Exception {
+        Path dir = Files.createTempDirectory("enigma");
+        Path socket = dir.resolve("enigma.sock");
+        try {
+            try (Running running = new Running(socket.toString());
+                 SocketChannel client = running.connect()) {
+                assertTrue(Files.exists(socket));
+                assertPipelined(client, 0, 20);
+            }
+            assertFalse(Files.exists(socket));
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testBadArguments() throws IOException {
+        try (Server server = new Server(spec())) {
+            try {
+                server.serve(Executors.newCachedThreadPool());
+                fail("served without being bound");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+            for (String port : new String[] { "65536", "99999999999" }) {
+                try {
+                    server.bind(port);
+                    fail("bound to port " + port);
+                } catch (EnigmaException excp) {
+                    /* Expected. */
+                }
+            }
+            server.bind("0");
+            try {
+                server.bind("0");
+                fail("bound twice");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+}
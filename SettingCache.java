@@ -0,0 +1,184 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** A bounded, least-recently-used cache of parsed setting lines.  Each
+ *  entry holds what a setting line does to a machine (its rotors, their
+ *  positions, and its plugboard), keyed by the line with its whitespace
+ *  normalized, so that a recurring setting line need not be parsed, nor
+ *  its plugboard built, again.  A setting line that keeps recurring also
+ *  gets a Keystream, so that its messages need not step the rotors.
+ *  @author Agam Gupta
+ */
+class SettingCache {
+
+    /** The effect of one setting line on a machine. */
+    static final class Setting {
+
+        /** A setting that inserts the rotors named ROTORS, sets them to
+         *  POSITIONS, and installs PLUGBOARD. */
+        Setting(String[] rotors, String positions, Permutation plugboard) {
+            _rotors = rotors.clone();
+            _positions = positions;
+            _plugboard = plugboard;
+        }
+
+        /** Configure MACH according to this setting. */
+        void applyTo(Machine mach) {
+            mach.insertRotors(_rotors);
+            mach.setRotors(_positions);
+            mach.setPlugboard(_plugboard);
+        }
+
+        /** Note another use of this setting, which has just been applied
+         *  to MACH, and return the keystream of MACH from there, or null
+         *  if there is none yet.  The keystream is built on my
+         *  KEYSTREAM_USES-th use, since building it costs about as much
+         *  as a dozen passes of the machine through the positions it
+         *  covers, and it covers
+         *  only the first KEYSTREAM_BYTES / alphabet size positions (or
+         *  all of them, if the stepping repeats within those). */
+        Keystream keystream(Machine mach) {
+            _uses += 1;
+            if (_uses == KEYSTREAM_USES) {
+                _keystream = mach.keystream(
+                    Math.max(1, KEYSTREAM_BYTES / mach.alphabet().size()));
+            }
+            return _keystream;
+        }
+
+        /** Names of the rotors to insert. */
+        private final String[] _rotors;
+        /** Initial positions of the rotors. */
+        private final String _positions;
+        /** The plugboard. */
+        private final Permutation _plugboard;
+        /** Number of times keystream has been called. */
+        private int _uses;
+        /** The keystream from this setting, or null. */
+        private Keystream _keystream;
+    }
+
+    /** Receives notice of each lookup in a cache. */
+    interface Listener {
+        /** Note a lookup, which found an entry iff HIT. */
+        void lookedUp(boolean hit);
+    }
+
+    /** A cache holding at most CAPACITY > 0 settings. */
+    SettingCache(int capacity) {
+        if (capacity < 1) {
+            throw error("setting cache capacity must be positive");
+        }
+        _capacity = capacity;
+        _entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Setting>
+                                                eldest) {
+                return size() > _capacity;
+            }
+        };
+    }
+
+    /** Return the setting cached for the normalized setting line KEY (see
+     *  normalize), or null if there is none. */
+    Setting get(String key) {
+        Setting result = _entries.get(key);
+        if (result != null) {
+            _hits += 1;
+        } else {
+            _misses += 1;
+        }
+        if (_listener != null) {
+            _listener.lookedUp(result != null);
+        }
+        return result;
+    }
+
+    /** Cache SETTING for the normalized setting line KEY. */
+    void put(String key, Setting setting) {
+        _entries.put(key, setting);
+    }
+
+    /** Make LISTENER (null for none) receive notice of my lookups. */
+    void setListener(Listener listener) {
+        _listener = listener;
+    }
+
+    /** Return LINE with leading and trailing whitespace removed and all
+     *  other runs of whitespace replaced by single blanks. */
+    static String normalize(String line) {
+        int n = line.length();
+        boolean normal = n > 0 && !isBlank(line.charAt(0))
+            && !isBlank(line.charAt(n - 1));
+        for (int i = 1; normal && i < n; i += 1) {
+            char c = line.charAt(i);
+            normal = !isBlank(c) || c == ' ' && line.charAt(i - 1) != ' ';
+        }
+        if (normal) {
+            return line;
+        }
+        StringBuilder result = new StringBuilder(n);
+        boolean blank = false;
+        for (int i = 0; i < n; i += 1) {
+            char c = line.charAt(i);
+            if (isBlank(c)) {
+                blank = result.length() > 0;
+            } else {
+                if (blank) {
+                    result.append(' ');
+                    blank = false;
+                }
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return true iff C is whitespace. */
+    private static boolean isBlank(char c) {
+        return c <= ' ' || c >= 0x80 && Character.isWhitespace(c);
+    }
+
+    /** Return the number of settings I hold. */
+    int size() {
+        return _entries.size();
+    }
+
+    /** Return the number of lookups that found a setting. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that found nothing. */
+    long misses() {
+        return _misses;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("setting cache: %d hits, %d misses, %d/%d "
+                             + "settings", _hits, _misses, size(),
+                             _capacity);
+    }
+
+    /** Number of uses of a setting after which it gets a keystream. */
+    static final int KEYSTREAM_USES = 16;
+
+    /** Approximate size in bytes of the keystream of a setting. */
+    static final int KEYSTREAM_BYTES = 1 << 12;
+
+    /** Maximum number of settings held. */
+    private final int _capacity;
+    /** The cached settings, least recently used first. */
+    private final LinkedHashMap<String, Setting> _entries;
+    /** Receives notice of lookups, or null. */
+    private Listener _listener;
+    /** Number of lookups that found a setting. */
+    private long _hits;
+    /** Number of lookups that found nothing. */
+    private long _misses;
+}
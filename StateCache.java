@@ -0,0 +1,130 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** A bounded cache of whole-machine substitutions.  A substitution maps
+ *  every input index to the output of one full pass through the
+ *  plugboard, rotors and reflector at particular rotor settings.
+ *  Substitutions are kept in groups sharing the settings of all but the
+ *  fast rotor, keyed by those settings packed into a long, and each
+ *  group holds one (lazily computed) substitution per setting of the
+ *  fast rotor.  A machine therefore looks up a group only when one of
+ *  its slower rotors moves.
+ *
+ *  The cache is 4-way set associative: each key may live in one of four
+ *  slots, and a new group evicts the least recently used of those.
+ *  Lookups allocate nothing.
+ *  @author Agam Gupta
+ */
+class StateCache {
+
+    /** A cache holding at most CAPACITY groups, rounded down to a power
+     *  of two no smaller than WAYS. */
+    StateCache(int capacity) {
+        if (capacity < 1) {
+            throw error("state cache capacity must be positive");
+        }
+        int sets = Integer.highestOneBit(Math.max(1, capacity / WAYS));
+        _mask = sets - 1;
+        _keys = new long[sets * WAYS];
+        _groups = new int[sets * WAYS][][];
+        _stamps = new long[sets * WAYS];
+    }
+
+    /** Return the group of substitutions cached under KEY, adding an
+     *  empty group of WIDTH substitutions if there is none. */
+    int[][] group(long key, int width) {
+        int base = setOf(key);
+        int victim = base;
+        _clock += 1;
+        for (int i = base; i < base + WAYS; i += 1) {
+            if (_groups[i] == null) {
+                victim = i;
+                break;
+            } else if (_keys[i] == key && _groups[i].length == width) {
+                _stamps[i] = _clock;
+                return _groups[i];
+            } else if (_stamps[i] < _stamps[victim]) {
+                victim = i;
+            }
+        }
+        if (_groups[victim] == null) {
+            _size += 1;
+        }
+        _keys[victim] = key;
+        _groups[victim] = new int[width][];
+        _stamps[victim] = _clock;
+        return _groups[victim];
+    }
+
+    /** Return the index of the first slot that may hold KEY. */
+    private int setOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return ((int) (h >>> 32) & _mask) * WAYS;
+    }
+
+    /** Record a conversion that used a cached substitution. */
+    void hit() {
+        _hits += 1;
+    }
+
+    /** Record a conversion that had to compute its substitution. */
+    void miss() {
+        _misses += 1;
+    }
+
+    /** Discard all entries, keeping the hit and miss counts. */
+    void clear() {
+        Arrays.fill(_groups, null);
+        _size = 0;
+    }
+
+    /** Return the maximum number of groups I hold. */
+    int capacity() {
+        return _groups.length;
+    }
+
+    /** Return the number of groups I currently hold. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of conversions that used a cached
+     *  substitution. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of conversions that computed a substitution. */
+    long misses() {
+        return _misses;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("state cache: %d hits, %d misses, %d/%d groups",
+                             _hits, _misses, size(), capacity());
+    }
+
+    /** Number of slots in which a given key may be stored. */
+    static final int WAYS = 4;
+
+    /** One less than the number of sets of WAYS slots. */
+    private final int _mask;
+    /** Key stored in each slot. */
+    private final long[] _keys;
+    /** Group stored in each slot, or null if the slot is empty. */
+    private final int[][][] _groups;
+    /** Value of _clock when each slot was last used. */
+    private final long[] _stamps;
+    /** Count of group lookups. */
+    private long _clock;
+    /** Number of non-empty slots. */
+    private int _size;
+    /** Number of conversions that used a cached substitution. */
+    private long _hits;
+    /** Number of conversions that computed a substitution. */
+    private long _misses;
+}
@@ -1,6 +1,7 @@
 package enigma;
 
 import java.util.HashMap;
+import java.util.Random;
 
 /** Utility definitions for use in unit tests.
  *  @author P. N. Hilfinger
@@ -126,4 +127,42 @@ class TestUtils {
         NAVALZ_MAP.put("Gamma", "EGTPLBOVFSINCUJZDXMRQAYWHK");
     }
 
+    /** A check made of a machine drawn at random. */
+    interface MachineCheck {
+        /** Check MACH, the random machine made from SEED, drawing on
+         *  RANDOM (which made MACH) for anything else random. */
+        void check(long seed, Machine mach, Random random);
+    }
+
+    /** Make CHECK of the random machines (see MachineTest.randomMachine)
+     *  made from seeds 0 through SEEDS - 1, as they are iff TABLES, and
+     *  otherwise without rotor tables (see withoutTables). */
+    static void forRandomMachines(int seeds, boolean tables,
+                                  MachineCheck check) {
+        for (long seed = 0; seed < seeds; seed += 1) {
+            Random random = new Random(seed);
+            Machine mach = MachineTest.randomMachine(random);
+            check.check(seed, tables ? mach : withoutTables(mach), random);
+        }
+    }
+
+    /** Return a machine with the same rotors, settings and plugboard as
+     *  MACH, but whose rotors convert without tables. */
+    static Machine withoutTables(Machine mach) {
+        Machine plain = mach.spec().withTableLimit(0).newMachine();
+        String[] names = new String[mach.numRotors()];
+        StringBuilder settings = new StringBuilder();
+        for (int i = 0; i < names.length; i += 1) {
+            names[i] = mach.getRotor(i).name();
+            if (i > 0) {
+                settings.append(mach.alphabet()
+                                .toChar(mach.getRotor(i).setting()));
+            }
+        }
+        plain.insertRotors(names);
+        plain.setRotors(settings.toString());
+        plain.setPlugboard(mach.plugboard());
+        return plain;
+    }
+
 }
@@ -0,0 +1,139 @@
+package enigma;
+
+/** Splits configuration files and setting lines into whitespace-separated
+ *  tokens and cycles, keeping track of line and column numbers for error
+ *  messages.  Nothing here uses regular expressions.
+ *  @author Agam Gupta
+ */
+class Tokenizer {
+
+    /** A tokenizer for TEXT, which starts at line 1, column 1. */
+    Tokenizer(CharSequence text) {
+        this(text, 1, 1);
+    }
+
+    /** A tokenizer for TEXT, whose first character is at line LINE,
+     *  column COLUMN. */
+    Tokenizer(CharSequence text, long line, int column) {
+        _text = text;
+        _line = _tokenLine = line;
+        _lineStart = 1 - column;
+        _tokenColumn = column;
+    }
+
+    /** Return true iff any tokens remain. */
+    boolean hasNext() {
+        skipWhitespace();
+        return _pos < _text.length();
+    }
+
+    /** Return true iff the next token starts with a cycle. */
+    boolean atCycle() {
+        return hasNext() && _text.charAt(_pos) == '(';
+    }
+
+    /** Return the next token, which is described by WHAT for the error
+     *  reported if there is none. */
+    String next(String what) {
+        if (!hasNext()) {
+            mark();
+            throw error("expected %s", what);
+        }
+        mark();
+        int start = _pos;
+        while (_pos < _text.length() && !isBlank(_text.charAt(_pos))) {
+            _pos += 1;
+        }
+        return _text.subSequence(start, _pos).toString();
+    }
+
+    /** Return the next token as a non-negative integer, which is
+     *  described by WHAT in error messages. */
+    int nextInt(String what) {
+        String token = next(what);
+        int result = 0;
+        for (int i = 0; i < token.length(); i += 1) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9' || result > (Integer.MAX_VALUE - 9) / 10) {
+                throw error("%s must be a number, not '%s'", what, token);
+            }
+            result = 10 * result + c - '0';
+        }
+        return result;
+    }
+
+    /** Return the contents of the next cycle, "(c...)", whose characters
+     *  must all be in ALPHABET.  Cycles in one token need not be separated
+     *  by whitespace. */
+    String nextCycle(Alphabet alphabet) {
+        if (!atCycle()) {
+            mark();
+            throw error("expected '('");
+        }
+        mark();
+        int start = _pos + 1;
+        for (_pos = start; ; _pos += 1) {
+            if (_pos == _text.length() || isBlank(_text.charAt(_pos))) {
+                throw error("unterminated cycle");
+            }
+            char c = _text.charAt(_pos);
+            if (c == ')') {
+                break;
+            } else if (!alphabet.contains(c)) {
+                throw error("character '%c' not in alphabet", c);
+            }
+        }
+        String cycle = _text.subSequence(start, _pos).toString();
+        _pos += 1;
+        if (_pos < _text.length() && !isBlank(_text.charAt(_pos))
+            && _text.charAt(_pos) != '(') {
+            throw error("junk after cycle");
+        }
+        return cycle;
+    }
+
+    /** Return an exception reporting an error at the start of the last
+     *  token or cycle read, with a message formed from MSGFORMAT and
+     *  ARGUMENTS as for String.format. */
+    EnigmaException error(String msgFormat, Object... arguments) {
+        return EnigmaException.error("line %d, column %d: %s", _tokenLine,
+                                     _tokenColumn,
+                                     String.format(msgFormat, arguments));
+    }
+
+    /** Record the current position as the start of a token. */
+    private void mark() {
+        _tokenLine = _line;
+        _tokenColumn = (int) (_pos - _lineStart + 1);
+    }
+
+    /** Advance past any whitespace, counting lines. */
+    private void skipWhitespace() {
+        while (_pos < _text.length() && isBlank(_text.charAt(_pos))) {
+            if (_text.charAt(_pos) == '\n') {
+                _line += 1;
+                _lineStart = _pos + 1;
+            }
+            _pos += 1;
+        }
+    }
+
+    /** Return true iff C separates tokens. */
+    private static boolean isBlank(char c) {
+        return c <= ' ' || Character.isWhitespace(c);
+    }
+
+    /** The text being split. */
+    private final CharSequence _text;
+    /** Position of the next character of _text to examine. */
+    private int _pos;
+    /** The line number of the character at _pos. */
+    private long _line;
+    /** The position in _text of the first character of the current line,
+     *  which may be negative for the first line of _text. */
+    private long _lineStart;
+    /** Line number of the start of the last token. */
+    private long _tokenLine;
+    /** Column number of the start of the last token. */
+    private int _tokenColumn;
+}
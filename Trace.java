@@ -0,0 +1,356 @@
+package enigma;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static enigma.EnigmaException.*;
+
+/** A trace of the keystrokes of one machine, as used by --verbose and
+ *  --trace.  Each keystroke is kept as a fixed-size record of chars in a
+ *  ring buffer: the settings of the rotors and the index of the
+ *  character at each stage of its conversion.  The records are drained
+ *  either by a background thread that writes them to a binary trace file
+ *  or, if there is none, by the thread producing them, which renders
+ *  them as text at the end of each line (or when the ring is full).
+ *  Only every Nth message line is traced, for a sampling rate N.
+ *
+ *  A trace file holds, in big-endian order:
+ *  <pre>
+ *      int     MAGIC
+ *      int     VERSION
+ *      int     number of rotor slots S
+ *      int     sampling rate
+ *      int     alphabet size, followed by that many chars: the alphabet
+ *      records of 3S + 2 chars each
+ *  </pre>
+ *  Each record starts with KEY or MESSAGE.  A KEY record then holds the
+ *  settings of the S - 1 rotors after the reflector, the input index, the
+ *  index after the plugboard, the index at the contact of each rotor
+ *  after its forward conversion (from the fast rotor to the reflector)
+ *  and backward conversion (back to the fast rotor), and the output.  A
+ *  MESSAGE record holds the number of the message line that follows as
+ *  four chars, most significant first.  Rendering gives the same text
+ *  --verbose has always printed, and labels each message of a sampled
+ *  trace.
+ *  @author Agam Gupta
+ */
+class Trace {
+
+    /** A trace of keystrokes of a machine with SLOTS rotor slots over
+     *  ALPHABET, recording every SAMPLEth message line, in a ring of at
+     *  least CAPACITY records. */
+    Trace(Alphabet alphabet, int slots, int sample, int capacity) {
+        if (sample < 1 || capacity < 1 || slots < 1) {
+            throw error("bad trace sampling rate, capacity, or slots");
+        }
+        _alphabet = alphabet;
+        _slots = slots;
+        _sample = sample;
+        _recordSize = 3 * slots + 2;
+        _capacity = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        _ring = new char[_capacity * _recordSize];
+    }
+
+    /** Render my records as text on TEXT as they are drained. */
+    void renderTo(Writer text) {
+        _text = text;
+    }
+
+    /** Write the header of a trace file to OUT and start a background
+     *  thread that writes my records to OUT until I am closed, and then
+     *  closes OUT. */
+    void startWriter(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(_slots);
+        data.writeInt(_sample);
+        data.writeInt(_alphabet.size());
+        data.writeChars(_alphabet.toString());
+        data.flush();
+        _binary = out;
+        _bytes = ByteBuffer.allocate(_ring.length * 2);
+        _writer = new Thread(this::drainInBackground, "enigma-trace");
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    /** Return the number of chars in each of my records. */
+    int recordSize() {
+        return _recordSize;
+    }
+
+    /** Note the start of a message line, deciding whether it is one
+     *  to trace. */
+    void startMessage() {
+        _messages += 1;
+        _active = (_messages - 1) % _sample == 0;
+        if (_active) {
+            int off = claim();
+            _ring[off] = MESSAGE;
+            for (int i = 1; i <= 4; i += 1) {
+                _ring[off + i] = (char) (_messages >>> (64 - 16 * i));
+            }
+            commit();
+        }
+    }
+
+    /** Return true iff keystrokes of the current message line are to
+     *  be traced. */
+    boolean active() {
+        return _active;
+    }
+
+    /** Return the array into which records are written. */
+    char[] buffer() {
+        return _ring;
+    }
+
+    /** Return the offset in buffer() at which to write a new record,
+     *  waiting for room if necessary.  The record must be completed with
+     *  commit before the next call. */
+    int claim() {
+        if (_produced - _consumed == _capacity) {
+            _consumed = _tail.get();
+            if (_produced - _consumed == _capacity) {
+                waitForRoom();
+            }
+        }
+        return (int) (_produced & (_capacity - 1)) * _recordSize;
+    }
+
+    /** Complete the record started by the last claim. */
+    void commit() {
+        _produced += 1;
+        _head.lazySet(_produced);
+    }
+
+    /** Note the end of a line of input.  Without a background writer,
+     *  render the records so far. */
+    void endLine() throws IOException {
+        if (_writer == null) {
+            drain();
+            if (_text != null) {
+                _text.flush();
+            }
+        }
+    }
+
+    /** Drain all records, stop any background writer (closing its
+     *  output), and flush my text output. */
+    void close() throws IOException {
+        if (_writer == null) {
+            endLine();
+            return;
+        }
+        _closed = true;
+        LockSupport.unpark(_writer);
+        try {
+            _writer.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        _writer = null;
+        if (_failure != null) {
+            throw _failure;
+        }
+    }
+
+    /** Make room for a record, either by draining the ring myself or by
+     *  waiting for the background writer to do so. */
+    private void waitForRoom() {
+        while (_produced - _consumed == _capacity) {
+            if (_writer == null) {
+                try {
+                    drain();
+                } catch (IOException excp) {
+                    throw error("could not write trace: %s",
+                                excp.getMessage());
+                }
+            } else if (!_writer.isAlive()) {
+                throw error("could not write trace: %s",
+                            _failure == null ? "writer stopped"
+                            : _failure.getMessage());
+            } else {
+                LockSupport.unpark(_writer);
+                LockSupport.parkNanos(PAUSE);
+            }
+            _consumed = _tail.get();
+        }
+    }
+
+    /** Body of the background writer: drain the ring into _binary until
+     *  I am closed. */
+    private void drainInBackground() {
+        try {
+            while (true) {
+                boolean closed = _closed;
+                drain();
+                if (closed) {
+                    break;
+                } else if (_head.get() == _tail.get()) {
+                    LockSupport.parkNanos(PAUSE);
+                }
+            }
+            _binary.close();
+        } catch (IOException excp) {
+            _failure = excp;
+        }
+    }
+
+    /** Write out all committed records, as text if I have a Writer and
+     *  otherwise in binary. */
+    private void drain() throws IOException {
+        long head = _head.get();
+        long tail = _tail.get();
+        while (tail < head) {
+            int from = (int) (tail & (_capacity - 1));
+            int n = (int) Math.min(head - tail, _capacity - from);
+            if (_text != null) {
+                render(from * _recordSize, n);
+            } else if (_binary != null) {
+                _bytes.clear();
+                _bytes.asCharBuffer().put(_ring, from * _recordSize,
+                                          n * _recordSize);
+                _binary.write(_bytes.array(), 0, n * _recordSize * 2);
+            }
+            tail += n;
+            _tail.lazySet(tail);
+        }
+    }
+
+    /** Render the N records in my ring starting at OFF on _text. */
+    private void render(int off, int n) throws IOException {
+        StringBuilder text = new StringBuilder(n * _recordSize * 5);
+        for (int r = off; r < off + n * _recordSize; r += _recordSize) {
+            if (_ring[r] == MESSAGE) {
+                if (_sample > 1) {
+                    long number = 0;
+                    for (int i = 1; i <= 4; i += 1) {
+                        number = (number << 16) | _ring[r + i];
+                    }
+                    text.append("(message ").append(number).append(')')
+                        .append(NEWLINE);
+                }
+                continue;
+            }
+            text.append('[');
+            for (int i = 1; i < _slots; i += 1) {
+                text.append(_alphabet.toChar(_ring[r + i]));
+            }
+            text.append("] ");
+            for (int i = _slots; i < _recordSize; i += 1) {
+                if (i > _slots) {
+                    text.append(" -> ");
+                }
+                text.append(_alphabet.toChar(_ring[r + i]));
+            }
+            text.append(NEWLINE);
+        }
+        _text.write(text.toString());
+    }
+
+    /** Render the trace file read from IN as text on OUT. */
+    static void render(InputStream in, Writer out) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        Trace trace;
+        try {
+            if (data.readInt() != MAGIC) {
+                throw error("not a trace file");
+            } else if (data.readInt() != VERSION) {
+                throw error("unsupported trace file version");
+            }
+            int slots = data.readInt();
+            int sample = data.readInt();
+            char[] chars = new char[data.readInt()];
+            for (int i = 0; i < chars.length; i += 1) {
+                chars[i] = data.readChar();
+            }
+            trace = new Trace(new Alphabet(new String(chars)), slots,
+                              sample, BLOCK);
+        } catch (EOFException excp) {
+            throw error("truncated trace file header");
+        }
+        trace.renderTo(out);
+        byte[] bytes = new byte[trace._ring.length * 2];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int recordBytes = trace._recordSize * 2;
+        int n;
+        while ((n = data.readNBytes(bytes, 0, bytes.length)) > 0) {
+            int records = n / recordBytes;
+            buffer.clear();
+            buffer.asCharBuffer().get(trace._ring, 0,
+                                      records * trace._recordSize);
+            trace.render(0, records);
+            if (n < bytes.length) {
+                break;
+            }
+        }
+        out.flush();
+    }
+
+    /** The first four bytes of every trace file: "ENGT". */
+    static final int MAGIC = 0x454e4754;
+
+    /** The version of the format written. */
+    static final int VERSION = 1;
+
+    /** Kinds of record. */
+    static final char KEY = 'K', MESSAGE = 'M';
+
+    /** Default number of records in the ring. */
+    static final int BLOCK = 1 << 14;
+
+    /** Nanoseconds for which the writer, or a producer waiting for it,
+     *  pauses when there is nothing for it to do. */
+    private static final long PAUSE = 100_000;
+
+    /** The line separator used in rendered traces. */
+    private static final String NEWLINE = System.lineSeparator();
+
+    /** Alphabet of the traced machine. */
+    private final Alphabet _alphabet;
+    /** Number of rotor slots of the traced machine. */
+    private final int _slots;
+    /** Sampling rate: every _sample-th message line is traced. */
+    private final int _sample;
+    /** Number of chars in each record. */
+    private final int _recordSize;
+    /** Number of records in _ring, a power of two. */
+    private final int _capacity;
+    /** Ring of _capacity records. */
+    private final char[] _ring;
+    /** Number of records committed, as seen by the consumer. */
+    private final AtomicLong _head = new AtomicLong();
+    /** Number of records drained, as seen by the producer. */
+    private final AtomicLong _tail = new AtomicLong();
+    /** Number of records committed (used only by the producer). */
+    private long _produced;
+    /** Number of records known by the producer to have been drained. */
+    private long _consumed;
+    /** Number of message lines started. */
+    private long _messages;
+    /** True iff the current message line is traced. */
+    private boolean _active;
+    /** Destination of rendered records, or null. */
+    private Writer _text;
+    /** Destination of binary records, or null. */
+    private OutputStream _binary;
+    /** Bytes of records being written to _binary. */
+    private ByteBuffer _bytes;
+    /** The background writer, or null. */
+    private Thread _writer;
+    /** Set to stop the background writer once it has drained the
+     *  ring. */
+    private volatile boolean _closed;
+    /** The error that stopped the background writer, or null. */
+    private volatile IOException _failure;
+}
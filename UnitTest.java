@@ -16,7 +16,14 @@ public class UnitTest {
         }
         System.exit(textui.runClasses(PermutationTest.class,
                 MovingRotorTest.class,
-                MachineTest.class));
+                MachineTest.class,
+                GroupedOutputWriterTest.class,
+                MetricsTest.class,
+                BombeTest.class,
+                HillClimbTest.class,
+                BatchTest.class,
+                MultiMachineTest.class,
+                ServerTest.class));
     }
 
 }
@@ -0,0 +1,41 @@
+package enigma;
+
+/** Whether to use the incubating Vector API (module
+ *  jdk.incubator.vector) for the code paths that have a version using
+ *  it: Batch's and MultiMachine's.  The module is resolved only when
+ *  the JVM is started with --add-modules jdk.incubator.vector, as the
+ *  Makefile does; without it, those classes use their scalar code, and
+ *  their vector code, which lives in nested classes of its own, is never
+ *  loaded.
+ *
+ *  Those paths are off unless asked for, because they rest on gathers
+ *  (table lookups at a vector of indices), which JDK 17 does not compile
+ *  to vector instructions: there, the vector paths of Batch and of
+ *  MultiMachine (with 64 lanes) measured two to three times slower than
+ *  their scalar ones (see Benchmarks.batchScore,
+ *  Benchmarks.multiConvert and jmh/MultiMachineBenchmark).  Tests run
+ *  both paths and compare them, when the module is present.
+ *  @author Agam Gupta
+ */
+final class Vectors {
+
+    /** Not instantiable. */
+    private Vectors() {
+    }
+
+    /** Return true iff the Vector API is available and enabled.  This
+     *  is only the default: each Batch and MultiMachine may be switched
+     *  on its own (see their setVectors methods). */
+    static boolean enabled() {
+        return AVAILABLE && ENABLED;
+    }
+
+    /** True iff the Vector API module has been resolved. */
+    static final boolean AVAILABLE =
+        ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    /** True iff use of the Vector API has been asked for, by the
+     *  enigma.vectors system property. */
+    private static final boolean ENABLED =
+        Boolean.getBoolean("enigma.vectors");
+}
@@ -0,0 +1,60 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of Alphabet.toChar and Alphabet.toInt, cycling
+ *  through all symbols of an alphabet of SIZE symbols (see
+ *  Benchmarks.alphabetLookup).
+ *  @author Agam Gupta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AlphabetBenchmark {
+
+    /** Number of symbols in the alphabet. */
+    @Param({ "26", "64", "4096" })
+    public int size;
+
+    /** Build the alphabet. */
+    @Setup
+    public void setUp() {
+        _chars = Benchmarks.symbols(size);
+        _alphabet = new Alphabet(_chars);
+    }
+
+    /** Return the symbol at the next index. */
+    @Benchmark
+    public char toChar() {
+        _next = _next + 1 == size ? 0 : _next + 1;
+        return _alphabet.toChar(_next);
+    }
+
+    /** Return the index of the next symbol. */
+    @Benchmark
+    public int toInt() {
+        _next = _next + 1 == size ? 0 : _next + 1;
+        return _alphabet.toInt(_chars.charAt(_next));
+    }
+
+    /** The symbols of _alphabet. */
+    private String _chars;
+    /** The alphabet measured. */
+    private Alphabet _alphabet;
+    /** Index of the symbol looked up last. */
+    private int _next;
+}
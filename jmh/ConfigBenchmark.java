@@ -0,0 +1,47 @@
+package enigma;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmark of Main.readConfig on a configuration with ROTORS
+ *  rotors (see Benchmarks.configLoad).
+ *  @author Agam Gupta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ConfigBenchmark {
+
+    /** Number of rotors in the configuration. */
+    @Param({ "10", "1000", "100000" })
+    public int rotors;
+
+    /** Write the configuration. */
+    @Setup
+    public void setUp() {
+        _args = List.of(Benchmarks.tempFile(Benchmarks.catalog(rotors)));
+    }
+
+    /** Read the configuration. */
+    @Benchmark
+    public Machine readConfig() {
+        return new Main(_args).readConfig();
+    }
+
+    /** Main's arguments: the configuration file. */
+    private List<String> _args;
+}
@@ -0,0 +1,60 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of Machine.convert(int) on a synthetic machine over
+ *  SIZE symbols with ROTORS slots (see Benchmarks.machineConvert),
+ *  with and without metrics.
+ *  @author Agam Gupta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MachineBenchmark {
+
+    /** Number of symbols in the alphabet. */
+    @Param({ "26", "64", "4096" })
+    public int size;
+
+    /** Number of slots, all but the reflector's moving. */
+    @Param({ "3", "5", "8" })
+    public int rotors;
+
+    /** Whether the machine counts its work in a Metrics, to measure
+     *  the cost of metrics (which should be nothing when disabled). */
+    @Param({ "false", "true" })
+    public boolean metrics;
+
+    /** Build the machine. */
+    @Setup
+    public void setUp() {
+        _machine = Benchmarks.syntheticMachine(size, rotors);
+        _machine.setMetrics(metrics ? new Metrics() : null);
+    }
+
+    /** Convert one character, feeding back the last result. */
+    @Benchmark
+    public int convertInt() {
+        _last = _machine.convert(_last);
+        return _last;
+    }
+
+    /** The machine measured. */
+    private Machine _machine;
+    /** The character converted last by convertInt. */
+    private int _last;
+}
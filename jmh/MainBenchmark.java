@@ -0,0 +1,71 @@
+package enigma;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmark of Main.process on an input holding a message of
+ *  LENGTH characters over SIZE symbols in lines of 80, for a machine
+ *  with ROTORS slots (see Benchmarks.mainProcess).  Main reads and
+ *  writes files in the default charset, so alphabets wider than 26
+ *  symbols need a default charset that can encode them.
+ *  @author Agam Gupta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MainBenchmark {
+
+    /** Number of symbols in the alphabet. */
+    @Param({ "26" })
+    public int size;
+
+    /** Number of slots, all but the reflector's moving. */
+    @Param({ "3", "5", "8" })
+    public int rotors;
+
+    /** Number of characters in the message. */
+    @Param({ "1024", "1048576" })
+    public int length;
+
+    /** Write the configuration and input files. */
+    @Setup
+    public void setUp() {
+        StringBuilder input = new StringBuilder("* R");
+        for (int k = 0; k < rotors - 1; k += 1) {
+            input.append(" M").append(k);
+        }
+        input.append(' ').append(Benchmarks.symbols(size), 0, rotors - 1);
+        String text = Benchmarks.message(size, length);
+        for (int i = 0; i < length; i += 80) {
+            input.append('\n').append(text, i, Math.min(length, i + 80));
+        }
+        _args = List.of(Benchmarks.tempFile(
+                            Benchmarks.catalog(size, rotors, rotors - 1,
+                                               rotors)),
+                        Benchmarks.tempFile(input.append('\n').toString()),
+                        Benchmarks.tempFile(""));
+    }
+
+    /** Process the input. */
+    @Benchmark
+    public void process() {
+        new Main(_args).process();
+    }
+
+    /** Main's arguments: configuration, input, and output files. */
+    private List<String> _args;
+}
@@ -0,0 +1,102 @@
+package enigma;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of converting LANES 60-character messages, each under
+ *  its own rotor order and settings, over 26 symbols with 5 slots (see
+ *  Benchmarks.multiConvert): in the lanes of a MultiMachine, with its
+ *  scalar code or with the Vector API, and one after another, each by
+ *  its own Machine.  Each operation sets every lane up afresh and
+ *  converts all its messages.  The forks resolve the Vector API module,
+ *  so that the vector path is really taken.
+ *  @author Agam Gupta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1,
+      jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class MultiMachineBenchmark {
+
+    /** Number of messages, and of lanes. */
+    @Param({ "1", "8", "64" })
+    public int lanes;
+
+    /** Whether the MultiMachine uses the Vector API. */
+    @Param({ "false", "true" })
+    public boolean vectors;
+
+    /** Build the machines, their settings and messages, and the
+     *  MultiMachine. */
+    @Setup
+    public void setUp() {
+        MachineSpec spec =
+            new Main(List.of(Benchmarks.tempFile(
+                Benchmarks.catalog(26, 5, 4, 8)))).readConfig().spec();
+        List<String[]> orders = spec.rotorOrders();
+        String chars = Benchmarks.symbols(26);
+        _machines = new Machine[lanes];
+        _settings = new String[lanes];
+        _messages = new String[lanes];
+        for (int lane = 0; lane < lanes; lane += 1) {
+            _machines[lane] = spec.newMachine();
+            _machines[lane].insertRotors(
+                orders.get(lane * 37 % orders.size()));
+            _machines[lane].setPlugboard(
+                new Permutation("(AB) (CD) (EF)", spec.alphabet()));
+            _settings[lane] = "";
+            for (int i = 0; i < 4; i += 1) {
+                _settings[lane] += chars.charAt((lane * 7 + i * 5) % 26);
+            }
+            _messages[lane] = Benchmarks.message(26, 60).substring(lane % 7)
+                + chars.substring(0, lane % 7);
+        }
+        _multi = new MultiMachine(spec, lanes);
+        _multi.setVectors(vectors);
+    }
+
+    /** Convert the messages in the lanes of the MultiMachine. */
+    @Benchmark
+    public String[] multiMachine() {
+        for (int lane = 0; lane < lanes; lane += 1) {
+            _machines[lane].setRotors(_settings[lane]);
+            _multi.setLane(lane, _machines[lane]);
+        }
+        return _multi.convert(_messages);
+    }
+
+    /** Convert the messages one after another, each by its own
+     *  machine.  Does not depend on vectors. */
+    @Benchmark
+    public int machine() {
+        int acc = 0;
+        for (int lane = 0; lane < lanes; lane += 1) {
+            _machines[lane].setRotors(_settings[lane]);
+            acc += _machines[lane].convert(_messages[lane]).charAt(0);
+        }
+        return acc;
+    }
+
+    /** The machine for each lane. */
+    private Machine[] _machines;
+    /** The rotor settings of each lane. */
+    private String[] _settings;
+    /** The message of each lane. */
+    private String[] _messages;
+    /** The lanes converting the messages. */
+    private MultiMachine _multi;
+}
@@ -0,0 +1,59 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of Permutation.permute and Permutation.invert on a
+ *  single scrambled cycle over an alphabet of SIZE symbols (see
+ *  Benchmarks.permutationLookup).
+ *  @author Agam Gupta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PermutationBenchmark {
+
+    /** Number of symbols in the alphabet. */
+    @Param({ "26", "64", "4096" })
+    public int size;
+
+    /** Build the permutation. */
+    @Setup
+    public void setUp() {
+        String chars = Benchmarks.symbols(size);
+        _perm = new Permutation(Benchmarks.scrambledCycle(chars),
+                                new Alphabet(chars));
+    }
+
+    /** Return the image of the next index. */
+    @Benchmark
+    public int permute() {
+        _next = _next + 1 == size ? 0 : _next + 1;
+        return _perm.permute(_next);
+    }
+
+    /** Return the preimage of the next index. */
+    @Benchmark
+    public int invert() {
+        _next = _next + 1 == size ? 0 : _next + 1;
+        return _perm.invert(_next);
+    }
+
+    /** The permutation measured. */
+    private Permutation _perm;
+    /** Index permuted last. */
+    private int _next;
+}
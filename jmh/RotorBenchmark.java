@@ -0,0 +1,75 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of Rotor.convertForward and Rotor.convertBackward on
+ *  a rotor over an alphabet of SIZE symbols, cycling through all
+ *  contacts and settings (see Benchmarks.rotorConvert).
+ *  @author Agam Gupta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RotorBenchmark {
+
+    /** Number of symbols in the alphabet. */
+    @Param({ "26", "64", "4096" })
+    public int size;
+
+    /** Whether the rotor uses its precomputed tables. */
+    @Param({ "true", "false" })
+    public boolean tables;
+
+    /** Build the rotor. */
+    @Setup
+    public void setUp() {
+        String chars = Benchmarks.symbols(size);
+        _rotor = new MovingRotor("R",
+            new Permutation(Benchmarks.scrambledCycle(chars),
+                            new Alphabet(chars)), "")
+            .withTableLimit(tables ? Integer.MAX_VALUE : 0);
+        _rotor.convertForward(0);
+    }
+
+    /** Convert the next contact from right to left. */
+    @Benchmark
+    public int convertForward() {
+        return _rotor.convertForward(next());
+    }
+
+    /** Convert the next contact from left to right. */
+    @Benchmark
+    public int convertBackward() {
+        return _rotor.convertBackward(next());
+    }
+
+    /** Return the next contact, advancing the rotor after each pass
+     *  through all of them. */
+    private int next() {
+        _next += 1;
+        if (_next == size) {
+            _next = 0;
+            _rotor.advance();
+        }
+        return _next;
+    }
+
+    /** The rotor measured. */
+    private Rotor _rotor;
+    /** Contact converted last. */
+    private int _next;
+}